@@ -0,0 +1,77 @@
+/**
+ * Walker's alias table (built with Vose's method): draws an index from a fixed
+ * discrete distribution in constant time, with one random long, however many
+ * outcomes there are.
+ *
+ * Each column holds its own outcome with some probability and an alias
+ * outcome otherwise. The high 32 bits of the random long pick the column and
+ * the low 32 bits decide between the column's outcome and its alias.
+ */
+public final class AliasTable {
+    private final int[] alias;
+    private final long[] cutoff;   // the column's own outcome is drawn if the low 32 bits are below this
+
+    /**
+     * Builds a table
+     * @param weights Relative weight of each outcome (non-negative, not all zero)
+     */
+    public AliasTable(double[] weights) {
+        int n = weights.length;
+        double total = 0;
+        for (double w : weights) {
+            if (!(w >= 0) || Double.isInfinite(w)) {
+                throw new IllegalArgumentException("Invalid weight: " + w);
+            }
+            total += w;
+        }
+        if (n == 0 || total == 0) {
+            throw new IllegalArgumentException("No outcome has any weight");
+        }
+        alias = new int[n];
+        cutoff = new long[n];
+
+        // scaled so the average column is exactly full
+        double[] scaled = new double[n];
+        int[] small = new int[n];
+        int[] large = new int[n];
+        int numSmall = 0;
+        int numLarge = 0;
+        for (int i = 0; i < n; i++) {
+            scaled[i] = weights[i] * n / total;
+            if (scaled[i] < 1.0) { small[numSmall++] = i; }
+            else                 { large[numLarge++] = i; }
+        }
+        while (numSmall > 0 && numLarge > 0) {
+            int s = small[--numSmall];
+            int l = large[--numLarge];
+            cutoff[s] = toCutoff(scaled[s]);
+            alias[s] = l;
+            scaled[l] -= 1.0 - scaled[s];
+            if (scaled[l] < 1.0) { small[numSmall++] = l; }
+            else                 { large[numLarge++] = l; }
+        }
+        // what is left is full, up to rounding
+        while (numLarge > 0) { int l = large[--numLarge]; cutoff[l] = 1L << 32; alias[l] = l; }
+        while (numSmall > 0) { int s = small[--numSmall]; cutoff[s] = 1L << 32; alias[s] = s; }
+    }
+
+    private static long toCutoff(double p) {
+        return Math.min(1L << 32, Math.round(p * (1L << 32)));
+    }
+
+    /**
+     * Draws an outcome
+     * @param bits A uniformly random long (e.g. from SplitMix64.nextLong)
+     * return the index of the outcome
+     */
+    public int sample(long bits) {
+        int column = (int) (((bits >>> 32) * alias.length) >>> 32);
+        return (bits & 0xFFFFFFFFL) < cutoff[column] ? column : alias[column];
+    }
+
+    public int sample(SplitMix64 random) {
+        return sample(random.nextLong());
+    }
+
+    public int size() { return alias.length; }
+}
@@ -0,0 +1,125 @@
+import java.lang.management.*;
+import java.util.*;
+
+/**
+ * Checks that a steady-state simulation tick allocates nothing, in both the
+ * tick loop and event-driven mode. Exits with status 1 if any tick does, so it
+ * can be run as part of a build to stop allocations creeping back into the
+ * tick loop.
+ *
+ * The tick loop is checked with patients made before the measured ticks, and
+ * then together with patient generation, with the generator recycling
+ * discharged patients from a reserved pool, and with the departments' history
+ * being recorded (TimeSeriesRecorder). The hospital is given enough beds
+ * to keep its queues bounded, and is run for a warm-up period first, so the
+ * JIT has compiled the tick loop and every reused buffer has reached its
+ * working size. Every mode is also run once unmeasured before any is
+ * measured, since a mode that reaches the shared code with new types makes
+ * the JIT recompile it, and recompiling may allocate a little.
+ *
+ * Arguments: [warm-up ticks] [measured ticks]
+ */
+public class AllocationCheck {
+    private static final int[] STABLE_CAPACITIES = {16, 8, 12, 8, 14};
+    private static final int QUEUE_CAPACITY = 256;
+    private static final int RECYCLED_PATIENTS = 512;
+
+    private static final com.sun.management.ThreadMXBean THREADS =
+        (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+    /**
+     * Patients made ahead of time, handed out without allocating
+     */
+    private static final class PreparedArrivals implements ArrivalSource {
+        private final Patient[] patients;
+        private int next = 0;
+
+        PreparedArrivals(ArrivalSource source, int endTime) {
+            List<Patient> list = new ArrayList<>();
+            Patient p;
+            while ((p = source.next()) != null && p.getArrivalTime() < endTime) {
+                list.add(p);
+            }
+            patients = list.toArray(new Patient[0]);
+        }
+
+        @Override
+        public Patient next() {
+            return next < patients.length ? patients[next++] : null;
+        }
+    }
+
+    /**
+     * Runs the standard hospital (with stable capacities) and returns the
+     * bytes allocated by the measured ticks
+     * @param generate Whether patients are generated during the run (recycled),
+     *                 rather than made beforehand, and the history recorded
+     */
+    private static long measure(boolean eventDriven, boolean generate, int warmup, int ticks) {
+        PatientGenerator generator = new PatientGenerator(new SplitMix64(1));
+        ArrivalSource arrivals;
+        if (generate) {
+            generator.reserveRecycled(RECYCLED_PATIENTS);
+            arrivals = new GeneratorArrivals(generator);
+        } else {
+            arrivals = new PreparedArrivals(new GeneratorArrivals(generator), warmup + ticks);
+        }
+        SimulationEngine engine = new SimulationEngine(true, arrivals, STABLE_CAPACITIES);
+        engine.setEventDriven(eventDriven);
+        if (generate) {
+            engine.setRecorder(new TimeSeriesRecorder(engine));
+        }
+        for (Department dept : engine.getDepartments()) {
+            dept.ensureWaitingCapacity(QUEUE_CAPACITY);
+        }
+        engine.runUntil(warmup);
+
+        long before = THREADS.getCurrentThreadAllocatedBytes();
+        engine.runUntil(warmup + ticks);
+        long allocated = THREADS.getCurrentThreadAllocatedBytes() - before;
+
+        int longestQueue = 0;
+        for (Department dept : engine.getDepartments()) {
+            longestQueue = Math.max(longestQueue, dept.getMaxQueueLength());
+        }
+        if (longestQueue > QUEUE_CAPACITY) {
+            System.out.println("  (queues grew to " + longestQueue + ", beyond the reserved " + QUEUE_CAPACITY + ")");
+        }
+        return allocated;
+    }
+
+    public static void main(String[] args) {
+        int warmup = args.length > 0 ? Integer.parseInt(args[0]) : 100_000;
+        int ticks = args.length > 1 ? Integer.parseInt(args[1]) : 200_000;
+        if (!THREADS.isThreadAllocatedMemorySupported()) {
+            System.out.println("Allocation counting is not supported by this JVM");
+            System.exit(2);
+        }
+        THREADS.setThreadAllocatedMemoryEnabled(true);
+
+        // the counter itself may allocate when first used
+        long overhead = THREADS.getCurrentThreadAllocatedBytes();
+        overhead = THREADS.getCurrentThreadAllocatedBytes() - overhead;
+
+        for (boolean generate : new boolean[]{false, true}) {
+            for (boolean eventDriven : new boolean[]{false, true}) {
+                measure(eventDriven, generate, warmup, ticks);
+            }
+        }
+        boolean failed = false;
+        for (boolean generate : new boolean[]{false, true}) {
+            for (boolean eventDriven : new boolean[]{false, true}) {
+                long bytes = measure(eventDriven, generate, warmup, ticks) - overhead;
+                String mode = (eventDriven ? "event-driven" : "tick loop") + (generate ? ", generating, recording" : "");
+                System.out.printf("%-36s %,d ticks: %,d bytes allocated (%.3f per tick)%n",
+                                  mode, ticks, bytes, (double) bytes / ticks);
+                if (bytes > 0) { failed = true; }
+            }
+        }
+        if (failed) {
+            System.out.println("FAILED: steady-state ticks allocate");
+            System.exit(1);
+        }
+        System.out.println("OK: steady-state ticks allocate nothing");
+    }
+}
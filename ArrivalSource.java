@@ -0,0 +1,20 @@
+
+/**
+ * A stream of arriving patients for a SimulationEngine, such as a
+ * PatientGenerator (GeneratorArrivals) or a recorded trace (TraceReader).
+ */
+public interface ArrivalSource {
+
+    /**
+     * Returns the next patient to arrive. Patients are returned in order of
+     * arrival time (several may arrive at the same tick).
+     * return the patient, or null if the source has no more patients
+     */
+    Patient next();
+
+    /**
+     * Told about each patient the engine has discharged and no longer refers
+     * to, so the source may reuse it (by default, nothing is done)
+     */
+    default void release(Patient patient) { }
+}
@@ -0,0 +1,516 @@
+import java.util.*;
+
+/**
+ * Arrivals for heavy and bursty loads, as an ArrivalSource.
+ *
+ * The number of patients arriving in each tick is Poisson distributed, so any
+ * number may arrive in one tick (a PatientGenerator makes at most one). The
+ * rate may switch between levels, staying a random time at each (a
+ * Markov-modulated Poisson process), to model surges such as mass-casualty
+ * incidents.
+ *
+ * Patients are made a tick's batch at a time. The random bits for the whole
+ * batch are drawn in one bulk call, then each field (priorities, names,
+ * treatment plans) is filled for every patient of the batch by a loop over
+ * arrays. Every random choice is a table lookup:
+ * - the size of a batch, from an alias table of the Poisson distribution
+ *   (without 0) for each rate level
+ * - each further treatment, from an alias table of the departments other than
+ *   the previous one (the distribution PatientGenerator's rejection loop gives)
+ * - treatment times, from a table of log-normal quantiles
+ * Ticks without arrivals are skipped by drawing the gap to the next tick with
+ * arrivals, so a quiet period costs one draw.
+ *
+ * The patients follow the same distributions as a PatientGenerator's, but are
+ * not drawn from the same random numbers. Batches can also be added straight
+ * to a PatientStore (nextBatch), without making Patient objects.
+ */
+public class BatchArrivals implements ArrivalSource {
+    private static final int MAX_PLAN = 7;             // ER, maybe Surgery, then up to 5 more
+    private static final int PLAN_STRIDE = 2 * MAX_PLAN;
+    private static final int BITS_PER_PATIENT = 5;     // random longs drawn for each patient (see fillBatch)
+    private static final double NEGLIGIBLE = 1e-17;    // batch sizes less likely than this are left out
+
+    // The departments a further treatment may be in, with their probabilities and median times
+    private static final int[] OPTION_DEPT = {DepartmentRegistry.MRI, DepartmentRegistry.SURGERY,
+                                              DepartmentRegistry.XRAY, DepartmentRegistry.ULTRASOUND,
+                                              DepartmentRegistry.ER};
+    private static final double[] OPTION_WEIGHT = {0.05, 0.05, 0.25, 0.25, 0.4};
+    private static final int[] OPTION_MEDIAN = {200, 200, 20, 20, 10};
+    private static final int OPTION_SURGERY = 1;
+    private static final int OPTION_ER = 4;
+    private static final int MAX_FURTHER = 5;
+
+    // Every sequence of further treatments (1 to 5 options, none the same as the
+    // one before), packed as 3 bits per option and the length above them,
+    // with an alias table drawing them: [0] after ER, [1] after ER and Surgery
+    private static final int[][] SEQUENCES = new int[2][];
+    private static final AliasTable[] SEQUENCE_TABLES = new AliasTable[2];
+    static {
+        int[] after = {OPTION_ER, OPTION_SURGERY};
+        for (int s = 0; s < 2; s++) {
+            List<Integer> codes = new ArrayList<>();
+            List<Double> weights = new ArrayList<>();
+            addSequences(after[s], 0, 0, 1.0 / MAX_FURTHER, codes, weights);
+            SEQUENCES[s] = new int[codes.size()];
+            double[] w = new double[codes.size()];
+            for (int i = 0; i < w.length; i++) {
+                SEQUENCES[s][i] = codes.get(i);
+                w[i] = weights.get(i);
+            }
+            SEQUENCE_TABLES[s] = new AliasTable(w);
+        }
+    }
+
+    /**
+     * Adds the sequences that start with the given options (code, length) and
+     * go on from the given previous option, with their probabilities: each
+     * option is drawn from those other than the previous one, in proportion to
+     * their weights, and the number of further treatments is uniform
+     */
+    private static void addSequences(int previous, int code, int length, double probability,
+                                     List<Integer> codes, List<Double> weights) {
+        if (length > 0) {
+            codes.add(length << (3 * MAX_FURTHER) | code);
+            weights.add(probability);
+        }
+        if (length == MAX_FURTHER) {
+            return;
+        }
+        double others = 1 - OPTION_WEIGHT[previous];
+        for (int option = 0; option < OPTION_DEPT.length; option++) {
+            if (option != previous) {
+                addSequences(option, code | option << (3 * length), length + 1,
+                             probability * OPTION_WEIGHT[option] / others, codes, weights);
+            }
+        }
+    }
+
+    private final SplitMix64 random;
+
+    // Rate levels, each with its batch size table: size = minBatch[level] + table sample
+    private double[] rates;
+    private double[] meanDurations;
+    private AliasTable[] batchSizes;
+    private int[] minBatch;
+    private int level = 0;
+    private int levelEnd;      // first tick after the current level, Integer.MAX_VALUE if it never ends
+
+    // Priority mix, as cutoffs for 32 random bits; and chance of surgery first, as cutoffs for 16 bits
+    private long pri1Cutoff;
+    private long pri2Cutoff;
+    private static final int SURGERY_FIRST_PRI1 = (int) (0.4 * 0x10000);
+    private static final int SURGERY_FIRST_PRI2 = (int) (0.1 * 0x10000);
+
+    private int time = 0;             // first tick not drawn yet
+    private int patientsMade = 0;     // numbers the patients, for their ids
+
+    // The current batch, one entry per patient (plans as (department id, duration) pairs)
+    private int batchTime;
+    private int batchSize = 0;
+    private int batchNext = 0;        // first patient of the batch not handed out yet
+    private long[] bits = new long[0];
+    private int[] priority = new int[0];
+    private int[] firstName = new int[0];
+    private int[] lastName = new int[0];
+    private int[] planLength = new int[0];
+    private int[] plans = new int[0];
+
+    // Scratch space for making a Patient from the batch
+    private final int[] planDepts = new int[MAX_PLAN];
+    private final int[] planTimes = new int[MAX_PLAN];
+
+    // Discharged patients kept for reuse (null when not recycling)
+    private static final int MAX_RECYCLED = 1024;
+    private Patient[] recycled = null;
+    private int numRecycled = 0;
+
+    /**
+     * Creates a source with a constant arrival rate
+     * @param rate Mean number of patients arriving per tick
+     */
+    public BatchArrivals(SplitMix64 random, double rate) {
+        this.random = random;
+        setPriorityMix(0.1, 0.2);
+        setRate(rate);
+    }
+
+    // ================== Configuration ==================
+
+    /**
+     * Sets a constant arrival rate, from the next tick not drawn yet
+     * @param rate Mean number of patients arriving per tick
+     */
+    public void setRate(double rate) {
+        setRates(new double[]{rate}, new double[]{Double.POSITIVE_INFINITY});
+    }
+
+    /**
+     * Makes the arrival rate switch between levels: it stays at each level
+     * for a random time (geometrically distributed, with the given mean),
+     * then moves to the next level, and back to the first after the last.
+     * Starts at the first level, from the next tick not drawn yet
+     * @param rates Mean number of patients arriving per tick at each level
+     * @param meanDurations Mean number of ticks spent at each level (at least 1,
+     *                      infinite to stay there)
+     */
+    public void setRates(double[] rates, double[] meanDurations) {
+        if (rates.length == 0 || rates.length != meanDurations.length) {
+            throw new IllegalArgumentException("Need one mean duration for each of at least one rate");
+        }
+        AliasTable[] tables = new AliasTable[rates.length];
+        int[] mins = new int[rates.length];
+        int maxBatch = 0;
+        for (int i = 0; i < rates.length; i++) {
+            if (!(rates[i] >= 0) || Double.isInfinite(rates[i])) {
+                throw new IllegalArgumentException("Invalid arrival rate: " + rates[i]);
+            }
+            if (!(meanDurations[i] >= 1)) {
+                throw new IllegalArgumentException("Mean duration must be at least 1 tick: " + meanDurations[i]);
+            }
+            if (rates[i] > 0) {
+                double[] weights = batchSizeWeights(rates[i]);
+                mins[i] = (int) weights[weights.length - 1];
+                tables[i] = new AliasTable(Arrays.copyOf(weights, weights.length - 1));
+                maxBatch = Math.max(maxBatch, mins[i] + weights.length - 2);
+            }
+        }
+        this.rates = rates.clone();
+        this.meanDurations = meanDurations.clone();
+        this.batchSizes = tables;
+        this.minBatch = mins;
+        ensureBatchCapacity(maxBatch);
+        enterLevel(0);
+    }
+
+    /**
+     * Relative probabilities of the batch sizes at a rate: those of a Poisson
+     * distribution without 0 (a tick with arrivals has at least one), from the
+     * smallest size that is not negligible. The last element is that smallest size
+     */
+    private static double[] batchSizeWeights(double rate) {
+        int mode = Math.max(1, (int) rate);
+        int low = mode;
+        for (double w = 1; low > 1 && w >= NEGLIGIBLE; low--) {
+            w *= low / rate;             // P(low-1) / P(low) = low / rate
+        }
+        int high = mode;
+        for (double w = 1; w >= NEGLIGIBLE; high++) {
+            w *= rate / (high + 1);      // P(high+1) / P(high) = rate / (high+1)
+        }
+        double[] weights = new double[high - low + 2];
+        weights[mode - low] = 1;
+        for (int k = mode - 1; k >= low; k--) {
+            weights[k - low] = weights[k + 1 - low] * (k + 1) / rate;
+        }
+        for (int k = mode + 1; k <= high; k++) {
+            weights[k - low] = weights[k - 1 - low] * rate / k;
+        }
+        weights[weights.length - 1] = low;
+        return weights;
+    }
+
+    /**
+     * Sets the mix of priorities
+     * @param probPri1 Probability of a priority 1 patient (0-1)
+     * @param probPri2 Probability of a priority 2 patient (0-1)
+     */
+    public void setPriorityMix(double probPri1, double probPri2) {
+        if (probPri1 < 0 || probPri2 < 0 || probPri1 + probPri2 > 1) {
+            throw new IllegalArgumentException("Invalid priority mix: " + probPri1 + ", " + probPri2);
+        }
+        pri1Cutoff = (long) (probPri1 * (1L << 32));
+        pri2Cutoff = (long) ((probPri1 + probPri2) * (1L << 32));
+    }
+
+    /**
+     * Turns recycling of discharged patients on or off (see PatientGenerator.setRecycling)
+     */
+    public void setRecycling(boolean recycling) {
+        if (recycling && recycled == null) {
+            recycled = new Patient[MAX_RECYCLED];
+        } else if (!recycling) {
+            recycled = null;
+            numRecycled = 0;
+        }
+    }
+
+    public boolean isRecycling() { return recycled != null; }
+    public int getLevel() { return level; }
+
+    /**
+     * The largest number of patients that can arrive in one tick (with more
+     * than a negligible chance), the room needed by nextBatch
+     */
+    public int getMaxBatchSize() { return priority.length; }
+
+    // ================== Arrivals ==================
+
+    @Override
+    public Patient next() {
+        if (batchNext == batchSize && !drawBatch()) {
+            return null;
+        }
+        int i = batchNext++;
+        int n = planLength[i];
+        for (int t = 0; t < n; t++) {
+            planDepts[t] = plans[i * PLAN_STRIDE + 2 * t];
+            planTimes[t] = plans[i * PLAN_STRIDE + 2 * t + 1];
+        }
+        if (numRecycled > 0) {
+            Patient p = recycled[--numRecycled];
+            recycled[numRecycled] = null;
+            p.reuse(patientsMade++, batchTime, priority[i], firstName[i], lastName[i], planDepts, planTimes, n);
+            return p;
+        }
+        return new Patient(patientsMade++, batchTime, priority[i], firstName[i], lastName[i],
+                           planDepts, planTimes, n);
+    }
+
+    /**
+     * Hands back a discharged patient for reuse, if recycling
+     */
+    @Override
+    public void release(Patient patient) {
+        if (recycled != null && numRecycled < recycled.length && patient.isNamedByIndex()) {
+            recycled[numRecycled++] = patient;
+        }
+    }
+
+    /**
+     * Adds the next batch of patients to a store, without making Patient
+     * objects (the rest of the current batch, if next() has taken some of it)
+     * @param handles Receives the new patients' handles (room for getMaxBatchSize())
+     * return the number of patients added, all arriving at getBatchTime(),
+     *        or 0 if no more patients arrive
+     */
+    public int nextBatch(PatientStore store, int[] handles) {
+        if (batchNext == batchSize && !drawBatch()) {
+            return 0;
+        }
+        int first = batchNext;
+        int count = batchSize - first;
+        if (first == 0) {
+            store.addBatch(batchTime, count, priority, firstName, lastName, planLength, plans, PLAN_STRIDE, handles);
+        } else {
+            for (int i = 0; i < count; i++) {
+                handles[i] = store.add(batchTime, priority[first + i], firstName[first + i], lastName[first + i],
+                                       Arrays.copyOfRange(plans, (first + i) * PLAN_STRIDE,
+                                                          (first + i + 1) * PLAN_STRIDE),
+                                       planLength[first + i]);
+            }
+        }
+        patientsMade += count;
+        batchNext = batchSize;
+        return count;
+    }
+
+    /**
+     * Arrival time of the patients of the current batch
+     */
+    public int getBatchTime() { return batchTime; }
+
+    // ================== Drawing ==================
+
+    /**
+     * Draws the next tick with arrivals and fills in its batch
+     * return false if no patients will ever arrive again
+     */
+    private boolean drawBatch() {
+        while (true) {
+            double rate = rates[level];
+            if (rate > 0) {
+                // ticks are empty with probability e^-rate, so the gap is a rounded-down exponential
+                long gap = (long) (-Math.log(1 - random.nextDouble()) / rate);
+                if (time + gap < levelEnd) {
+                    time += (int) gap;
+                    break;
+                }
+            }
+            if (levelEnd == Integer.MAX_VALUE) {
+                return false;
+            }
+            time = levelEnd;
+            enterLevel((level + 1) % rates.length);
+        }
+        int size = minBatch[level] + batchSizes[level].sample(random.nextLong());
+        fillBatch(size);
+        batchTime = time++;
+        batchSize = size;
+        batchNext = 0;
+        return true;
+    }
+
+    /**
+     * Moves to a rate level, drawing how long it will last
+     */
+    private void enterLevel(int newLevel) {
+        level = newLevel;
+        double mean = meanDurations[newLevel];
+        if (Double.isInfinite(mean) || rates.length == 1) {
+            levelEnd = Integer.MAX_VALUE;
+            return;
+        }
+        long duration = 1;
+        if (mean > 1) {
+            duration += (long) (Math.log(1 - random.nextDouble()) / Math.log(1 - 1 / mean));
+        }
+        levelEnd = (int) Math.min(Integer.MAX_VALUE, time + duration);
+    }
+
+    /**
+     * Fills in the fields of a batch of patients. Each patient has a fixed
+     * block of random longs:
+     * - 0: priority (high 32 bits), whether surgery comes first (low 16 bits)
+     * - 1: first name (high 32 bits) and last name (low 32 bits)
+     * - 2: the sequence of further treatments
+     * - 3, 4: treatment times, 12 bits each
+     */
+    private void fillBatch(int size) {
+        random.nextLongs(bits, 0, size * BITS_PER_PATIENT);
+
+        for (int i = 0; i < size; i++) {
+            long u = bits[i * BITS_PER_PATIENT] >>> 32;
+            priority[i] = u < pri1Cutoff ? 1 : u < pri2Cutoff ? 2 : 3;
+        }
+
+        int numFirst = PatientGenerator.getFirstNameCount();
+        int numLast = PatientGenerator.getLastNameCount();
+        for (int i = 0; i < size; i++) {
+            long b = bits[i * BITS_PER_PATIENT + 1];
+            firstName[i] = (int) (((b >>> 32) * numFirst) >>> 32);
+            lastName[i] = (int) (((b & 0xFFFFFFFFL) * numLast) >>> 32);
+        }
+
+        for (int i = 0; i < size; i++) {
+            int block = i * BITS_PER_PATIENT;
+            int base = i * PLAN_STRIDE;
+            int surgeryCutoff = priority[i] == 1 ? SURGERY_FIRST_PRI1 : priority[i] == 2 ? SURGERY_FIRST_PRI2 : 0;
+            int surgery = (int) (bits[block] & 0xFFFF) < surgeryCutoff ? 1 : 0;
+            int code = SEQUENCES[surgery][SEQUENCE_TABLES[surgery].sample(bits[block + 2])];
+            long times = bits[block + 3];
+
+            plans[base] = DepartmentRegistry.ER;
+            plans[base + 1] = treatmentTime(20, times);
+            plans[base + 2] = DepartmentRegistry.SURGERY;   // overwritten below if there is no surgery
+            plans[base + 3] = treatmentTime(60, times >>> 12);
+            // every slot is written, even past the end of a short plan, so the loop always runs the same
+            int first = 1 + surgery;
+            for (int t = 0; t < MAX_FURTHER; t++) {
+                int option = (code >>> (3 * t)) & 7;
+                int slot = first + t;
+                long timeBits = slot < 5 ? times >>> (12 * slot) : bits[block + 4] >>> (12 * (slot - 5));
+                plans[base + 2*slot] = OPTION_DEPT[option];
+                plans[base + 2*slot + 1] = treatmentTime(OPTION_MEDIAN[option], timeBits);
+            }
+            planLength[i] = first + (code >>> (3 * MAX_FURTHER));
+        }
+    }
+
+    /**
+     * A treatment time with the given median, from the low 12 bits of a random long
+     */
+    private static int treatmentTime(int medianTime, long bits) {
+        return (int) (1 + (medianTime - 1) * LogNormal.QUANTILES[(int) (bits & LogNormal.MASK)]);
+    }
+
+    private void ensureBatchCapacity(int size) {
+        if (size > priority.length) {
+            bits = new long[size * BITS_PER_PATIENT];
+            priority = Arrays.copyOf(priority, size);
+            firstName = Arrays.copyOf(firstName, size);
+            lastName = Arrays.copyOf(lastName, size);
+            planLength = Arrays.copyOf(planLength, size);
+            plans = Arrays.copyOf(plans, size * PLAN_STRIDE);
+        }
+    }
+
+    // ================== Log-normal times ==================
+
+    /**
+     * The log-normal factor of PatientGenerator.GenerateTime (e^(0.6 z) for a
+     * standard normal z) as a table of 4096 equally likely values, the
+     * quantiles at the middle of each 1/4096 of probability. Drawing from it
+     * takes 12 random bits and no logs or square roots; it leaves out only the
+     * most extreme 1/8192 of each tail
+     */
+    private static final class LogNormal {
+        static final int BITS = 12;
+        static final int MASK = (1 << BITS) - 1;
+        static final double SIGMA = 0.6;
+        static final double[] QUANTILES = new double[1 << BITS];
+        static {
+            for (int i = 0; i < QUANTILES.length; i++) {
+                QUANTILES[i] = Math.exp(SIGMA * inverseNormal((i + 0.5) / QUANTILES.length));
+            }
+        }
+
+        /**
+         * The standard normal quantile function, by Acklam's rational
+         * approximation (relative error below 1.2e-9)
+         */
+        static double inverseNormal(double p) {
+            final double[] a = {-3.969683028665376e+01, 2.209460984245205e+02, -2.759285104469687e+02,
+                                1.383577518672690e+02, -3.066479806614716e+01, 2.506628277459239e+00};
+            final double[] b = {-5.447609879822406e+01, 1.615858368580409e+02, -1.556989798598866e+02,
+                                6.680131188771972e+01, -1.328068155288572e+01};
+            final double[] c = {-7.784894002430293e-03, -3.223964580411365e-01, -2.400758277161838e+00,
+                                -2.549732539343734e+00, 4.374664141464968e+00, 2.938163982698783e+00};
+            final double[] d = {7.784695709041462e-03, 3.224671290700398e-01, 2.445134137142996e+00,
+                                3.754408661907416e+00};
+            if (p < 0.02425 || p > 1 - 0.02425) {
+                double q = Math.sqrt(-2 * Math.log(Math.min(p, 1 - p)));
+                double x = (((((c[0]*q + c[1])*q + c[2])*q + c[3])*q + c[4])*q + c[5]) /
+                           ((((d[0]*q + d[1])*q + d[2])*q + d[3])*q + 1);
+                return p < 0.5 ? x : -x;
+            }
+            double q = p - 0.5;
+            double r = q*q;
+            return (((((a[0]*r + a[1])*r + a[2])*r + a[3])*r + a[4])*r + a[5])*q /
+                   (((((b[0]*r + b[1])*r + b[2])*r + b[3])*r + b[4])*r + 1);
+        }
+    }
+
+    /**
+     * Runs the standard hospital through surges of arrivals, and times making
+     * patients in batches into a PatientStore
+     * Arguments: [ticks] [seed] [base rate] [surge rate] [mean ticks between surges] [mean surge length]
+     */
+    public static void main(String[] args) {
+        int ticks = args.length > 0 ? Integer.parseInt(args[0]) : 100_000;
+        long seed = args.length > 1 ? Long.parseLong(args[1]) : 1;
+        double baseRate = args.length > 2 ? Double.parseDouble(args[2]) : 0.2;
+        double surgeRate = args.length > 3 ? Double.parseDouble(args[3]) : 2.0;
+        double between = args.length > 4 ? Double.parseDouble(args[4]) : 20_000;
+        double surgeLength = args.length > 5 ? Double.parseDouble(args[5]) : 100;
+
+        BatchArrivals arrivals = new BatchArrivals(new SplitMix64(seed), baseRate);
+        arrivals.setRates(new double[]{baseRate, surgeRate}, new double[]{between, surgeLength});
+        arrivals.setRecycling(true);
+        SimulationEngine engine = new SimulationEngine(true, arrivals, SimulationEngine.STANDARD_CAPACITIES);
+        engine.setEventDriven(true);
+        long start = System.nanoTime();
+        engine.runUntil(ticks);
+        long elapsed = System.nanoTime() - start;
+        System.out.println(engine.reportStatistics());
+        System.out.printf("%n%d ticks in %.3f s%n", ticks, elapsed / 1e9);
+
+        // generation alone, at the surge rate, into a store that releases each batch
+        BatchArrivals source = new BatchArrivals(new SplitMix64(seed), surgeRate);
+        PatientStore store = new PatientStore(source.getMaxBatchSize());
+        int[] handles = new int[source.getMaxBatchSize()];
+        long patients = 0;
+        for (int round = 0; round < 2; round++) {   // the first round warms up the JIT
+            patients = 0;
+            start = System.nanoTime();
+            while (patients < 20_000_000) {
+                int n = source.nextBatch(store, handles);
+                for (int i = 0; i < n; i++) { store.release(handles[i]); }
+                patients += n;
+            }
+            elapsed = System.nanoTime() - start;
+        }
+        System.out.printf("%,d patients made into a PatientStore in %.3f s (%.1f million per second)%n",
+                          patients, elapsed / 1e9, patients / (elapsed / 1e3));
+    }
+}
@@ -0,0 +1,238 @@
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * Capacity planning: evaluates a grid of treatment room sizes and generator
+ * parameters in parallel and finds the Pareto frontier of total beds against
+ * the 95th percentile waiting time of priority 1 patients.
+ *
+ * The sweep runs in two stages to save time:
+ * - a short pilot run of every configuration, after which configurations that
+ *   are clearly dominated (another configuration with no more beds has a
+ *   p95 wait lower by more than the prune margin) are dropped
+ * - a full-length run of the remaining configurations, or, if a precision is
+ *   set, a run of each until its mean waits are known to that precision (with
+ *   the warm-up left out), up to the full length
+ * All configurations of a scenario use the same random seed (common random
+ * numbers), so differences between them are not just noise.
+ */
+public class CapacitySweep {
+    private static final int NUM_DEPTS = SimulationEngine.STANDARD_DEPARTMENTS.length;
+
+    // Grid
+    private final int[] minCapacity = SimulationEngine.STANDARD_CAPACITIES.clone();
+    private final int[] maxCapacity = SimulationEngine.STANDARD_CAPACITIES.clone();
+    private int[] arrivalIntervals = {5};
+    private double[] probPri1s = {0.1};
+    private double[] probPri2s = {0.2};
+
+    // Evaluation
+    private boolean usePriorityQueues = true;
+    private int ticks = 20_000;
+    private int pilotTicks = 2_000;
+    private double precision = 0;  // target relative half-width of the full runs, 0 for fixed length
+    private double pruneMargin = 0.25;
+    private long seed = 1;
+    private int threads = Runtime.getRuntime().availableProcessors();
+
+    // ================== Configuration ==================
+
+    /**
+     * Sets the range of treatment room sizes to try for one of the standard departments
+     */
+    public void setCapacityRange(String department, int min, int max) {
+        int i = Arrays.asList(SimulationEngine.STANDARD_DEPARTMENTS).indexOf(department);
+        if (i < 0) {
+            throw new IllegalArgumentException("Unknown department: " + department);
+        }
+        if (min < 1 || max < min) {
+            throw new IllegalArgumentException("Bad capacity range " + min + ".." + max + " for " + department);
+        }
+        minCapacity[i] = min;
+        maxCapacity[i] = max;
+    }
+
+    public void setArrivalIntervals(int... intervals) { arrivalIntervals = intervals.clone(); }
+    public void setProbPri1s(double... probs) { probPri1s = probs.clone(); }
+    public void setProbPri2s(double... probs) { probPri2s = probs.clone(); }
+    public void setUsePriorityQueues(boolean usePriorityQueues) { this.usePriorityQueues = usePriorityQueues; }
+    public void setTicks(int ticks) { this.ticks = ticks; }
+    public void setSeed(long seed) { this.seed = seed; }
+    public void setThreads(int threads) { this.threads = Math.max(1, threads); }
+
+    /**
+     * Sets the pilot run length and how much better (as a fraction) a configuration
+     * with no more beds must be in the pilot before another is pruned.
+     * A pilot length of 0 turns pruning off.
+     */
+    public void setPilot(int pilotTicks, double pruneMargin) {
+        this.pilotTicks = pilotTicks;
+        this.pruneMargin = pruneMargin;
+    }
+
+    /**
+     * Sets the precision at which the full runs stop (see SimulationEngine.runUntilPrecise):
+     * the largest half-width of the 95% confidence interval of the mean waits, as a
+     * fraction of the mean. 0 runs every configuration for the full length
+     */
+    public void setPrecision(double targetRelHalfWidth) { this.precision = targetRelHalfWidth; }
+
+    // ================== Running ==================
+
+    /**
+     * Evaluates the whole grid
+     * return every configuration, with pruned ones marked
+     */
+    public List<SweepPoint> run() {
+        List<SweepPoint> points = buildGrid();
+        ForkJoinPool pool = new ForkJoinPool(threads);
+        try {
+            List<SweepPoint> survivors = points;
+            if (pilotTicks > 0) {
+                evaluateAll(pool, points, pilotTicks, 0);
+                survivors = prune(points);
+            }
+            evaluateAll(pool, survivors, ticks, precision);
+            return points;
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    /**
+     * The Pareto frontier of beds against priority 1 p95 wait, for each scenario,
+     * ordered by scenario then by beds
+     */
+    public static List<SweepPoint> paretoFrontier(List<SweepPoint> points) {
+        List<SweepPoint> frontier = new ArrayList<>();
+        for (SweepPoint p : points) {
+            if (p.isPruned()) { continue; }
+            boolean dominated = false;
+            for (SweepPoint q : points) {
+                if (!q.isPruned() && q.sameScenario(p) && q.dominates(p)) {
+                    dominated = true;
+                    break;
+                }
+            }
+            if (!dominated) { frontier.add(p); }
+        }
+        frontier.sort(Comparator.comparingInt(SweepPoint::getArrivalInterval)
+                      .thenComparingDouble(SweepPoint::getProbPri1)
+                      .thenComparingDouble(SweepPoint::getProbPri2)
+                      .thenComparingInt(SweepPoint::getTotalBeds));
+        return frontier;
+    }
+
+    private List<SweepPoint> buildGrid() {
+        List<SweepPoint> points = new ArrayList<>();
+        for (int interval : arrivalIntervals) {
+            for (double p1 : probPri1s) {
+                for (double p2 : probPri2s) {
+                    int[] caps = minCapacity.clone();
+                    while (caps != null) {
+                        points.add(new SweepPoint(caps, interval, p1, p2));
+                        caps = nextCapacities(caps);
+                    }
+                }
+            }
+        }
+        return points;
+    }
+
+    /**
+     * Steps through the capacity grid like an odometer; null after the last combination
+     */
+    private int[] nextCapacities(int[] caps) {
+        int[] next = caps.clone();
+        for (int i = NUM_DEPTS - 1; i >= 0; i--) {
+            if (next[i] < maxCapacity[i]) {
+                next[i]++;
+                return next;
+            }
+            next[i] = minCapacity[i];
+        }
+        return null;
+    }
+
+    /**
+     * Marks configurations clearly dominated in the pilot, per scenario
+     * return the configurations still to be run in full
+     */
+    private List<SweepPoint> prune(List<SweepPoint> points) {
+        List<SweepPoint> survivors = new ArrayList<>();
+        List<SweepPoint> sorted = new ArrayList<>(points);
+        sorted.sort(Comparator.comparingInt(SweepPoint::getTotalBeds));
+        for (SweepPoint p : sorted) {
+            double best = Double.POSITIVE_INFINITY;  // best p95 among configurations with no more beds
+            for (SweepPoint q : sorted) {
+                if (q.getTotalBeds() > p.getTotalBeds()) { break; }
+                if (q.sameScenario(p)) { best = Math.min(best, q.getPri1P95WaitOrInfinity()); }
+            }
+            boolean dominated = best * (1 + pruneMargin) < p.getPri1P95WaitOrInfinity();
+            p.setPruned(dominated);
+            if (!dominated) { survivors.add(p); }
+        }
+        return survivors;
+    }
+
+    private void evaluateAll(ForkJoinPool pool, List<SweepPoint> points, int runTicks, double runPrecision) {
+        List<Callable<Void>> tasks = new ArrayList<>();
+        for (SweepPoint p : points) {
+            tasks.add(() -> { evaluate(p, runTicks, runPrecision); return null; });
+        }
+        try {
+            for (Future<Void> f : pool.invokeAll(tasks)) {
+                f.get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Sweep interrupted", e);
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("Sweep evaluation failed", e.getCause());
+        }
+    }
+
+    private void evaluate(SweepPoint p, int runTicks, double runPrecision) {
+        PatientGenerator generator = new PatientGenerator(new SplitMix64(seed));
+        generator.setArrivalInterval(p.getArrivalInterval());
+        generator.setProbPri1(p.getProbPri1() * 100);
+        generator.setProbPri2(p.getProbPri2() * 100);
+        SimulationEngine engine = new SimulationEngine(usePriorityQueues, generator, p.getCapacities());
+        engine.setEventDriven(true);
+        if (runPrecision > 0) {
+            engine.runUntilPrecise(runPrecision, runTicks);
+        } else {
+            engine.runUntil(runTicks);
+        }
+        WaitHistogram waits = engine.getStatistics().getWaitHistogram(1);
+        double p95 = waits.getCount() == 0 ? Double.NaN : waits.getValueAtPercentile(95);
+        p.setResults(p95, engine.getStatistics().getAverageWait(), (int) waits.getCount(), engine.getTime());
+    }
+
+    /**
+     * Sweeps a grid around the standard hospital and prints the frontier
+     * Arguments: [ticks] [seed] [precision, e.g. 0.1 (0: fixed length)]
+     */
+    public static void main(String[] args) {
+        CapacitySweep sweep = new CapacitySweep();
+        sweep.setCapacityRange("ER", 6, 10);
+        sweep.setCapacityRange("X-Ray", 2, 4);
+        sweep.setCapacityRange("MRI", 1, 2);
+        sweep.setCapacityRange("UltraSound", 1, 3);
+        sweep.setCapacityRange("Surgery", 2, 4);
+        if (args.length > 0) { sweep.setTicks(Integer.parseInt(args[0])); }
+        if (args.length > 1) { sweep.setSeed(Long.parseLong(args[1])); }
+        if (args.length > 2) { sweep.setPrecision(Double.parseDouble(args[2])); }
+
+        long start = System.nanoTime();
+        List<SweepPoint> points = sweep.run();
+        long pruned = points.stream().filter(SweepPoint::isPruned).count();
+        long ticksRun = points.stream().filter(p -> !p.isPruned()).mapToLong(SweepPoint::getTicksRun).sum();
+        System.out.printf("%d configurations, %d pruned after the pilot, %,d ticks in full runs, %.1f s%n",
+                          points.size(), pruned, ticksRun, (System.nanoTime() - start) / 1e9);
+        System.out.println("----- Pareto frontier (beds vs priority 1 p95 wait) -----");
+        for (SweepPoint p : paretoFrontier(points)) {
+            System.out.println(p);
+        }
+    }
+}
@@ -0,0 +1,205 @@
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * A saved copy of the full state of a SimulationEngine, from which any number
+ * of engines can be restored, each carrying on exactly as the original would.
+ *
+ * A warmed-up simulation can be checkpointed once and then forked into many
+ * what-if continuations (different room sizes, arrival rates or random
+ * futures), instead of every variant simulating the warm-up again. Restoring
+ * only reads the checkpoint, so several threads can restore from one
+ * checkpoint at once.
+ *
+ * File layout (big-endian):
+ * - header: int MAGIC, int VERSION, int simulated time
+ * - int number of departments in the DepartmentRegistry, then each name
+ *   (short length, UTF-8 bytes) in id order, so department ids in the rest
+ *   of the file can be mapped to this process's ids
+ * - the engine (see SimulationEngine.writeCheckpoint): its arrival source and
+ *   random stream, a table of every patient, the departments (clocks,
+ *   statistics, queues and treatment rooms, referring to patients by their
+ *   position in the table), pending arrivals and transfers, the event
+ *   calendar and the statistics
+ * Saved checkpoints are read back through a memory mapping, without copying
+ * the file through the heap first.
+ */
+public final class Checkpoint {
+    static final int MAGIC = 0x48454350;  // "HECP"
+    static final int VERSION = 6;
+    private static final int HEADER_SIZE = 12;
+
+    private final ByteBuffer data;  // the whole checkpoint
+    private final int time;
+
+    private Checkpoint(ByteBuffer data) throws IOException {
+        this.data = data.asReadOnlyBuffer();
+        if (data.remaining() < HEADER_SIZE || data.getInt(0) != MAGIC) {
+            throw new IOException("Not a simulation checkpoint");
+        }
+        int version = data.getInt(4);
+        if (version != VERSION) {
+            throw new IOException("Unsupported checkpoint version " + version);
+        }
+        this.time = data.getInt(8);
+    }
+
+    /**
+     * Saves the current state of an engine (which must not be running)
+     */
+    public static Checkpoint of(SimulationEngine engine) {
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream(1 << 16);
+            DataOutputStream out = new DataOutputStream(bytes);
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(engine.getTime());
+            int numDepts = DepartmentRegistry.size();
+            out.writeInt(numDepts);
+            for (int id = 0; id < numDepts; id++) {
+                writeString(out, DepartmentRegistry.nameOf(id));
+            }
+            engine.writeCheckpoint(out);
+            out.flush();
+            return new Checkpoint(ByteBuffer.wrap(bytes.toByteArray()));
+        } catch (IOException e) {
+            throw new UncheckedIOException("Cannot write checkpoint", e);  // not expected in memory
+        }
+    }
+
+    /**
+     * Opens a checkpoint file written by save, memory-mapped
+     * @throws IOException if the file cannot be read or is not a checkpoint
+     */
+    public static Checkpoint load(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            return new Checkpoint(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+        }
+    }
+
+    /**
+     * Writes the checkpoint to a file, replacing any existing one
+     */
+    public void save(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                                                    StandardOpenOption.TRUNCATE_EXISTING)) {
+            ByteBuffer buffer = data.duplicate();
+            buffer.rewind();
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+        }
+    }
+
+    // ================== Restoring ==================
+
+    /**
+     * Restores an engine exactly as it was saved. It makes the same arrivals
+     * and gives the same results as the original would have. The listener and
+     * transfer handler are not saved, so it has none
+     */
+    public SimulationEngine restore() {
+        return restore(null);
+    }
+
+    /**
+     * Restores an engine with different treatment room sizes
+     * @param capacities Treatment room size of each department, in display order
+     *                   (null for the sizes when saved)
+     */
+    public SimulationEngine restore(int[] capacities) {
+        ByteBuffer in = data.duplicate();
+        in.position(HEADER_SIZE);
+        int[] deptIds = new int[in.getInt()];
+        for (int i = 0; i < deptIds.length; i++) {
+            deptIds[i] = DepartmentRegistry.register(readString(in));
+        }
+        return SimulationEngine.readCheckpoint(in, deptIds, capacities);
+    }
+
+    /**
+     * Restores several engines, each with its own random stream split from a
+     * master seed in order, so they share the saved past but not the future
+     */
+    public List<SimulationEngine> fork(int continuations, long masterSeed) {
+        SplitMix64 master = new SplitMix64(masterSeed);
+        List<SimulationEngine> engines = new ArrayList<>(continuations);
+        for (int i = 0; i < continuations; i++) {
+            SimulationEngine engine = restore();
+            ((GeneratorArrivals) engine.getArrivalSource()).getGenerator().setRandom(master.split());
+            engines.add(engine);
+        }
+        return engines;
+    }
+
+    public int getTime() { return time; }
+    public int getSize() { return data.capacity(); }
+
+    // ================== Strings ==================
+
+    static void writeString(DataOutput out, String s) throws IOException {
+        byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+        out.writeShort(bytes.length);
+        out.write(bytes);
+    }
+
+    static String readString(ByteBuffer in) {
+        byte[] bytes = new byte[in.getShort() & 0xFFFF];
+        in.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Warms up the standard hospital once, saves a checkpoint, and runs
+     * continuations forked from it in parallel, reporting their merged results
+     * Arguments: [warm-up ticks] [ticks per continuation] [continuations] [seed] [checkpoint file]
+     */
+    public static void main(String[] args) throws IOException {
+        int warmup = args.length > 0 ? Integer.parseInt(args[0]) : 20_000;
+        int ticks = args.length > 1 ? Integer.parseInt(args[1]) : 20_000;
+        int continuations = args.length > 2 ? Integer.parseInt(args[2]) : 20;
+        long seed = args.length > 3 ? Long.parseLong(args[3]) : 1;
+        Path file = Paths.get(args.length > 4 ? args[4] : "hospital.ckpt");
+
+        long start = System.nanoTime();
+        SimulationEngine engine = new SimulationEngine(true, new PatientGenerator(new SplitMix64(seed)));
+        engine.setEventDriven(true);
+        engine.runUntil(warmup);
+        engine.resetStatistics();
+        long warmed = System.nanoTime();
+        Checkpoint.of(engine).save(file);
+        Checkpoint checkpoint = Checkpoint.load(file);
+        long saved = System.nanoTime();
+
+        List<Callable<SimulationEngine>> tasks = new ArrayList<>();
+        for (SimulationEngine fork : checkpoint.fork(continuations, seed)) {
+            tasks.add(() -> { fork.runUntil(warmup + ticks); return fork; });
+        }
+        ForkJoinPool pool = new ForkJoinPool();
+        ReplicationSummary summary = new ReplicationSummary();
+        try {
+            for (Future<SimulationEngine> result : pool.invokeAll(tasks)) {
+                summary.add(ReplicationRunner.metrics(result.get()));
+                summary.merge(ReplicationRunner.histograms(result.get()));
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Continuations interrupted", e);
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("Continuation failed", e.getCause());
+        } finally {
+            pool.shutdown();
+        }
+        long finished = System.nanoTime();
+
+        System.out.println(summary.report());
+        System.out.printf("%nWarm-up of %d ticks: %.3f s | checkpoint (%d bytes) saved and loaded: %.3f s%n",
+                          warmup, (warmed - start) / 1e9, checkpoint.getSize(), (saved - warmed) / 1e9);
+        System.out.printf("%d continuations of %d ticks: %.3f s%n", continuations, ticks, (finished - saved) / 1e9);
+    }
+}
@@ -1,6 +1,7 @@
 
-import ecs100.*;
 import java.util.*;
+import java.io.*;
+import java.nio.ByteBuffer;
 
 /**
  * Represents a hospital department that manages patient treatment
@@ -9,16 +10,37 @@ import java.util.*;
 public class Department {
     // Configuration
     private final String name;
+    private final int id;  // DepartmentRegistry id
     private final int maxPatients;
     
-    // Patient management
-    private final Set<Patient> treatmentRoom;
-    private final Queue<Patient> waitingRoom;
+    // Patient management (the treatment room is keyed on each patient's completion clock)
+    private final PatientHeap treatmentRoom;
+    private final WaitingQueue waitingRoom;
+
+    // Priority 1 patients in the waiting queue, keyed on the wait clock value at which
+    // they pass the priority 1 timeout
+    private final PatientHeap priority1Deadlines = new PatientHeap(Patient.SECONDARY_HANDLE);
+    private int priority1Timeout = SimulationEngine.PRI1_TIMEOUT;
+    private boolean priority1First = true;  // admit waiting priority 1 patients before the policy's choice
+
+    // Preemption: patients of priority 2 and 3 in treatment, the next to be sent back to the
+    // waiting queue for a priority 1 patient first (only kept while preemptive)
+    private boolean preemptive = false;
+    private final PatientHeap preemptable = new PatientHeap(Patient.SECONDARY_HANDLE);
     
+    // Wait clock: number of waiting ticks so far, used to time each patient's stint
+    private int waitClock = 0;
+
+    // Treatment clock: number of treatment ticks so far, used to time each treatment
+    private int treatmentClock = 0;
+
     // Statistics
-    private int totalWaitingTime = 0;
-    private int totalPatientsServed = 0;
+    private long totalWaitingTime = 0;
+    private long totalPatientsServed = 0;
+    private long totalPreemptions = 0;
     private int maxQueueLength = 0;
+    private final WaitHistogram waitHistogram = new WaitHistogram();              // each stint in the queue
+    private final WaitHistogram timeInDepartmentHistogram = new WaitHistogram();  // queue + treatment
 
     /**
      * Creates a new department
@@ -27,10 +49,23 @@ public class Department {
      * @param usePriQueue Whether to use priority queue for waiting patients
      */
     public Department(String name, int maxPatients, boolean usePriQueue) {
+        this(name, maxPatients, usePriQueue ? SchedulingPolicies.strictPriority() : SchedulingPolicies.fifo());
+    }
+
+    /**
+     * Creates a new department
+     * @param name Department name (ER, X-Ray, etc)
+     * @param maxPatients Maximum concurrent patients in treatment
+     * @param policy Order in which waiting patients are admitted
+     */
+    public Department(String name, int maxPatients, SchedulingPolicy policy) {
         this.name = name;
+        this.id = DepartmentRegistry.register(name);
         this.maxPatients = maxPatients;
-        this.treatmentRoom = new HashSet<>();
-        this.waitingRoom = usePriQueue ? new PriorityQueue<>() : new ArrayDeque<>();
+        this.treatmentRoom = new PatientHeap(Patient.PRIMARY_HANDLE);
+        this.treatmentRoom.ensureCapacity(maxPatients);
+        this.preemptable.ensureCapacity(maxPatients);
+        this.waitingRoom = new WaitingQueue(policy);
     }
 
     // ================== Core Operations ==================
@@ -40,22 +75,45 @@ public class Department {
      * @param patient Patient to enqueue
      */
     public void enqueue(Patient patient) {
+        patient.startWaiting(this);
         waitingRoom.offer(patient);
+        if (patient.getPriority() == 1) {
+            // overdue once getCurrentWaitTime() > priority1Timeout
+            priority1Deadlines.add(patient, (long) waitClock + priority1Timeout - patient.getCurrentWaitTime() + 1);
+        }
         updateQueueStats();
     }
 
     /**
-     * Advances treatment by one tick for all patients in treatment
+     * Advances treatment by one tick for all patients in treatment.
+     * Only the treatment clock moves; patients are collected once it reaches
+     * their completion clock
      */
     public void tickTreatment() {
-        treatmentRoom.forEach(Patient::advanceCurrentTreatmentByTick);
+        tickTreatment(1);
     }
 
     /**
-     * Advances waiting time by one tick for all waiting patients
+     * Advances treatment by several ticks for all patients in treatment.
+     * No patient may finish before the last of these ticks (see ticksUntilNextCompletion)
+     */
+    public void tickTreatment(int ticks) {
+        treatmentClock += ticks;
+    }
+
+    /**
+     * Advances waiting time by one tick for all waiting patients.
+     * Only the wait clock moves; each patient's wait is derived from it when needed
      */
     public void tickWaiting() {
-        waitingRoom.forEach(Patient::waitForATick);
+        tickWaiting(1);
+    }
+
+    /**
+     * Advances waiting time by several ticks for all waiting patients
+     */
+    public void tickWaiting(int ticks) {
+        waitClock += ticks;
         updateQueueStats();
     }
 
@@ -66,18 +124,37 @@ public class Department {
      * Prioritizes critical (Priority 1) patients
      */
     public void admitWhileSpace() {
-        admitPriorityPatients();
+        admitWhileSpace(null);
+    }
+
+    /**
+     * Admits patients from waiting to treatment while space is available, then,
+     * if the department is preemptive, makes room for each priority 1 patient
+     * still waiting by sending a lower priority patient back to the queue
+     * @param preempted List the preempted patients are added to (may be null)
+     * return the number of patients preempted
+     */
+    public int admitWhileSpace(List<Patient> preempted) {
+        if (priority1First) {
+            admitPriorityPatients();
+        }
         admitRegularPatients();
+        if (!preemptive) {
+            return 0;
+        }
+        int count = 0;
+        while (waitingRoom.size(1) > 0 && !preemptable.isEmpty()) {
+            Patient victim = preempt();
+            if (preempted != null) { preempted.add(victim); }
+            admitPatient(waitingRoom.pollPriority(1));
+            count++;
+        }
+        return count;
     }
 
     private void admitPriorityPatients() {
-        Iterator<Patient> it = waitingRoom.iterator();
-        while (it.hasNext() && treatmentRoom.size() < maxPatients) {
-            Patient p = it.next();
-            if (p.getPriority() == 1) {
-                admitPatient(p);
-                it.remove();
-            }
+        while (treatmentRoom.size() < maxPatients && waitingRoom.size(1) > 0) {
+            admitPatient(waitingRoom.pollPriority(1));
         }
     }
 
@@ -88,9 +165,127 @@ public class Department {
     }
 
     private void admitPatient(Patient patient) {
-        treatmentRoom.add(patient);
-        totalWaitingTime += patient.getTotalWaitingTime();
-        totalPatientsServed++;
+        int stint = patient.stopWaiting();
+        priority1Deadlines.remove(patient);
+        boolean resuming = patient.isPreempted();  // already counted when first admitted
+        patient.startTreatment(this);
+        treatmentRoom.add(patient, (long) treatmentClock + patient.getCurrentTreatmentRemaining());
+        if (preemptive && patient.getPriority() > 1) {
+            preemptable.add(patient, preemptionKey(patient));
+        }
+        if (resuming) {
+            totalWaitingTime += stint;
+        } else {
+            waitHistogram.record(stint);
+            totalWaitingTime += patient.getTotalWaitingTime();
+            totalPatientsServed++;
+        }
+    }
+
+    /**
+     * Orders preemption candidates: lowest priority first, then the least
+     * treatment done, counting what was done before any earlier preemption
+     * (all treatments progress at the same rate, so that is the latest
+     * progress start clock)
+     */
+    private static long preemptionKey(Patient patient) {
+        return ((long) (WaitingQueue.NUM_PRIORITIES - patient.getPriority()) << 32)
+               | (Integer.MAX_VALUE - patient.getProgressStartClock());
+    }
+
+    /**
+     * Sends the best preemption candidate back to the waiting queue, keeping
+     * the treatment time they still need
+     * return the patient preempted
+     */
+    private Patient preempt() {
+        Patient victim = preemptable.poll();
+        treatmentRoom.remove(victim);
+        victim.interruptTreatment();
+        totalPreemptions++;
+        enqueue(victim);
+        return victim;
+    }
+
+    /**
+     * Admits the most overdue priority 1 patient, if any has waited longer than
+     * the priority 1 timeout and there is room. Only overdue patients are looked at.
+     * return the patient admitted, or null
+     */
+    public Patient escalateOverduePriority1() {
+        if (priority1Deadlines.isEmpty() || priority1Deadlines.peekKey() > waitClock
+            || treatmentRoom.size() >= maxPatients) {
+            return null;
+        }
+        Patient urgentPatient = priority1Deadlines.peek();
+        waitingRoom.remove(urgentPatient);
+        admitPatient(urgentPatient);
+        return urgentPatient;
+    }
+
+    /**
+     * Number of ticks until a waiting priority 1 patient becomes overdue
+     * (0 if one is overdue now, Integer.MAX_VALUE if there are none)
+     */
+    public int ticksUntilNextTimeout() {
+        if (priority1Deadlines.isEmpty()) {
+            return Integer.MAX_VALUE;
+        }
+        // the wait clock moves on once per tick before escalation is checked
+        return (int) Math.max(0, priority1Deadlines.peekKey() - waitClock - 1);
+    }
+
+    /**
+     * Pre-sizes the waiting queue (for each priority) and the priority 1
+     * deadlines, so queues up to that length never allocate
+     */
+    public void ensureWaitingCapacity(int patients) {
+        waitingRoom.ensureCapacity(patients);
+        priority1Deadlines.ensureCapacity(patients);
+    }
+
+    /**
+     * Sets how long a priority 1 patient may wait before being escalated.
+     * Applies to patients enqueued from now on
+     */
+    public void setPriority1Timeout(int timeout) {
+        this.priority1Timeout = timeout;
+    }
+
+    /**
+     * Changes the order in which waiting patients are admitted. Patients
+     * already waiting are re-ordered as if they had joined under the new policy
+     */
+    public void setSchedulingPolicy(SchedulingPolicy policy) {
+        waitingRoom.setPolicy(policy);
+    }
+
+    /**
+     * Sets whether waiting priority 1 patients are always admitted before the
+     * scheduling policy chooses (the default), or only when the policy chooses
+     * them. Overdue priority 1 patients are escalated either way
+     */
+    public void setPriority1First(boolean priority1First) {
+        this.priority1First = priority1First;
+    }
+
+    /**
+     * Sets whether a priority 1 patient who cannot be admitted for lack of room
+     * sends a priority 2 or 3 patient in treatment back to the waiting queue.
+     * The patient sent back is the lowest priority one, and of those the one
+     * with the least treatment done; their remaining treatment time is kept
+     */
+    public void setPreemptive(boolean preemptive) {
+        if (preemptive == this.preemptive) { return; }
+        this.preemptive = preemptive;
+        preemptable.clear();
+        if (preemptive) {
+            for (Patient p : treatmentRoom) {
+                if (p.getPriority() > 1) {
+                    preemptable.add(p, preemptionKey(p));
+                }
+            }
+        }
     }
 
     /**
@@ -114,56 +309,185 @@ public class Department {
      */
     public List<Patient> collectFinished() {
         List<Patient> finished = new ArrayList<>();
-        
-        Iterator<Patient> it = treatmentRoom.iterator();
-        while (it.hasNext()) {
-            Patient p = it.next();
-            if (p.currentTreatmentFinished()) {
-                finished.add(p);
-                it.remove();
-            }
-        }
-        
+        collectFinished(finished);
         return finished;
     }
 
+    /**
+     * Collects patients who finished their current treatment into a list the
+     * caller reuses, so collecting allocates nothing once the list is big enough
+     * return the number of patients added
+     */
+    public int collectFinished(List<Patient> finished) {
+        int count = 0;
+        while (!treatmentRoom.isEmpty() && treatmentRoom.peekKey() <= treatmentClock) {
+            Patient p = treatmentRoom.poll();
+            preemptable.remove(p);
+            p.finishTreatment();
+            timeInDepartmentHistogram.record(p.getLastStay());
+            finished.add(p);
+            count++;
+        }
+        return count;
+    }
+
+    /**
+     * Number of ticks until the next patient in treatment is ready to be collected
+     * (0 if one is ready now, Integer.MAX_VALUE if the treatment room is empty)
+     */
+    public int ticksUntilNextCompletion() {
+        if (treatmentRoom.isEmpty()) {
+            return Integer.MAX_VALUE;
+        }
+        return (int) Math.max(0, treatmentRoom.peekKey() - treatmentClock);
+    }
+
     // ================== Statistics & Monitoring ==================
     
+    /**
+     * Clears the department's statistics (not its patients or clocks)
+     */
+    public void resetStatistics() {
+        totalWaitingTime = 0;
+        totalPatientsServed = 0;
+        totalPreemptions = 0;
+        maxQueueLength = waitingRoom.size();
+        waitHistogram.reset();
+        timeInDepartmentHistogram.reset();
+    }
+
     private void updateQueueStats() {
         maxQueueLength = Math.max(maxQueueLength, waitingRoom.size());
     }
 
     public Collection<Patient> getWaitingPatients() {
-        return new ArrayList<>(waitingRoom); // Defensive copy
+        List<Patient> copy = new ArrayList<>(waitingRoom.size()); // Defensive copy
+        for (Patient p : waitingRoom) {
+            copy.add(p);
+        }
+        return copy;
+    }
+
+    /**
+     * Number of patients waiting with the given priority
+     */
+    public int getWaitingCount(int priority) {
+        return waitingRoom.size(priority);
+    }
+
+    // ================== Checkpoints ==================
+
+    /**
+     * Adds every patient in the department (waiting, then in treatment) to a collection
+     */
+    void addPatientsTo(Collection<Patient> patients) {
+        for (Patient p : waitingRoom) { patients.add(p); }
+        for (Patient p : treatmentRoom) { patients.add(p); }
+    }
+
+    /**
+     * Writes the department's configuration, clocks, statistics and rooms to a
+     * checkpoint, referring to patients by their index in the checkpoint's patient table
+     */
+    void writeCheckpoint(DataOutput out, Map<Patient, Integer> patientIndex) throws IOException {
+        Checkpoint.writeString(out, name);
+        out.writeInt(maxPatients);
+        out.writeBoolean(priority1First);
+        out.writeBoolean(preemptive);
+        out.writeInt(priority1Timeout);
+        out.writeInt(waitClock);
+        out.writeInt(treatmentClock);
+        out.writeLong(totalWaitingTime);
+        out.writeLong(totalPatientsServed);
+        out.writeLong(totalPreemptions);
+        out.writeInt(maxQueueLength);
+        waitHistogram.writeCheckpoint(out);
+        timeInDepartmentHistogram.writeCheckpoint(out);
+        waitingRoom.writeCheckpoint(out, patientIndex);
+        priority1Deadlines.writeCheckpoint(out, patientIndex);
+        treatmentRoom.writeCheckpoint(out, patientIndex);
+        preemptable.writeCheckpoint(out, patientIndex);
+    }
+
+    /**
+     * Reads a department written by writeCheckpoint
+     * @param patients The checkpoint's patient table
+     * @param maxPatients Treatment room size, or -1 for the size when checkpointed
+     *                    (a smaller room keeps its patients until they finish)
+     */
+    static Department readCheckpoint(ByteBuffer in, Patient[] patients, int maxPatients) {
+        String name = Checkpoint.readString(in);
+        int savedMaxPatients = in.getInt();
+        Department dept = new Department(name, maxPatients < 0 ? savedMaxPatients : maxPatients,
+                                         SchedulingPolicies.fifo());  // the saved policy is read with the waiting room
+        dept.priority1First = in.get() != 0;
+        dept.preemptive = in.get() != 0;
+        dept.priority1Timeout = in.getInt();
+        dept.waitClock = in.getInt();
+        dept.treatmentClock = in.getInt();
+        dept.totalWaitingTime = in.getLong();
+        dept.totalPatientsServed = in.getLong();
+        dept.totalPreemptions = in.getLong();
+        dept.maxQueueLength = in.getInt();
+        dept.waitHistogram.readCheckpoint(in);
+        dept.timeInDepartmentHistogram.readCheckpoint(in);
+        dept.waitingRoom.readCheckpoint(in, patients);
+        dept.priority1Deadlines.readCheckpoint(in, patients);
+        dept.treatmentRoom.readCheckpoint(in, patients);
+        dept.preemptable.readCheckpoint(in, patients);
+        for (Patient p : dept.waitingRoom) { p.resumeWaiting(dept); }
+        for (Patient p : dept.treatmentRoom) { p.resumeTreatment(dept); }
+        return dept;
     }
 
     // ================== Getters ==================
     
     public String getName() { return name; }
-    public int getTotalWaitingTime() { return totalWaitingTime; }
-    public int getTotalPatientsServed() { return totalPatientsServed; }
+    public int getId() { return id; }
+    public int getWaitClock() { return waitClock; }
+    public int getTreatmentClock() { return treatmentClock; }
+    public int getMaxPatients() { return maxPatients; }
+    public int getTreatmentCount() { return treatmentRoom.size(); }
+    public int getWaitingCount() { return waitingRoom.size(); }
+    public long getTotalWaitingTime() { return totalWaitingTime; }
+    public long getTotalPatientsServed() { return totalPatientsServed; }
+    public long getTotalPreemptions() { return totalPreemptions; }
     public int getMaxQueueLength() { return maxQueueLength; }
+    public SchedulingPolicy getSchedulingPolicy() { return waitingRoom.getPolicy(); }
+    public boolean isPriority1First() { return priority1First; }
+    public boolean isPreemptive() { return preemptive; }
+
+    /**
+     * Length of each stint patients waited in this department's queue
+     */
+    public WaitHistogram getWaitHistogram() { return waitHistogram; }
+
+    /**
+     * Time each patient spent in this department, waiting and in treatment
+     */
+    public WaitHistogram getTimeInDepartmentHistogram() { return timeInDepartmentHistogram; }
 
     // ================== Visualization ==================
-    
+
     /**
-     * Draw the department: the patients being treated and the patients waiting
-     * You may need to change the names if your fields had different names
+     * Makes an immutable view of the department for a renderer
+     * @param maxGlyphs Most patients to list individually in each room
+     *                  (the waiting counts per priority always cover everyone)
      */
-    public void redraw(double y){
-        UI.setFontSize(14);
-        UI.drawString(name, 0, y-35);
-        double x = 10;
-        UI.drawRect(x-5, y-30, maxPatients*10, 30);  // box to show max number of patients
-        for(Patient p : treatmentRoom){
-            p.redraw(x, y);
-            x += 10;
-        }
-        x = 200;
-        for(Patient p : waitingRoom){
-            p.redraw(x, y);
-            x += 10;
-        }
+    public SimulationSnapshot.DepartmentView snapshot(int maxGlyphs) {
+        return new SimulationSnapshot.DepartmentView(name, maxPatients, treatmentRoom.size(),
+                                                     glyphs(treatmentRoom, treatmentRoom.size(), maxGlyphs),
+                                                     glyphs(waitingRoom, waitingRoom.size(), maxGlyphs),
+                                                     new int[]{waitingRoom.size(1), waitingRoom.size(2), waitingRoom.size(3)});
     }
 
+    private static SimulationSnapshot.PatientGlyph[] glyphs(Iterable<Patient> room, int size, int max) {
+        SimulationSnapshot.PatientGlyph[] glyphs = new SimulationSnapshot.PatientGlyph[Math.min(size, max)];
+        int i = 0;
+        for (Patient p : room) {
+            if (i == glyphs.length) { break; }
+            glyphs[i++] = new SimulationSnapshot.PatientGlyph(p.getPriority(), p.getInitials());
+        }
+        return glyphs;
+    }
 }
@@ -0,0 +1,35 @@
+/**
+ * Live metrics of one Department, for JMX clients such as JConsole or
+ * VisualVM (registered by SimulationMonitor)
+ */
+public interface DepartmentMXBean {
+    String getName();
+
+    int getWaitingCount();
+    int getWaitingPriority1();
+    int getWaitingPriority2();
+    int getWaitingPriority3();
+    int getMaxQueueLength();
+
+    int getTreatmentCount();
+    int getMaxPatients();
+
+    /**
+     * Fraction of the treatment room in use (0-1)
+     */
+    double getOccupancy();
+
+    /**
+     * Patients admitted per second of real time, over the last second or more
+     */
+    double getAdmissionsPerSecond();
+
+    long getTotalPatientsServed();
+
+    /**
+     * Patients sent back to the queue to make room for priority 1 patients
+     */
+    long getTotalPreemptions();
+    long getTotalWaitingTime();
+    double getAverageWait();
+}
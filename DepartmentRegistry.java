@@ -0,0 +1,60 @@
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * Interned department names.
+ * Each department name gets a small dense id the first time it is registered,
+ * so treatment plans, routing tables and per-department statistics can use
+ * array indexing instead of hashing names. Ids never change once given.
+ *
+ * The standard hospital departments are registered up front.
+ */
+public final class DepartmentRegistry {
+    private static final Map<String, Integer> ids = new ConcurrentHashMap<>();
+    private static volatile String[] names = new String[0];
+
+    public static final int ER = register("ER");
+    public static final int XRAY = register("X-Ray");
+    public static final int MRI = register("MRI");
+    public static final int ULTRASOUND = register("UltraSound");
+    public static final int SURGERY = register("Surgery");
+
+    private DepartmentRegistry() {}
+
+    /**
+     * Returns the id of a department name, giving it a new id if it has none yet
+     */
+    public static synchronized int register(String name) {
+        Integer id = ids.get(name);
+        if (id != null) {
+            return id;
+        }
+        String[] grown = Arrays.copyOf(names, names.length + 1);
+        grown[names.length] = name;
+        names = grown;
+        ids.put(name, names.length - 1);
+        return names.length - 1;
+    }
+
+    /**
+     * Returns the id of a registered department name, or -1 if it is unknown
+     */
+    public static int idOf(String name) {
+        Integer id = ids.get(name);
+        return id == null ? -1 : id;
+    }
+
+    /**
+     * Returns the name of a department id
+     */
+    public static String nameOf(int id) {
+        return names[id];
+    }
+
+    /**
+     * Number of registered departments (ids run from 0 to size()-1)
+     */
+    public static int size() {
+        return names.length;
+    }
+}
@@ -0,0 +1,25 @@
+import jdk.jfr.*;
+
+/**
+ * JFR event for a priority 1 patient admitted because they waited longer than
+ * the priority 1 timeout. Committed by SimulationEngine only while a recording
+ * has the event enabled
+ */
+@Name("hospital.Escalation")
+@Label("Priority 1 Escalation")
+@Category("Hospital Simulation")
+@StackTrace(false)
+public class EscalationEvent extends Event {
+    @Label("Tick")
+    int tick;
+
+    @Label("Department")
+    String department;
+
+    @Label("Patient")
+    int patient;
+
+    @Label("Wait")
+    @Description("Ticks the patient had waited in total")
+    int waitTime;
+}
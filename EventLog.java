@@ -0,0 +1,395 @@
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * A SimulationListener that logs events to a file without slowing the tick loop.
+ *
+ * Each event is stored as a compact record (tick, event type, patient id,
+ * department id, wait; for a preemption, the treatment time still needed)
+ * in a lock-free single-producer/single-consumer ring
+ * of primitive arrays. Nothing is formatted on the simulation thread.
+ * A background writer thread drains the ring in batches and writes the
+ * records through a buffered FileChannel, as CSV or binary.
+ *
+ * The writer also keeps a small sampled tail of the records (every
+ * sampleEvery-th record, and every warning) that a GUI can poll. Those are
+ * only formatted as text when polled.
+ *
+ * Binary records are 17 bytes, big-endian: int tick, byte type, int patient,
+ * int department, int wait. A warning record is followed by a short length
+ * and the UTF-8 bytes of its message.
+ *
+ * If the writer falls behind and the ring fills, the simulation waits for it,
+ * so no event is lost.
+ */
+public class EventLog implements SimulationListener, AutoCloseable {
+    public enum Format { CSV, BINARY }
+
+    // Event types
+    public static final byte ARRIVED = 0;
+    public static final byte DISCHARGED = 1;
+    public static final byte ESCALATED = 2;
+    public static final byte WARNING = 3;
+    public static final byte TRANSFERRED = 4;
+    public static final byte PREEMPTED = 5;
+    private static final String[] TYPE_NAMES = {"ARRIVED", "DISCHARGED", "ESCALATED", "WARNING", "TRANSFERRED",
+                                                "PREEMPTED"};
+    private static final byte[][] TYPE_BYTES = new byte[TYPE_NAMES.length][];
+    static {
+        for (int t = 0; t < TYPE_NAMES.length; t++) {
+            TYPE_BYTES[t] = TYPE_NAMES[t].getBytes(StandardCharsets.US_ASCII);
+        }
+    }
+
+    private static final int DEFAULT_CAPACITY = 1 << 16;
+    private static final int BUFFER_SIZE = 1 << 16;
+    private static final int MAX_MESSAGE_BYTES = 1024;
+    private static final int RECORD_FIXED_BYTES = 64;  // numbers, event name and separators of a record
+    private static final long IDLE_PARK_NANOS = 1_000_000;
+    private static final int SAMPLE_SIZE = 64;
+
+    // Ring of records; slot i holds the record with sequence number s where s & mask == i
+    private final int mask;
+    private final int[] ticks;
+    private final byte[] types;
+    private final int[] patients;
+    private final int[] departments;
+    private final int[] waits;
+    private final Queue<String> warningMessages = new ConcurrentLinkedQueue<>();  // in record order
+
+    // Producer (simulation thread) state
+    private final AtomicLong published = new AtomicLong();  // records written into the ring
+    private long nextSequence = 0;
+    private long consumedSnapshot = 0;   // last value of consumed seen by the producer
+    private long stalls = 0;             // times the producer waited for the writer
+
+    // Consumer (writer thread) state
+    private final AtomicLong consumed = new AtomicLong();   // records drained from the ring
+    private final Format format;
+    private final FileChannel channel;
+    private final ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+    private final byte[] digits = new byte[10];
+    private byte[][] departmentNames = new byte[0][];
+    private final Thread writer;
+    private volatile boolean closed = false;
+    private volatile IOException failure = null;
+
+    // Sampled tail for the GUI, guarded by the sample arrays themselves
+    private final int sampleEvery;
+    private final int[][] samples = new int[SAMPLE_SIZE][];
+    private final String[] sampleMessages = new String[SAMPLE_SIZE];
+    private long samplesTaken = 0;
+    private long samplesPolled = 0;
+
+    /**
+     * Opens a log, replacing any existing file, and starts its writer thread
+     * @param file File to write
+     * @param format CSV or binary records
+     * @param sampleEvery Keep every sampleEvery-th record for pollSamples (0 for none)
+     */
+    public EventLog(Path file, Format format, int sampleEvery) throws IOException {
+        this(file, format, sampleEvery, DEFAULT_CAPACITY);
+    }
+
+    /**
+     * Opens a log with a given ring capacity (rounded up to a power of two)
+     */
+    public EventLog(Path file, Format format, int sampleEvery, int capacity) throws IOException {
+        int size = Integer.highestOneBit(Math.max(2, capacity - 1)) << 1;
+        this.mask = size - 1;
+        this.ticks = new int[size];
+        this.types = new byte[size];
+        this.patients = new int[size];
+        this.departments = new int[size];
+        this.waits = new int[size];
+        this.format = format;
+        this.sampleEvery = sampleEvery;
+        this.channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                                        StandardOpenOption.TRUNCATE_EXISTING);
+        if (format == Format.CSV) {
+            buffer.put("tick,event,patient,department,wait,message\n".getBytes(StandardCharsets.US_ASCII));
+        }
+        this.writer = new Thread(this::drainLoop, "event-log-writer");
+        this.writer.setDaemon(true);
+        this.writer.start();
+    }
+
+    // ================== Recording (simulation thread) ==================
+
+    @Override
+    public void patientArrived(int time, Patient p) {
+        int dept = p.allTreatmentsCompleted() ? -1 : p.getCurrentDepartmentId();
+        append(time, ARRIVED, p.getId(), dept, 0);
+    }
+
+    @Override
+    public void patientDischarged(int time, Patient p) {
+        append(time, DISCHARGED, p.getId(), -1, p.getTotalWaitingTime());
+    }
+
+    @Override
+    public void patientEscalated(int time, Patient p, String department) {
+        append(time, ESCALATED, p.getId(), DepartmentRegistry.idOf(department), p.getLastWaitStint());
+    }
+
+    @Override
+    public void patientPreempted(int time, Patient p, String department) {
+        append(time, PREEMPTED, p.getId(), DepartmentRegistry.idOf(department), p.getCurrentTreatmentRemaining());
+    }
+
+    @Override
+    public void patientTransferred(int time, Patient p, String department) {
+        append(time, TRANSFERRED, p.getId(), DepartmentRegistry.idOf(department), 0);
+    }
+
+    @Override
+    public void warning(int time, String message) {
+        warningMessages.offer(message);
+        append(time, WARNING, -1, -1, 0);
+    }
+
+    private void append(int tick, byte type, int patient, int department, int wait) {
+        long seq = nextSequence;
+        if (seq - consumedSnapshot > mask) {
+            waitForSpace(seq);
+        }
+        int i = (int) seq & mask;
+        ticks[i] = tick;
+        types[i] = type;
+        patients[i] = patient;
+        departments[i] = department;
+        waits[i] = wait;
+        nextSequence = seq + 1;
+        published.lazySet(seq + 1);  // release: the record is visible before the count
+    }
+
+    private void waitForSpace(long seq) {
+        consumedSnapshot = consumed.get();
+        if (seq - consumedSnapshot <= mask) {
+            return;
+        }
+        if (closed) {
+            throw new IllegalStateException("Event log is closed");
+        }
+        stalls++;
+        while (seq - (consumedSnapshot = consumed.get()) > mask) {
+            if (failure != null || !writer.isAlive()) {
+                throw new IllegalStateException("Event log writer stopped", failure);
+            }
+            LockSupport.unpark(writer);
+            Thread.onSpinWait();
+        }
+    }
+
+    // ================== Writing (writer thread) ==================
+
+    private void drainLoop() {
+        while (true) {
+            boolean finishing = closed;  // read first, so records published before close() are drained
+            if (drain() == 0) {
+                if (finishing) { break; }
+                LockSupport.parkNanos(this, IDLE_PARK_NANOS);
+            }
+        }
+        try {
+            flush();
+            channel.close();
+        } catch (IOException e) {
+            if (failure == null) { failure = e; }
+        }
+    }
+
+    /**
+     * Writes every published record
+     * return the number of records drained
+     */
+    private int drain() {
+        long from = consumed.get();
+        long to = published.get();   // acquire: the records below this are fully written
+        for (long seq = from; seq < to; seq++) {
+            int i = (int) seq & mask;
+            String message = types[i] == WARNING ? warningMessages.poll() : null;
+            try {
+                if (failure == null) { write(i, message); }
+            } catch (IOException e) {
+                failure = e;   // keep draining, discarding records, so the simulation never blocks
+            } catch (RuntimeException e) {
+                failure = new IOException("Could not write event record " + seq, e);
+            }
+            if (message != null || (sampleEvery > 0 && seq % sampleEvery == 0)) {
+                sample(i, message);
+            }
+        }
+        consumed.lazySet(to);
+        return (int) (to - from);
+    }
+
+    private void write(int i, String message) throws IOException {
+        byte[] text = message == null ? null : truncate(message.getBytes(StandardCharsets.UTF_8));
+        if (buffer.remaining() < maxRecordSize(departments[i], text)) {
+            flush();
+        }
+        if (format == Format.BINARY) {
+            buffer.putInt(ticks[i]).put(types[i]).putInt(patients[i]).putInt(departments[i]).putInt(waits[i]);
+            if (text != null) {
+                buffer.putShort((short) text.length).put(text);
+            }
+        } else {
+            putNumber(ticks[i]);
+            buffer.put((byte) ',').put(TYPE_BYTES[types[i]]).put((byte) ',');
+            putNumber(patients[i]);
+            buffer.put((byte) ',');
+            if (departments[i] >= 0) { buffer.put(departmentName(departments[i])); }
+            buffer.put((byte) ',');
+            putNumber(waits[i]);
+            buffer.put((byte) ',');
+            if (text != null) {
+                buffer.put((byte) '"');
+                for (byte b : text) {
+                    if (b == '"') { buffer.put((byte) '"'); }  // CSV escapes quotes by doubling them
+                    buffer.put(b);
+                }
+                buffer.put((byte) '"');
+            }
+            buffer.put((byte) '\n');
+        }
+    }
+
+    /**
+     * Most bytes a record can take: the numbers and event name, the department
+     * name, and the message with every character a doubled quote, plus its
+     * quotes and newline (or, in binary, its length)
+     */
+    private int maxRecordSize(int department, byte[] text) {
+        return RECORD_FIXED_BYTES + (department >= 0 ? departmentName(department).length : 0)
+               + (text == null ? 0 : 2 * text.length + 3);
+    }
+
+    /**
+     * Cuts a UTF-8 message to at most MAX_MESSAGE_BYTES, at the start of a
+     * character (not after a continuation byte, 10xxxxxx), so it stays valid UTF-8
+     */
+    private static byte[] truncate(byte[] text) {
+        if (text.length <= MAX_MESSAGE_BYTES) { return text; }
+        int end = MAX_MESSAGE_BYTES;
+        while (end > 0 && (text[end] & 0xC0) == 0x80) { end--; }
+        return Arrays.copyOf(text, end);
+    }
+
+    /**
+     * Writes an int as decimal ASCII without making a String
+     */
+    private void putNumber(int number) {
+        long value = number;
+        if (value < 0) {
+            buffer.put((byte) '-');
+            value = -value;
+        }
+        int n = 0;
+        do {
+            digits[n++] = (byte) ('0' + value % 10);
+            value /= 10;
+        } while (value > 0);
+        while (n > 0) {
+            buffer.put(digits[--n]);
+        }
+    }
+
+    private byte[] departmentName(int id) {
+        if (id >= departmentNames.length) {
+            departmentNames = Arrays.copyOf(departmentNames, DepartmentRegistry.size());
+        }
+        if (departmentNames[id] == null) {
+            departmentNames[id] = DepartmentRegistry.nameOf(id).getBytes(StandardCharsets.UTF_8);
+        }
+        return departmentNames[id];
+    }
+
+    private void flush() throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        buffer.clear();
+    }
+
+    // ================== Sampled View ==================
+
+    private void sample(int i, String message) {
+        synchronized (samples) {
+            int s = (int) (samplesTaken++ % SAMPLE_SIZE);
+            samples[s] = new int[]{ticks[i], types[i], patients[i], departments[i], waits[i]};
+            sampleMessages[s] = message;
+        }
+    }
+
+    /**
+     * Returns the sampled events added since the last call, formatted for display
+     * (at most the most recent 64; older ones are skipped)
+     */
+    public List<String> pollSamples() {
+        List<String> lines = new ArrayList<>();
+        synchronized (samples) {
+            long from = Math.max(samplesPolled, samplesTaken - SAMPLE_SIZE);
+            for (long n = from; n < samplesTaken; n++) {
+                int s = (int) (n % SAMPLE_SIZE);
+                lines.add(format(samples[s], sampleMessages[s]));
+            }
+            samplesPolled = samplesTaken;
+        }
+        return lines;
+    }
+
+    private static String format(int[] r, String message) {
+        StringBuilder sb = new StringBuilder();
+        sb.append(r[0]).append(": ").append(TYPE_NAMES[r[1]]);
+        if (r[2] >= 0) { sb.append(" patient #").append(r[2]); }
+        if (r[3] >= 0) { sb.append(" in ").append(DepartmentRegistry.nameOf(r[3])); }
+        if (r[1] == DISCHARGED) { sb.append(" | TotalWait=").append(r[4]); }
+        if (r[1] == ESCALATED) { sb.append(" | Waited=").append(r[4]); }
+        if (r[1] == PREEMPTED) { sb.append(" | Remaining=").append(r[4]); }
+        if (message != null) { sb.append(' ').append(message); }
+        return sb.toString();
+    }
+
+    // ================== Lifecycle ==================
+
+    /**
+     * Number of times the simulation had to wait for the writer to make room
+     */
+    public long getStalls() { return stalls; }
+
+    /**
+     * Number of records logged so far
+     */
+    public long getRecordCount() { return nextSequence; }
+
+    /**
+     * Writes the remaining records, stops the writer and closes the file
+     * @throws UncheckedIOException if writing failed at any point
+     */
+    @Override
+    public void close() {
+        closed = true;
+        LockSupport.unpark(writer);
+        boolean interrupted = false;
+        while (writer.isAlive()) {
+            try {
+                writer.join();
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) { Thread.currentThread().interrupt(); }
+        if (failure != null) {
+            throw new UncheckedIOException("Writing event log failed", failure);
+        }
+    }
+}
@@ -0,0 +1,49 @@
+import java.io.*;
+import java.nio.ByteBuffer;
+
+/**
+ * The arrivals made by a PatientGenerator, as an ArrivalSource.
+ *
+ * The generator is asked about every tick in order, starting at 0, so the
+ * random numbers are drawn exactly as when it is asked tick by tick.
+ * Changes to the generator's parameters apply to patients not yet drawn.
+ */
+public class GeneratorArrivals implements ArrivalSource {
+    private final PatientGenerator generator;
+    private int scanTime = 0;  // first tick the generator has not been asked about yet
+
+    public GeneratorArrivals(PatientGenerator generator) {
+        this.generator = generator;
+    }
+
+    @Override
+    public Patient next() {
+        Patient p = null;
+        while (p == null) {
+            p = generator.getNextPatient(scanTime++);
+        }
+        return p;
+    }
+
+    /**
+     * Hands a discharged patient back to the generator, for reuse if it is recycling
+     */
+    @Override
+    public void release(Patient patient) {
+        generator.recycle(patient);
+    }
+
+    public PatientGenerator getGenerator() { return generator; }
+
+    void writeCheckpoint(DataOutput out) throws IOException {
+        out.writeInt(scanTime);
+        generator.writeCheckpoint(out);
+    }
+
+    static GeneratorArrivals readCheckpoint(ByteBuffer in) {
+        int scanTime = in.getInt();
+        GeneratorArrivals arrivals = new GeneratorArrivals(PatientGenerator.readCheckpoint(in));
+        arrivals.scanTime = scanTime;
+        return arrivals;
+    }
+}
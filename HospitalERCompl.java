@@ -1,200 +1,153 @@
 import ecs100.*;
 import java.util.*;
 import java.io.*;
+import java.nio.file.*;
+import java.util.concurrent.*;
 
 /**
  * Simulation of a Hospital ER
  * 
  * The hospital has a collection of Departments, including the ER department, each of which has
  *  and a treatment room.
+ * The simulation itself is run by a SimulationEngine; this class is the GUI that
+ *  steps the engine and draws the departments.
+ * Drawing runs on its own fixed-rate frame timer, from snapshots the engine
+ *  publishes, so the simulation never waits for painting.
+ * Events are written to an EventLog file in the background; the text pane shows
+ *  the log's sampled tail.
 */
 
 public class HospitalERCompl {
-    private Map<String, Department> departments = new HashMap<String, Department>();
-
-    // Statistics fields
-    private int numDischarged = 0;
-    private int totalWait = 0;
-    private int maxWait = 0;
-    private int maxWaitPri1 = 0;
-    
-    // Priority-1 stats
-    private int numDischargedPri1 = 0;
-    private int totalWaitPri1 = 0;
-    private int pri1AtRiskCount = 0;
-    private int pri1TreatedQuickly = 0;  
-    
-    private static final int CRITICAL_WAIT_THRESHOLD = 500; 
-    private static final int PRI1_TIMEOUT = 100; 
+    private static final Path EVENT_LOG_FILE = Paths.get("hospital-events.csv");
+    private static final Path HISTORY_FILE = Paths.get("hospital-history.csv");
+    private static final double PRECISION = 0.05;         // of the mean waits, for "Run Until Precise"
+    private static final int PRECISE_MAX_TICKS = 5_000_000;
+
+    private static final int FRAMES_PER_SECOND = 20;
+
+    private final PatientGenerator generator = new PatientGenerator();
+    private volatile SimulationEngine engine = new SimulationEngine(true, generator);
+    private volatile EventLog eventLog = null;
+    private SimulationMonitor monitor = null;  // JMX view of the current engine
+
+    // Rendering
+    private final SnapshotRenderer renderer = new SnapshotRenderer();
+    private final ScheduledExecutorService frameTimer = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "renderer");
+        t.setDaemon(true);
+        return t;
+    });
+    private SimulationSnapshot lastDrawn = null;  // only used by the frame timer
 
     // Simulation fields
-    private boolean running = false;
-    private int time = 0;
+    private volatile boolean running = false;  // cleared by "Pause & Report" to stop either run
     private int delay = 300;
+    private volatile boolean preemptive = false;
 
     public void reset(boolean usePriorityQueues) {
+        reset(usePriorityQueues ? SchedulingPolicies.strictPriority() : SchedulingPolicies.fifo());
+    }
+
+    /**
+     * Starts a new simulation with every department using the given scheduling policy
+     */
+    public void reset(SchedulingPolicy policy) {
         running = false;
         UI.sleep(2*delay);
-        time = 0;
-
-        departments = new LinkedHashMap<>();
-        departments.put("ER", new Department("ER", 8, usePriorityQueues));
-        departments.put("X-Ray", new Department("X-Ray", 3, usePriorityQueues));
-        departments.put("MRI", new Department("MRI", 1, usePriorityQueues));
-        departments.put("UltraSound", new Department("UltraSound", 2, usePriorityQueues));
-        departments.put("Surgery", new Department("Surgery", 3, usePriorityQueues));
-
-        // Reset all statistics
-        numDischarged = 0;
-        totalWait = 0;
-        maxWait = 0;
-        maxWaitPri1 = 0;
-        numDischargedPri1 = 0;
-        totalWaitPri1 = 0;
-        pri1AtRiskCount = 0;
-        pri1TreatedQuickly = 0;
+
+        engine = new SimulationEngine(true, generator);
+        engine.setSchedulingPolicy(policy);
+        engine.setRecorder(new TimeSeriesRecorder(engine));
+        engine.publishSnapshot();
+        if (monitor != null) { monitor.close(); }
+        monitor = new SimulationMonitor(engine, "gui");
 
         UI.clearGraphics();
         UI.clearText();
+        closeEventLog();
+        try {
+            eventLog = new EventLog(EVENT_LOG_FILE, EventLog.Format.CSV, 1);
+            engine.setListener(eventLog);
+        } catch (IOException e) {
+            UI.println("Could not open event log " + EVENT_LOG_FILE + ": " + e.getMessage());
+        }
     }
 
+    private void closeEventLog() {
+        if (eventLog == null) { return; }
+        try {
+            eventLog.close();
+        } catch (UncheckedIOException e) {
+            UI.println("Event log incomplete: " + e.getCause().getMessage());
+        }
+        eventLog = null;
+    }
+
+    /**
+     * Runs the engine one tick at a time, pausing between ticks so the
+     * simulation can be watched (the frame timer draws it)
+     */
     public void run() {
         if (running) { return; }
         running = true;
 
         while (running) {
-            //Collecting and routing finished patients
-            for (Department dept : departments.values()) {
-                List<Patient> finishedHere = dept.collectFinished();
-                for (Patient p : finishedHere) {
-                    p.removeCurrentTreatment();
-                    if (p.allTreatmentsCompleted()) {
-                        discharge(p);
-                    } else {
-                        String nextDeptName = p.getCurrentDepartment();
-                        Department nextDept = departments.get(nextDeptName);
-                        if (nextDept != null) {
-                            nextDept.enqueue(p);
-                        } else {
-                            UI.println(time + ": WARNING unknown department '" + 
-                                     nextDeptName + "' for patient: " + p);
-                        }
-                    }
-                }
-            }
-
-            //Process treatment ticks
-            for (Department dept : departments.values()) {
-                dept.tickTreatment();
-            }
-
-            //Process waiting ticks
-            for (Department dept : departments.values()) {
-                dept.tickWaiting();
-            }
-
-            //Check for priority 1 patients waiting too long (added this incase a paitent has waited too long(
-            for (Department dept : departments.values()) {
-                for (Patient p : dept.getWaitingPatients()) {
-                    if (p.getPriority() == 1 && p.getCurrentWaitTime() > PRI1_TIMEOUT) {
-                        if (dept.forcePriority1Treatment(p)) {
-                            break; // Only force one per department per tick
-                        }
-                    }
-                }
-            }
-
-            //Normal admission process
-            for (Department dept : departments.values()) {
-                dept.admitWhileSpace();
-            }
-
-            //new arrivals
-            Patient newPatient = PatientGenerator.getNextPatient(time);
-            if (newPatient != null) {
-                UI.println(time + ": Arrived: " + newPatient);
-                String firstDeptName = newPatient.getCurrentDepartment();
-                Department firstDept = departments.get(firstDeptName);
-                if (firstDept != null) {
-                    firstDept.enqueue(newPatient);
-                } else {
-                    UI.println(time + ": WARNING unknown first department '" +
-                             firstDeptName + "' for patient: " + newPatient);
-                }
-            }
-
-            //Update display and time
-            redraw();
-            time++;
+            engine.setPreemptive(preemptive);
+            engine.step();
             UI.sleep(delay);
         }
+        engine.publishSnapshot();
 
         reportStatistics();
+        writeHistory();
     }
 
-    public void discharge(Patient p) {
-        numDischarged++;
-        totalWait += p.getTotalWaitingTime();
-        p.setDischargeTime(time);
-        
-        int w = p.getTotalWaitingTime();
-        if (w > maxWait) maxWait = w;
-        
-        if (p.getPriority() == 1) {
-            numDischargedPri1++;
-            totalWaitPri1 += w;
-            if (w > maxWaitPri1) maxWaitPri1 = w;
-            if (w > CRITICAL_WAIT_THRESHOLD) {
-                pri1AtRiskCount++;
-            }
-            if (w <= PRI1_TIMEOUT) {
-                pri1TreatedQuickly++;
-            }
+    /**
+     * Writes the recorded history of the queues (while the simulation is paused)
+     */
+    private void writeHistory() {
+        try {
+            engine.getRecorder().write(HISTORY_FILE, EventLog.Format.CSV);
+            UI.println("History written to " + HISTORY_FILE);
+        } catch (IOException e) {
+            UI.println("Could not write history " + HISTORY_FILE + ": " + e.getMessage());
         }
+    }
+
+    /**
+     * Runs the engine at full speed until the mean waits are known to within
+     * PRECISION (or for at most PRECISE_MAX_TICKS more ticks, or until paused),
+     * leaving out the warm-up, then reports
+     */
+    public void runUntilPrecise() {
+        if (running) { return; }
+        running = true;
+        engine.setPreemptive(preemptive);
+        int maxTicks = (int) Math.min(Integer.MAX_VALUE, (long) engine.getTime() + PRECISE_MAX_TICKS);
+        SteadyStateEstimator estimate = engine.runUntilPrecise(PRECISION, maxTicks, () -> running);
+        running = false;
+        engine.publishSnapshot();
 
-        UI.println(time + ": Discharge: " + p 
-                + " | TotalWait=" + p.getTotalWaitingTime()
-                + " | SystemTime=" + p.getSystemTime());
+        UI.println(estimate.report());
+        reportStatistics();
+        writeHistory();
     }
 
-    public void reportStatistics() {
-        UI.println("----- Statistics -----");
-        UI.println("Simulated Time: " + time);
-        UI.println("Total patients treated: " + numDischarged);
-        UI.println("Max waiting time: " + maxWait);
-    
-        if (numDischarged > 0) {
-            double avgWait = (double) totalWait / numDischarged;
-            UI.println("Average waiting time: " + avgWait);
-        }
-        UI.println("\n----- Priority 1 Patients -----");
-        UI.println("Priority 1 patients treated: " + numDischargedPri1);
-        if (numDischargedPri1 > 0) {
-            double avgWait = (double) totalWait / numDischarged;
-            double AvgWaitCompared = Math.floor(avgWait * 100) / 100;
-            double avgWaitPri1 = (double) totalWaitPri1 / numDischargedPri1;
-            UI.println("Average waiting time (Priority 1): " + avgWaitPri1 + " (" + AvgWaitCompared + "% fater than average wait time)");
-        }
-        
-        UI.println("Max waiting time (Priority 1): " + maxWaitPri1);
-        
-        UI.println("Priority 1 patients at risk (> " + CRITICAL_WAIT_THRESHOLD + 
-                  " wait): " + pri1AtRiskCount);
-        UI.println("Priority 1 patients treated within " + PRI1_TIMEOUT + 
-                  " ticks: " + pri1TreatedQuickly + "/" + numDischargedPri1);
-        
-                  
-        UI.println("\n--- Department Stats ---");
-        for (Department dept : departments.values()) {
-            int served = dept.getTotalPatientsServed();
-            double avgWait = served == 0 ? 0.0 : (double)dept.getTotalWaitingTime()/served;
-            UI.println(dept.getName() + 
-                      " | Patients served: " + served + 
-                      " | Avg wait: " + String.format("%.1f", avgWait) + 
-                      " | Max queue: " + dept.getMaxQueueLength());
+    /**
+     * Prints the events sampled by the log since the last call
+     */
+    private void showEvents() {
+        if (eventLog == null) { return; }
+        for (String line : eventLog.pollSamples()) {
+            UI.println(line);
         }
     }
 
+    public void reportStatistics() {
+        showEvents();
+        UI.println(engine.reportStatistics());
+    }
+
 
 
     // METHODS FOR THE GUI AND VISUALISATION
@@ -205,35 +158,53 @@ public class HospitalERCompl {
     public void setupGUI(){
         UI.addButton("Reset (Queue)", () -> {this.reset(false); });
         UI.addButton("Reset (Pri Queue)", () -> {this.reset(true);});
+        UI.addButton("Reset (Aging)", () -> {this.reset(SchedulingPolicies.aging(SchedulingPolicies.DEFAULT_AGING_TICKS));});
+        UI.addButton("Reset (Shortest First)", () -> {this.reset(SchedulingPolicies.shortestTreatmentFirst());});
+        UI.addButton("Reset (Fair Share)", () -> {this.reset(SchedulingPolicies.forName("wfq"));});
+        UI.addButton("Preemption On/Off", () -> {
+            preemptive = !preemptive;   // applied by the simulation thread before its next tick
+            UI.println("Preemption for priority 1 patients " + (preemptive ? "on" : "off"));
+        });
+        UI.addButton("History On/Off", () -> {renderer.setShowHistory(!renderer.isShowHistory());});
         UI.addButton("Start", ()->{if (!running){ run(); }});   //don't start if already running!
         UI.addButton("Pause & Report", ()->{running=false;});
+        UI.addButton("Run Until Precise", this::runUntilPrecise);
         UI.addSlider("Speed", 1, 400, (401-delay),
             (double val)-> {delay = (int)(401-val);});
-        UI.addSlider("Av arrival interval", 1, 50, PatientGenerator.getArrivalInterval(),
-                     PatientGenerator::setArrivalInterval);
-        UI.addSlider("Prob of Pri 1", 1, 100, PatientGenerator.getProbPri1(),
-                     PatientGenerator::setProbPri1);
-        UI.addSlider("Prob of Pri 2", 1, 100, PatientGenerator.getProbPri2(),
-                     PatientGenerator::setProbPri2);
+        UI.addSlider("Av arrival interval", 1, 50, generator.getArrivalInterval(),
+                     generator::setArrivalInterval);
+        UI.addSlider("Prob of Pri 1", 1, 100, generator.getProbPri1(),
+                     generator::setProbPri1);
+        UI.addSlider("Prob of Pri 2", 1, 100, generator.getProbPri2(),
+                     generator::setProbPri2);
         UI.addButton("Quit", UI::quit);
         UI.setWindowSize(1000,600);
         UI.setDivider(0.5);
     }
 
     /**
-     * Redraws all the departments
+     * Starts drawing frames at a fixed rate
      */
-    public void redraw(){
-        UI.clearGraphics();
-        UI.setFontSize(14);
-        UI.drawString("Treating Patients", 5, 15);
-        UI.drawString("Waiting Queues", 200, 15);
-        UI.drawLine(0,32,400, 32);
-        double y = 80;
-        for (Department dept : departments.values()){
-            dept.redraw(y);
-            UI.drawLine(0,y+2,400, y+2);
-            y += 50;
+    public void startRendering() {
+        frameTimer.scheduleAtFixedRate(this::renderFrame, 0, 1000 / FRAMES_PER_SECOND, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * One frame: asks the engine for a fresh snapshot (made at the end of its next tick),
+     * draws the latest one if it has not been drawn yet, and prints new sampled events
+     */
+    private void renderFrame() {
+        try {
+            SimulationEngine current = engine;
+            current.requestSnapshot();
+            SimulationSnapshot snapshot = current.getLatestSnapshot();
+            if (snapshot != null && snapshot != lastDrawn) {
+                renderer.draw(snapshot);
+                lastDrawn = snapshot;
+            }
+            showEvents();
+        } catch (RuntimeException e) {
+            UI.println("Drawing failed: " + e);   // keep the timer going
         }
     }
 
@@ -244,6 +215,7 @@ public class HospitalERCompl {
         HospitalERCompl er = new HospitalERCompl();
         er.setupGUI();
         er.reset(true);   // initialise with an ordinary queue.
+        er.startRendering();
     }        
 
 
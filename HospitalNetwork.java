@@ -0,0 +1,349 @@
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * A network of hospitals that transfer patients between them, each hospital
+ * (site) simulated by its own SimulationEngine on its own thread.
+ *
+ * Departments at other sites are named by site-qualified names, "Site/Dept"
+ * (e.g. "Kenepuru/MRI"), registered in the DepartmentRegistry. A treatment at
+ * a site-qualified department sends the patient there; unqualified names mean
+ * the patient's current site. Travelling between sites takes a delay.
+ *
+ * The sites are synchronised conservatively: the lookahead is the shortest
+ * travel delay, so a patient sent during one window of that many ticks cannot
+ * arrive before the next window starts. All sites run a window in parallel,
+ * then wait at a barrier where the transfers sent in the window are sorted (by
+ * arrival time, then sending site, then sending order) and delivered. The
+ * results therefore do not depend on the number of threads.
+ *
+ * Overflow transfers: a patient about to join a queue of one of the overflow
+ * departments that is at least the overflow threshold long is sent to the
+ * same department at the site with the shortest queue for it, if that is
+ * below the threshold. Queue lengths of other sites are those seen at the last
+ * barrier, plus the patients this site has sent them since. A patient is sent
+ * at most once per treatment: whoever arrives by transfer joins the queue
+ * there, however long it has become.
+ */
+public class HospitalNetwork {
+    private static final int DEFAULT_TRAVEL_DELAY = 30;
+
+    private final Site[] sites;
+    private final int[][] travelDelay;
+    private int threads = Runtime.getRuntime().availableProcessors();
+    private int time = 0;
+
+    // Overflow policy
+    private final Set<Integer> overflowDepartments = new HashSet<>();  // local DepartmentRegistry ids
+    private int overflowThreshold = Integer.MAX_VALUE;
+
+    // Site-qualified department ids -> (site, local department id), indexed by registry id
+    private int[] siteOfDepartment = new int[0];
+    private int[] localDepartment = new int[0];
+    // and back: [site][local department id] -> site-qualified id
+    private final int[][] qualifiedDepartment;
+
+    // Queue lengths at the last barrier, [site][local department id]
+    private final int[][] waitingAtBarrier;
+    private final int localSlots;  // local department ids are below this
+
+    /**
+     * Creates a network of standard hospitals
+     * @param siteNames Names of the sites (must not contain '/')
+     * @param usePriorityQueues Whether departments use priority queues for waiting patients
+     * @param masterSeed Seed from which every site's random stream is split, in site order
+     */
+    public HospitalNetwork(String[] siteNames, boolean usePriorityQueues, long masterSeed) {
+        SplitMix64 master = new SplitMix64(masterSeed);
+        sites = new Site[siteNames.length];
+        travelDelay = new int[siteNames.length][siteNames.length];
+        for (int i = 0; i < siteNames.length; i++) {
+            if (siteNames[i].contains("/")) {
+                throw new IllegalArgumentException("Site name may not contain '/': " + siteNames[i]);
+            }
+            SimulationEngine engine = new SimulationEngine(usePriorityQueues, new PatientGenerator(master.split()));
+            engine.setEventDriven(true);
+            sites[i] = new Site(i, siteNames[i], engine);
+            engine.setTransferHandler(sites[i]);
+            Arrays.fill(travelDelay[i], DEFAULT_TRAVEL_DELAY);
+            travelDelay[i][i] = 0;
+        }
+        localSlots = DepartmentRegistry.size();
+        qualifiedDepartment = new int[sites.length][localSlots];
+        waitingAtBarrier = new int[sites.length][localSlots];
+        for (Site site : sites) {
+            site.sentSinceBarrier = new int[sites.length][localSlots];
+            for (Department dept : site.engine.getDepartments()) {
+                int id = DepartmentRegistry.register(qualify(site.name, dept.getName()));
+                if (id >= siteOfDepartment.length) {
+                    siteOfDepartment = Arrays.copyOf(siteOfDepartment, DepartmentRegistry.size());
+                    localDepartment = Arrays.copyOf(localDepartment, DepartmentRegistry.size());
+                }
+                siteOfDepartment[id] = site.index + 1;  // 0 means not a site-qualified department
+                localDepartment[id] = dept.getId();
+                qualifiedDepartment[site.index][dept.getId()] = id;
+            }
+        }
+    }
+
+    /**
+     * The site-qualified name of a department, e.g. "Kenepuru/MRI"
+     */
+    public static String qualify(String site, String department) {
+        return site + "/" + department;
+    }
+
+    // ================== Configuration ==================
+
+    /**
+     * Sets the travel delay between every pair of sites
+     */
+    public void setTravelDelay(int ticks) {
+        for (int from = 0; from < sites.length; from++) {
+            for (int to = 0; to < sites.length; to++) {
+                if (from != to) { setTravelDelay(from, to, ticks); }
+            }
+        }
+    }
+
+    /**
+     * Sets the travel delay from one site to another (at least 1 tick)
+     */
+    public void setTravelDelay(int from, int to, int ticks) {
+        if (ticks < 1) {
+            throw new IllegalArgumentException("Travel delay must be at least 1 tick: " + ticks);
+        }
+        travelDelay[from][to] = ticks;
+    }
+
+    /**
+     * Turns on overflow transfers for the given departments
+     * @param threshold Queue length at which patients are sent elsewhere
+     * @param departments Names of the (unqualified) departments whose patients may be sent
+     */
+    public void setOverflow(int threshold, String... departments) {
+        overflowThreshold = threshold;
+        overflowDepartments.clear();
+        for (String name : departments) {
+            int id = DepartmentRegistry.idOf(name);
+            if (id < 0) {
+                throw new IllegalArgumentException("Unknown department: " + name);
+            }
+            overflowDepartments.add(id);
+        }
+    }
+
+    public void setThreads(int threads) {
+        this.threads = Math.max(1, threads);
+    }
+
+    // ================== Running ==================
+
+    /**
+     * The lookahead: the shortest travel delay between two different sites
+     */
+    public int getLookahead() {
+        int lookahead = Integer.MAX_VALUE;
+        for (int from = 0; from < sites.length; from++) {
+            for (int to = 0; to < sites.length; to++) {
+                if (from != to) { lookahead = Math.min(lookahead, travelDelay[from][to]); }
+            }
+        }
+        return lookahead;
+    }
+
+    /**
+     * Runs every site until the clock reaches the given tick
+     */
+    public void runUntil(int endTime) {
+        int lookahead = getLookahead();
+        ForkJoinPool pool = new ForkJoinPool(threads);
+        try {
+            while (time < endTime) {
+                int windowEnd = (int) Math.min(endTime, (long) time + lookahead);
+                runWindow(pool, windowEnd);
+                exchange();
+                time = windowEnd;
+            }
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    private void runWindow(ForkJoinPool pool, int windowEnd) {
+        List<Callable<Void>> tasks = new ArrayList<>(sites.length);
+        for (Site site : sites) {
+            tasks.add(() -> { site.engine.runUntil(windowEnd); return null; });
+        }
+        try {
+            for (Future<Void> f : pool.invokeAll(tasks)) {
+                f.get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Network simulation interrupted", e);
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("Site simulation failed", e.getCause());
+        }
+    }
+
+    /**
+     * The barrier between windows: delivers the transfers sent in the window
+     * in a fixed order, and records every site's queue lengths
+     */
+    private void exchange() {
+        List<Transfer> sent = new ArrayList<>();
+        for (Site site : sites) {
+            sent.addAll(site.outbox);
+            site.outbox.clear();
+            for (int[] counts : site.sentSinceBarrier) {
+                Arrays.fill(counts, 0);
+            }
+        }
+        sent.sort(null);
+        for (Transfer t : sent) {
+            sites[t.to].engine.acceptTransfer(t.patient, t.arrivalTime);
+            sites[t.to].transfersIn++;
+        }
+        for (Site site : sites) {
+            for (Department dept : site.engine.getDepartments()) {
+                waitingAtBarrier[site.index][dept.getId()] = dept.getWaitingCount();
+            }
+        }
+    }
+
+    // ================== Sites ==================
+
+    /**
+     * One hospital: its engine, and the transfers it sent in the current window.
+     * Only its own thread touches it during a window
+     */
+    private final class Site implements TransferHandler {
+        final int index;
+        final String name;
+        final SimulationEngine engine;
+        final List<Transfer> outbox = new ArrayList<>();
+        int[][] sentSinceBarrier;   // [site][local department id], overflow patients sent this window
+        long transfersOut = 0;
+        long transfersIn = 0;
+
+        Site(int index, String name, SimulationEngine engine) {
+            this.index = index;
+            this.name = name;
+            this.engine = engine;
+        }
+
+        @Override
+        public int chooseDepartment(int time, Patient patient, int plannedId) {
+            if (plannedId >= localSlots || !overflowDepartments.contains(plannedId)) {
+                return plannedId;
+            }
+            Department local = engine.getDepartment(plannedId);
+            if (local == null || local.getWaitingCount() < overflowThreshold) {
+                return plannedId;
+            }
+            int best = -1;
+            int bestQueue = overflowThreshold;
+            for (Site other : sites) {
+                if (other == this || qualifiedDepartment[other.index][plannedId] == 0) { continue; }
+                int queue = waitingAtBarrier[other.index][plannedId] + sentSinceBarrier[other.index][plannedId];
+                if (queue < bestQueue) {
+                    best = other.index;
+                    bestQueue = queue;
+                }
+            }
+            if (best < 0) {
+                return plannedId;
+            }
+            sentSinceBarrier[best][plannedId]++;
+            return qualifiedDepartment[best][plannedId];
+        }
+
+        @Override
+        public boolean sendAway(int time, Patient patient) {
+            int id = patient.getCurrentDepartmentId();
+            if (id >= siteOfDepartment.length || siteOfDepartment[id] == 0) {
+                return false;
+            }
+            int to = siteOfDepartment[id] - 1;
+            patient.redirectCurrentTreatment(localDepartment[id]);
+            if (to == index) {
+                engine.acceptTransfer(patient, time);   // own site, named in full
+            } else {
+                outbox.add(new Transfer(time + travelDelay[index][to], index, outbox.size(), to, patient));
+                transfersOut++;
+            }
+            return true;
+        }
+    }
+
+    /**
+     * A patient on the way from one site to another
+     */
+    private static final class Transfer implements Comparable<Transfer> {
+        final int arrivalTime;
+        final int from;
+        final int order;   // position in the sending site's outbox
+        final int to;
+        final Patient patient;
+
+        Transfer(int arrivalTime, int from, int order, int to, Patient patient) {
+            this.arrivalTime = arrivalTime;
+            this.from = from;
+            this.order = order;
+            this.to = to;
+            this.patient = patient;
+        }
+
+        @Override
+        public int compareTo(Transfer other) {
+            if (arrivalTime != other.arrivalTime) { return Integer.compare(arrivalTime, other.arrivalTime); }
+            if (from != other.from) { return Integer.compare(from, other.from); }
+            return Integer.compare(order, other.order);
+        }
+    }
+
+    // ================== Getters ==================
+
+    public int getTime() { return time; }
+    public int getSiteCount() { return sites.length; }
+    public String getSiteName(int site) { return sites[site].name; }
+    public SimulationEngine getEngine(int site) { return sites[site].engine; }
+
+    /**
+     * Returns the statistics of every site, and the transfers in and out of each
+     */
+    public String report() {
+        StringBuilder sb = new StringBuilder();
+        for (Site site : sites) {
+            sb.append("========== ").append(site.name).append(" ==========\n");
+            sb.append("Transfers out: ").append(site.transfersOut)
+              .append(" | Transfers in: ").append(site.transfersIn).append('\n');
+            sb.append(site.engine.reportStatistics()).append("\n\n");
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Runs a network of hospitals from the command line
+     * Arguments: [ticks] [seed] [threads] [travel delay] [overflow threshold] [site names...]
+     */
+    public static void main(String[] args) {
+        int ticks = args.length > 0 ? Integer.parseInt(args[0]) : 100_000;
+        long seed = args.length > 1 ? Long.parseLong(args[1]) : 1;
+        String[] siteNames = args.length > 5 ? Arrays.copyOfRange(args, 5, args.length)
+                                             : new String[]{"Wellington", "Hutt", "Kenepuru"};
+
+        HospitalNetwork network = new HospitalNetwork(siteNames, true, seed);
+        if (args.length > 2) { network.setThreads(Integer.parseInt(args[2])); }
+        if (args.length > 3) { network.setTravelDelay(Integer.parseInt(args[3])); }
+        int threshold = args.length > 4 ? Integer.parseInt(args[4]) : 20;
+        network.setOverflow(threshold, "MRI", "Surgery");
+
+        long start = System.nanoTime();
+        network.runUntil(ticks);
+        long elapsed = System.nanoTime() - start;
+        System.out.println(network.report());
+        System.out.printf("%d sites, %d ticks in %.3f s%n", siteNames.length, ticks, elapsed / 1e9);
+    }
+}
@@ -0,0 +1,243 @@
+import java.lang.management.*;
+import java.util.*;
+
+/**
+ * Microbenchmarks of the hot paths of a simulation tick, at several load
+ * levels (number of patients already queued), to show how each operation
+ * scales and how much it allocates.
+ *
+ * Each benchmark builds its state outside the timed region, then times a
+ * batch of operations. Warm-up iterations are run and discarded first so the
+ * JIT has compiled the code being measured. Results are the mean time per
+ * operation with a 95% confidence interval over the measured iterations, and
+ * the bytes allocated per operation by the benchmark thread.
+ *
+ * Arguments: [measured iterations] [name filter]
+ * e.g. java HotPathBenchmark 10 admit
+ */
+public class HotPathBenchmark {
+    private static final int[] LOAD_LEVELS = {10, 100, 1_000, 10_000};
+    private static final int BATCH = 1_000;   // operations per timed invocation
+    private static final int WARMUP_ITERATIONS = 5;
+    private static final int INVOCATIONS_PER_ITERATION = 20;
+
+    private static final com.sun.management.ThreadMXBean THREADS =
+        (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+    // Results are folded into this so the JIT cannot remove the benchmarked work
+    private static long sink;
+
+    /**
+     * One benchmark: setUp builds fresh state for the given load (not timed),
+     * run performs the timed operations and returns how many it performed
+     */
+    private abstract static class Benchmark {
+        final String name;
+        final boolean scalesWithLoad;
+
+        Benchmark(String name, boolean scalesWithLoad) {
+            this.name = name;
+            this.scalesWithLoad = scalesWithLoad;
+        }
+
+        abstract void setUp(int load);
+        abstract int run();
+    }
+
+    // ================== Benchmarks ==================
+
+    private static List<Benchmark> benchmarks() {
+        List<Benchmark> list = new ArrayList<>();
+
+        for (boolean usePriQueue : new boolean[]{false, true}) {
+            String mode = usePriQueue ? "PQ" : "FIFO";
+
+            list.add(new Benchmark("enqueue " + mode, true) {
+                Department dept;
+                Patient[] arrivals;
+                void setUp(int load) {
+                    dept = fullDepartment(usePriQueue, load);
+                    arrivals = patients(BATCH, 2);
+                }
+                int run() {
+                    for (Patient p : arrivals) { dept.enqueue(p); }
+                    return arrivals.length;
+                }
+            });
+
+            list.add(new Benchmark("admitWhileSpace " + mode, true) {
+                Department dept;
+                void setUp(int load) {
+                    dept = new Department("ER", BATCH, usePriQueue);
+                    for (Patient p : patients(load + BATCH, 3)) { dept.enqueue(p); }
+                }
+                int run() {
+                    dept.admitWhileSpace();
+                    return BATCH;
+                }
+            });
+
+            list.add(new Benchmark("forcePriority1Treatment " + mode, true) {
+                Department dept;
+                Patient[] urgent;
+                void setUp(int load) {
+                    dept = new Department("ER", BATCH, usePriQueue);
+                    Patient[] waiting = patients(load + BATCH, 4);
+                    for (Patient p : waiting) { dept.enqueue(p); }
+                    // pick patients spread through the queue, not just the head
+                    urgent = new Patient[BATCH];
+                    int stride = waiting.length / BATCH;
+                    for (int i = 0; i < BATCH; i++) { urgent[i] = waiting[i * stride]; }
+                }
+                int run() {
+                    int admitted = 0;
+                    for (Patient p : urgent) {
+                        if (dept.forcePriority1Treatment(p)) { admitted++; }
+                    }
+                    return admitted;
+                }
+            });
+        }
+
+        list.add(new Benchmark("collectFinished", true) {
+            Department dept;
+            void setUp(int load) {
+                dept = new Department("ER", load, false);
+                for (Patient p : patients(load, 5)) { dept.enqueue(p); }
+                dept.admitWhileSpace();
+                dept.tickTreatment(TREATMENT_TIME);
+            }
+            int run() {
+                return dept.collectFinished().size();
+            }
+        });
+
+        list.add(new Benchmark("tickWaiting", true) {
+            Department dept;
+            void setUp(int load) {
+                dept = fullDepartment(false, load);
+            }
+            int run() {
+                for (int i = 0; i < BATCH; i++) { dept.tickWaiting(); }
+                return BATCH;
+            }
+        });
+
+        list.add(new Benchmark("getNextPatient", false) {
+            PatientGenerator generator;
+            int time;
+            void setUp(int load) {
+                generator = new PatientGenerator(new SplitMix64(6));
+                time = 1;
+            }
+            int run() {
+                for (int i = 0; i < BATCH; i++) {
+                    Patient p = generator.getNextPatient(time++);
+                    if (p != null) { sink += p.getPriority(); }
+                }
+                return BATCH;
+            }
+        });
+
+        list.add(new Benchmark("engine tick", true) {
+            SimulationEngine engine;
+            void setUp(int load) {
+                engine = new SimulationEngine(true, new PatientGenerator(new SplitMix64(7)));
+                Department er = engine.getDepartment("ER");
+                for (Patient p : patients(load, 7)) { er.enqueue(p); }
+            }
+            int run() {
+                engine.step(BATCH);
+                return BATCH;
+            }
+        });
+
+        return list;
+    }
+
+    // ================== Fixtures ==================
+
+    private static final int TREATMENT_TIME = 10;
+
+    /**
+     * Patients with a single ER treatment and random priorities
+     */
+    private static Patient[] patients(int n, long seed) {
+        SplittableRandom random = new SplittableRandom(seed);
+        Patient[] patients = new Patient[n];
+        for (int i = 0; i < n; i++) {
+            Queue<Treatment> treatments = new ArrayDeque<>();
+            treatments.offer(new Treatment(DepartmentRegistry.ER, TREATMENT_TIME));
+            patients[i] = new Patient(1, 1 + random.nextInt(3), "Bench", "Patient" + i, treatments);
+        }
+        return patients;
+    }
+
+    /**
+     * A department with a full treatment room and the given number of waiting patients
+     */
+    private static Department fullDepartment(boolean usePriQueue, int waiting) {
+        Department dept = new Department("ER", 1, usePriQueue);
+        for (Patient p : patients(1 + waiting, 8)) { dept.enqueue(p); }
+        dept.admitWhileSpace();
+        return dept;
+    }
+
+    // ================== Measurement ==================
+
+    private static void measure(Benchmark b, int load, int iterations) {
+        for (int i = 0; i < WARMUP_ITERATIONS; i++) {
+            iteration(b, load);
+        }
+        MetricSummary nsPerOp = new MetricSummary(b.name);
+        long totalBytes = 0;
+        long totalOps = 0;
+        for (int i = 0; i < iterations; i++) {
+            long[] result = iteration(b, load);   // {nanos, ops, bytes}
+            nsPerOp.add((double) result[0] / result[1]);
+            totalOps += result[1];
+            totalBytes += result[2];
+        }
+        System.out.printf("%-32s %8s %12.1f +/- %-8.1f %12.1f%n",
+                          b.name, b.scalesWithLoad ? String.valueOf(load) : "-",
+                          nsPerOp.getMean(), nsPerOp.getHalfWidth(), (double) totalBytes / totalOps);
+    }
+
+    /**
+     * One iteration: several invocations, each on fresh state
+     * return total timed nanoseconds, operations and allocated bytes
+     */
+    private static long[] iteration(Benchmark b, int load) {
+        long nanos = 0, ops = 0, bytes = 0;
+        for (int i = 0; i < INVOCATIONS_PER_ITERATION; i++) {
+            b.setUp(load);
+            long bytesBefore = THREADS.getCurrentThreadAllocatedBytes();
+            long start = System.nanoTime();
+            int n = b.run();
+            nanos += System.nanoTime() - start;
+            bytes += THREADS.getCurrentThreadAllocatedBytes() - bytesBefore;
+            ops += Math.max(1, n);
+        }
+        return new long[]{nanos, ops, bytes};
+    }
+
+    public static void main(String[] args) {
+        int iterations = args.length > 0 ? Integer.parseInt(args[0]) : 10;
+        String filter = args.length > 1 ? args[1] : "";
+        if (!THREADS.isThreadAllocatedMemorySupported()) {
+            System.out.println("Allocation measurement not supported by this JVM");
+        }
+        THREADS.setThreadAllocatedMemoryEnabled(true);
+
+        System.out.printf("%-32s %8s %25s %12s%n", "Benchmark", "Load", "ns/op (95% CI)", "B/op");
+        for (Benchmark b : benchmarks()) {
+            if (!b.name.contains(filter)) { continue; }
+            if (b.scalesWithLoad) {
+                for (int load : LOAD_LEVELS) { measure(b, load, iterations); }
+            } else {
+                measure(b, 0, iterations);
+            }
+        }
+        System.out.println("(sink " + sink + ")");
+    }
+}
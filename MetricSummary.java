@@ -0,0 +1,79 @@
+
+/**
+ * Summary of one metric over several independent replications:
+ * mean, standard deviation and a Student-t confidence interval for the mean.
+ * Values are accumulated with Welford's method, so the summary is numerically
+ * stable and needs no storage per replication.
+ */
+public class MetricSummary {
+    // Two-sided 95% Student-t quantiles for 1..30 degrees of freedom
+    private static final double[] T_975 = {
+        12.706, 4.303, 3.182, 2.776, 2.571, 2.447, 2.365, 2.306, 2.262, 2.228,
+        2.201, 2.179, 2.160, 2.145, 2.131, 2.120, 2.110, 2.101, 2.093, 2.086,
+        2.080, 2.074, 2.069, 2.064, 2.060, 2.056, 2.052, 2.048, 2.045, 2.042
+    };
+
+    private final String name;
+    private int count = 0;
+    private double mean = 0;
+    private double sumSquares = 0;  // sum of squared differences from the mean
+    private double min = Double.POSITIVE_INFINITY;
+    private double max = Double.NEGATIVE_INFINITY;
+
+    public MetricSummary(String name) {
+        this.name = name;
+    }
+
+    /**
+     * Adds the value from one replication
+     */
+    public void add(double value) {
+        count++;
+        double delta = value - mean;
+        mean += delta / count;
+        sumSquares += delta * (value - mean);
+        min = Math.min(min, value);
+        max = Math.max(max, value);
+    }
+
+    // ================== Getters ==================
+
+    public String getName() { return name; }
+    public int getCount() { return count; }
+    public double getMean() { return mean; }
+    public double getMin() { return min; }
+    public double getMax() { return max; }
+
+    public double getStandardDeviation() {
+        return count < 2 ? 0.0 : Math.sqrt(sumSquares / (count - 1));
+    }
+
+    /**
+     * Half-width of the 95% confidence interval for the mean
+     * (NaN with fewer than two replications)
+     */
+    public double getHalfWidth() {
+        if (count < 2) { return Double.NaN; }
+        return tQuantile975(count - 1) * getStandardDeviation() / Math.sqrt(count);
+    }
+
+    public double getLower() { return mean - getHalfWidth(); }
+    public double getUpper() { return mean + getHalfWidth(); }
+
+    /**
+     * The 97.5% quantile of Student's t distribution: from the table up to 30
+     * degrees of freedom, then the Cornish-Fisher expansion around the normal
+     */
+    static double tQuantile975(int df) {
+        if (df <= T_975.length) { return T_975[df - 1]; }
+        double z = 1.959964;
+        double z3 = z*z*z, z5 = z3*z*z;
+        return z + (z3 + z) / (4.0*df) + (5*z5 + 16*z3 + 3*z) / (96.0*df*df);
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%s: %.3f +/- %.3f (sd %.3f, min %.3f, max %.3f, n=%d)",
+                             name, mean, getHalfWidth(), getStandardDeviation(), min, max, count);
+    }
+}
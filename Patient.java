@@ -1,7 +1,6 @@
-import ecs100.*;
-import java.awt.Color;
 import java.util.*;
 import java.io.*;
+import java.nio.ByteBuffer;
 
 /**
  * Represents an ER Patient with:
@@ -9,24 +8,56 @@ import java.io.*;
  * - Treatment timeline (arrival, discharge, waiting/treatment times)
  * - Medical priority (1-3, with 1 being highest)
  * - Queue of required treatments
+ *
+ * Patients named from PatientGenerator's name lists keep only the indices of
+ * their names; the name strings are only made when the patient is printed or
+ * drawn. Such patients can be recycled after discharge (see
+ * PatientGenerator.setRecycling), so they are not immutable.
  */
 public class Patient implements Comparable<Patient> {
     // Personal details
-    private final String name;
-    private final String initials;
+    private int id;                    // -1 if not numbered
+    private int firstNameIndex;        // in PatientGenerator's name lists, -1 if not from there
+    private int lastNameIndex;
+    private final String customName;      // only for patients not named from the lists
+    private final String customInitials;
     
     // Timeline tracking
-    private final int arrivalTime;
+    private int arrivalTime;
     private int dischargeTime;
-    private int totalWaitTime;
+    private int totalWaitTime;       // waiting time of completed stints only
     private int totalTreatmentTime;
+
+    // Current waiting stint: the department's wait clock when the patient joined its queue
+    private Department waitingIn = null;
+    private int waitStartClock;
+    private int lastWaitStint = 0;
+
+    // Current treatment: the department's treatment clock when treatment started
+    private Department treatedIn = null;
+    private int treatmentStartClock;
+    private boolean preempted = false;  // sent back to the queue mid-treatment, not yet re-admitted
+    // Of the current treatment, before any preemptions: ticks treated, and ticks in the department
+    private int treatedBeforePreemption = 0;
+    private int stayBeforePreemption = 0;
+    private int lastStay = 0;           // waiting and treatment for the last finished treatment
     
     // Medical priority (1 = highest, 3 = lowest)
-    private final int priority;
+    private int priority;
     
-    // Treatment plan
-    private final Queue<Treatment> treatments;
-    private final Map<String, Integer> waitTimesPerDept = new HashMap<>();
+    // Treatment plan: treatments[currentTreatment] is the current one (an array
+    // with a cursor, so following the plan never allocates). The array may be
+    // longer than the plan when the patient is recycled
+    private Treatment[] treatments;
+    private int numTreatments;
+    private int currentTreatment = 0;
+    private int[] waitTimesPerDept = new int[DepartmentRegistry.size()];  // indexed by department id
+
+    // Positions in the PatientHeaps currently holding this patient (-1 when in none)
+    public static final int PRIMARY_HANDLE = 0;
+    public static final int SECONDARY_HANDLE = 1;
+    private int primaryHandle = -1;
+    private int secondaryHandle = -1;
 
     /**
      * Constructs a new Patient
@@ -37,14 +68,118 @@ public class Patient implements Comparable<Patient> {
      * @param treatments Queue of required treatments
      */
     public Patient(int time, int priority, String firstName, String lastName, Queue<Treatment> treatments) {
+        this(-1, time, priority, firstName, lastName, treatments);
+    }
+
+    /**
+     * Constructs a new Patient with an id (e.g. its number in the arrival stream),
+     * which identifies the patient in compact logs such as the EventLog
+     */
+    public Patient(int id, int time, int priority, String firstName, String lastName, Queue<Treatment> treatments) {
+        this(id, time, priority, firstName + " " + lastName, initialsOf(firstName, lastName), -1, -1,
+             treatments.toArray(new Treatment[0]));  // Defensive copy
+    }
+
+    /**
+     * Constructs a new Patient named from PatientGenerator's name lists,
+     * keeping the name indices (e.g. for recording in a trace)
+     */
+    public Patient(int id, int time, int priority, int firstName, int lastName, Queue<Treatment> treatments) {
+        this(id, time, priority, null, null, firstName, lastName, treatments.toArray(new Treatment[0]));
+    }
+
+    /**
+     * Constructs a new Patient named from PatientGenerator's name lists, with
+     * the treatment plan given as the first n departments and times of two arrays
+     */
+    Patient(int id, int time, int priority, int firstName, int lastName, int[] depts, int[] times, int n) {
+        this(id, time, priority, null, null, firstName, lastName, new Treatment[n]);
+        for (int i = 0; i < n; i++) {
+            treatments[i] = new Treatment(depts[i], times[i]);
+        }
+    }
+
+    private Patient(int id, int time, int priority, String customName, String customInitials,
+                    int firstNameIndex, int lastNameIndex, Treatment[] treatments) {
+        this.id = id;
+        this.firstNameIndex = firstNameIndex;
+        this.lastNameIndex = lastNameIndex;
+        this.customName = customName;
+        this.customInitials = customInitials;
+        this.arrivalTime = time;
+        this.priority = priority;
+        this.treatments = treatments;
+        this.numTreatments = treatments.length;
+    }
+
+    private static String initialsOf(String firstName, String lastName) {
+        return firstName.substring(0,1) + lastName.substring(0,1);
+    }
+
+    /**
+     * Turns a discharged patient into a newly arrived one, reusing its
+     * treatment array and Treatment objects where they are big enough.
+     * Only for patients named from PatientGenerator's lists, and no longer
+     * in any department
+     */
+    void reuse(int id, int time, int priority, int firstName, int lastName, int[] depts, int[] times, int n) {
+        if (customName != null || waitingIn != null || treatedIn != null || primaryHandle >= 0 || secondaryHandle >= 0) {
+            throw new IllegalStateException("Patient cannot be reused: " + this);
+        }
+        this.id = id;
+        this.firstNameIndex = firstName;
+        this.lastNameIndex = lastName;
         this.arrivalTime = time;
         this.priority = priority;
-        this.name = firstName + " " + lastName;
-        this.initials = firstName.substring(0,1) + lastName.substring(0,1);
-        this.treatments = new ArrayDeque<>(treatments); // Defensive copy
+        dischargeTime = 0;
+        totalWaitTime = 0;
+        totalTreatmentTime = 0;
+        waitStartClock = 0;
+        lastWaitStint = 0;
+        treatmentStartClock = 0;
+        preempted = false;
+        treatedBeforePreemption = 0;
+        stayBeforePreemption = 0;
+        lastStay = 0;
+
+        if (treatments.length < n) {
+            treatments = Arrays.copyOf(treatments, n);
+        }
+        for (int i = 0; i < n; i++) {
+            if (treatments[i] == null) {
+                treatments[i] = new Treatment(depts[i], times[i]);
+            } else {
+                treatments[i].reset(depts[i], times[i]);
+            }
+        }
+        numTreatments = n;
+        currentTreatment = 0;
+
+        if (waitTimesPerDept.length < DepartmentRegistry.size()) {
+            waitTimesPerDept = new int[DepartmentRegistry.size()];
+        } else {
+            Arrays.fill(waitTimesPerDept, 0);
+        }
+    }
+
+    /**
+     * Whether the patient is named from PatientGenerator's lists (and so can be recycled)
+     */
+    boolean isNamedByIndex() {
+        return customName == null;
     }
 
     // ================== Timeline Methods ==================
+
+    /**
+     * Sets the progress so far of a patient copied from stored state
+     * (see PatientStore.toPatient)
+     */
+    void restoreProgress(int totalWaitTime, int totalTreatmentTime, int dischargeTime) {
+        this.totalWaitTime = totalWaitTime;
+        this.totalTreatmentTime = totalTreatmentTime;
+        this.dischargeTime = dischargeTime;
+    }
     
     public void setDischargeTime(int time) { 
         this.dischargeTime = time; 
@@ -53,6 +188,29 @@ public class Patient implements Comparable<Patient> {
     public int getSystemTime() {
         return dischargeTime - arrivalTime;
     }
+
+    public int getArrivalTime() {
+        return arrivalTime;
+    }
+
+    public int getId() {
+        return id;
+    }
+
+    /**
+     * The patient's full name (made on each call for patients named by index)
+     */
+    public String getName() {
+        if (customName != null) { return customName; }
+        return PatientGenerator.getFirstName(firstNameIndex) + " " + PatientGenerator.getLastName(lastNameIndex);
+    }
+
+    public String getInitials() {
+        return customInitials != null ? customInitials : PatientGenerator.getInitials(firstNameIndex, lastNameIndex);
+    }
+
+    public int getFirstNameIndex() { return firstNameIndex; }
+    public int getLastNameIndex() { return lastNameIndex; }
     
     // ================== Priority Methods ==================
     
@@ -71,103 +229,393 @@ public class Patient implements Comparable<Patient> {
 
     // ================== Treatment Progress Methods ==================
     
-    public void waitForATick() {
-        totalWaitTime++;
+    /**
+     * Starts the current treatment in a department.
+     * Treatment time is not counted tick by tick; it is worked out from the
+     * department's treatment clock when the treatment ends or is displayed.
+     */
+    public void startTreatment(Department dept) {
+        treatedIn = dept;
+        treatmentStartClock = dept.getTreatmentClock();
+        preempted = false;
     }
-    
-    public void advanceCurrentTreatmentByTick() {
-        if (treatments.isEmpty()) {
+
+    /**
+     * Ends the current treatment (when collected), applying the time spent on it
+     * return the time spent on the treatment since it last started
+     */
+    public int finishTreatment() {
+        int elapsed = stopTreatment();
+        lastStay = stayBeforePreemption + lastWaitStint + elapsed;
+        treatedBeforePreemption = 0;
+        stayBeforePreemption = 0;
+        return elapsed;
+    }
+
+    /**
+     * Stops the current treatment before it is finished (the patient was
+     * preempted), keeping the time still needed for when they are admitted again
+     * return the time spent on the treatment since it last started
+     */
+    public int interruptTreatment() {
+        int elapsed = stopTreatment();
+        treatedBeforePreemption += elapsed;
+        stayBeforePreemption += lastWaitStint + elapsed;
+        preempted = true;
+        return elapsed;
+    }
+
+    private int stopTreatment() {
+        if (treatedIn == null) {
+            throw new IllegalStateException("Not in treatment: " + this);
+        }
+        int elapsed = treatedIn.getTreatmentClock() - treatmentStartClock;
+        treatedIn = null;
+        advanceCurrentTreatment(elapsed);
+        return elapsed;
+    }
+
+    /**
+     * Time in the department for the last finished treatment: every waiting
+     * stint and treatment segment, across any preemptions
+     */
+    public int getLastStay() { return lastStay; }
+
+    /**
+     * Whether the patient was preempted and is waiting to resume the same
+     * treatment (cleared when it starts again)
+     */
+    public boolean isPreempted() { return preempted; }
+
+    /**
+     * The treatment clock of the department treating the patient (or that last
+     * treated them) when their treatment there started
+     */
+    public int getTreatmentStartClock() { return treatmentStartClock; }
+
+    /**
+     * The treatment clock at which the current treatment would have started to
+     * have had as much done by now without preemptions (the start clock less
+     * the ticks treated before being preempted): the later, the less progressed
+     */
+    public int getProgressStartClock() { return treatmentStartClock - treatedBeforePreemption; }
+
+    private int elapsedTreatment() {
+        return treatedIn == null ? 0 : treatedIn.getTreatmentClock() - treatmentStartClock;
+    }
+
+    private void advanceCurrentTreatment(int ticks) {
+        if (allTreatmentsCompleted()) {
             throw new IllegalStateException("No treatments remaining: " + this);
         }
         
-        Treatment current = treatments.peek();
-        if (current.getTimeRemaining() == 0) {
+        Treatment current = treatments[currentTreatment];
+        if (current.getTimeRemaining() < ticks) {
             throw new IllegalStateException("Current treatment already finished: " + this);
         }
         
-        totalTreatmentTime++;
-        current.advanceTime();
+        totalTreatmentTime += ticks;
+        current.advanceTime(ticks);
+    }
+
+    /**
+     * Returns the treatment time left in the current department
+     */
+    public int getCurrentTreatmentRemaining() {
+        return allTreatmentsCompleted() ? 0 : treatments[currentTreatment].getTimeRemaining() - elapsedTreatment();
     }
     
     public boolean currentTreatmentFinished() {
-        return !treatments.isEmpty() && treatments.peek().getTimeRemaining() == 0;
+        return !allTreatmentsCompleted() && getCurrentTreatmentRemaining() == 0;
     }
     
     public boolean allTreatmentsCompleted() {
-        return treatments.isEmpty();
+        return currentTreatment == numTreatments;
+    }
+
+    /**
+     * Number of treatments still to do, including the current one
+     */
+    public int getRemainingTreatmentCount() {
+        return numTreatments - currentTreatment;
+    }
+
+    /**
+     * Department id of a remaining treatment (0 is the current one)
+     */
+    public int getRemainingDepartmentId(int i) {
+        return treatments[currentTreatment + i].getDepartmentId();
     }
     
     public String getCurrentDepartment() {
-        if (treatments.isEmpty()) {
+        if (allTreatmentsCompleted()) {
+            throw new IllegalStateException("No current department - treatments completed: " + this);
+        }
+        return treatments[currentTreatment].getDepartment();
+    }
+
+    /**
+     * Returns the DepartmentRegistry id of the current department
+     */
+    public int getCurrentDepartmentId() {
+        if (allTreatmentsCompleted()) {
             throw new IllegalStateException("No current department - treatments completed: " + this);
         }
-        return treatments.peek().getDepartment();
+        return treatments[currentTreatment].getDepartmentId();
+    }
+
+    /**
+     * Sends the current treatment to a different department (e.g. the same
+     * department at another hospital). Only allowed between departments,
+     * while the patient is neither waiting nor in treatment
+     */
+    public void redirectCurrentTreatment(int departmentId) {
+        if (allTreatmentsCompleted()) {
+            throw new IllegalStateException("No current department - treatments completed: " + this);
+        }
+        if (waitingIn != null || treatedIn != null) {
+            throw new IllegalStateException("Cannot redirect a patient in a department: " + this);
+        }
+        treatments[currentTreatment].setDepartmentId(departmentId);
+    }
+
+    /**
+     * Returns the department ids of all remaining treatments, in order
+     */
+    public int[] getRemainingDepartmentIds() {
+        int[] ids = new int[getRemainingTreatmentCount()];
+        for (int i = 0; i < ids.length; i++) {
+            ids[i] = treatments[currentTreatment + i].getDepartmentId();
+        }
+        return ids;
+    }
+    
+    /**
+     * Returns the durations of all remaining treatments, in order
+     * (the current one as it was when its treatment started)
+     */
+    public int[] getRemainingTreatmentTimes() {
+        int[] times = new int[getRemainingTreatmentCount()];
+        for (int i = 0; i < times.length; i++) {
+            times[i] = treatments[currentTreatment + i].getTimeRemaining();
+        }
+        return times;
     }
     
     public void removeCurrentTreatment() {
-        if (treatments.isEmpty()) {
+        if (allTreatmentsCompleted()) {
             throw new IllegalStateException("No treatments to remove: " + this);
         }
-        treatments.poll();
+        currentTreatment++;
     }
 
     // ================== Wait Time Tracking ==================
+
+    /**
+     * Starts a waiting stint in a department's queue.
+     * Waiting time is not counted tick by tick; it is worked out from the
+     * department's wait clock whenever it is needed.
+     */
+    public void startWaiting(Department dept) {
+        waitingIn = dept;
+        waitStartClock = dept.getWaitClock();
+    }
+
+    /**
+     * Ends the current waiting stint (on admission) and records it
+     * return the length of the stint
+     */
+    public int stopWaiting() {
+        if (waitingIn == null) {
+            throw new IllegalStateException("Not waiting: " + this);
+        }
+        int stint = waitingIn.getWaitClock() - waitStartClock;
+        totalWaitTime += stint;
+        recordWait(waitingIn.getId(), stint);
+        waitingIn = null;
+        lastWaitStint = stint;
+        return stint;
+    }
+
+    /**
+     * Length of the most recent completed waiting stint
+     */
+    public int getLastWaitStint() { return lastWaitStint; }
     
+    /**
+     * Adds waiting time in a department, by name
+     * Throws IllegalArgumentException if the department has not been registered
+     */
     public void recordWait(String department, int waitTime) {
-        waitTimesPerDept.merge(department, waitTime, Integer::sum);
+        int id = DepartmentRegistry.idOf(department);
+        if (id < 0) {
+            throw new IllegalArgumentException("Unknown department: " + department);
+        }
+        recordWait(id, waitTime);
+    }
+
+    public void recordWait(int departmentId, int waitTime) {
+        if (departmentId >= waitTimesPerDept.length) {
+            waitTimesPerDept = Arrays.copyOf(waitTimesPerDept, DepartmentRegistry.size());
+        }
+        waitTimesPerDept[departmentId] += waitTime;
     }
     
     public int getTotalWaitingTime() { 
-        return totalWaitTime; 
+        if (waitingIn == null) {
+            return totalWaitTime;
+        }
+        return totalWaitTime + waitingIn.getWaitClock() - waitStartClock;
     }
-    
+
+    /**
+     * The wait clock of the department whose queue the patient is in (or was
+     * last in) when they joined it
+     */
+    public int getWaitStartClock() { return waitStartClock; }
+
     public int getTotalTreatmentTime() { 
-        return totalTreatmentTime; 
+        return totalTreatmentTime + elapsedTreatment(); 
     }
     
     public int getCurrentWaitTime() {
-        return totalWaitTime - totalTreatmentTime;
+        return getTotalWaitingTime() - getTotalTreatmentTime();
     }
     
     public Map<String, Integer> getWaitTimesPerDept() {
-        return new HashMap<>(waitTimesPerDept); // Return defensive copy
+        Map<String, Integer> waits = new HashMap<>();
+        for (int id = 0; id < waitTimesPerDept.length; id++) {
+            if (waitTimesPerDept[id] != 0) {
+                waits.put(DepartmentRegistry.nameOf(id), waitTimesPerDept[id]);
+            }
+        }
+        return waits;
     }
 
-    // ================== Visual Representation ==================
-    
+    // ================== Checkpoints ==================
+
     /**
-     * Draws the patient representation
-     * @param x Center x-coordinate
-     * @param y Bottom y-coordinate
+     * Writes the patient's details and progress to a checkpoint. Which
+     * department the patient is in is written by the department (see
+     * Department.writeCheckpoint)
      */
-    public void redraw(double x, double y) {
-        // Set color based on priority
-        switch (priority) {
-            case 1: UI.setColor(Color.RED); break;
-            case 2: UI.setColor(Color.ORANGE); break;
-            default: UI.setColor(Color.GREEN); break;
+    void writeCheckpoint(DataOutput out) throws IOException {
+        out.writeInt(id);
+        out.writeInt(arrivalTime);
+        out.writeByte(priority);
+        out.writeShort(firstNameIndex);
+        out.writeShort(lastNameIndex);
+        if (customName != null) {
+            Checkpoint.writeString(out, customName);
+            Checkpoint.writeString(out, customInitials);
         }
-        
-        // Draw patient figure
-        UI.fillOval(x-3, y-28, 6, 8);
-        UI.fillRect(x-3, y-20, 6, 20);
-        
-        // Draw outline
-        UI.setColor(Color.BLACK);
-        UI.drawOval(x-3, y-28, 6, 8);
-        UI.drawRect(x-3, y-20, 6, 20);
-        
-        // Draw initials
-        UI.setFontSize(10);
-        UI.drawString(String.valueOf(initials.charAt(0)), x-3, y-10);
-        UI.drawString(String.valueOf(initials.charAt(1)), x-3, y-1);
+        out.writeInt(dischargeTime);
+        out.writeInt(totalWaitTime);
+        out.writeInt(totalTreatmentTime);
+        out.writeInt(waitStartClock);
+        out.writeInt(lastWaitStint);
+        out.writeInt(treatmentStartClock);
+        out.writeBoolean(preempted);
+        out.writeInt(treatedBeforePreemption);
+        out.writeInt(stayBeforePreemption);
+        out.writeShort(getRemainingTreatmentCount());
+        for (int i = currentTreatment; i < numTreatments; i++) {
+            out.writeShort(treatments[i].getDepartmentId());
+            out.writeInt(treatments[i].getTimeRemaining());
+        }
+        int departmentsWaited = 0;
+        for (int wait : waitTimesPerDept) {
+            if (wait != 0) { departmentsWaited++; }
+        }
+        out.writeShort(departmentsWaited);
+        for (int id = 0; id < waitTimesPerDept.length; id++) {
+            if (waitTimesPerDept[id] != 0) {
+                out.writeShort(id);
+                out.writeInt(waitTimesPerDept[id]);
+            }
+        }
+    }
+
+    /**
+     * Reads a patient written by writeCheckpoint
+     * @param deptIds Maps the checkpoint's department ids to DepartmentRegistry ids
+     */
+    static Patient readCheckpoint(ByteBuffer in, int[] deptIds) {
+        int id = in.getInt();
+        int arrivalTime = in.getInt();
+        int priority = in.get();
+        int firstNameIndex = in.getShort();
+        int lastNameIndex = in.getShort();
+        String customName = null;
+        String customInitials = null;
+        if (firstNameIndex < 0 || lastNameIndex < 0) {
+            customName = Checkpoint.readString(in);
+            customInitials = Checkpoint.readString(in);
+        }
+        int dischargeTime = in.getInt();
+        int totalWaitTime = in.getInt();
+        int totalTreatmentTime = in.getInt();
+        int waitStartClock = in.getInt();
+        int lastWaitStint = in.getInt();
+        int treatmentStartClock = in.getInt();
+        boolean preempted = in.get() != 0;
+        int treatedBeforePreemption = in.getInt();
+        int stayBeforePreemption = in.getInt();
+        int numTreatments = in.getShort();
+        Treatment[] treatments = new Treatment[numTreatments];
+        for (int i = 0; i < numTreatments; i++) {
+            int dept = deptIds[in.getShort()];
+            treatments[i] = new Treatment(dept, in.getInt());
+        }
+
+        Patient p = new Patient(id, arrivalTime, priority, customName, customInitials,
+                                firstNameIndex, lastNameIndex, treatments);
+        p.restoreProgress(totalWaitTime, totalTreatmentTime, dischargeTime);
+        p.waitStartClock = waitStartClock;
+        p.lastWaitStint = lastWaitStint;
+        p.treatmentStartClock = treatmentStartClock;
+        p.preempted = preempted;
+        p.treatedBeforePreemption = treatedBeforePreemption;
+        p.stayBeforePreemption = stayBeforePreemption;
+        for (int i = in.getShort(); i > 0; i--) {
+            int dept = deptIds[in.getShort()];
+            p.recordWait(dept, in.getInt());
+        }
+        return p;
+    }
+
+    /**
+     * Puts a restored patient back in a department's queue, keeping the
+     * waiting stint it had when checkpointed
+     */
+    void resumeWaiting(Department dept) {
+        waitingIn = dept;
+    }
+
+    /**
+     * Puts a restored patient back in a department's treatment room, keeping
+     * the treatment progress it had when checkpointed
+     */
+    void resumeTreatment(Department dept) {
+        treatedIn = dept;
+    }
+
+    // ================== Heap Handles ==================
+
+    int getHeapHandle(int slot) {
+        return slot == PRIMARY_HANDLE ? primaryHandle : secondaryHandle;
+    }
+
+    void setHeapHandle(int slot, int index) {
+        if (slot == PRIMARY_HANDLE) { primaryHandle = index; }
+        else { secondaryHandle = index; }
     }
 
     @Override
     public String toString() {
         return String.format("%s (Priority %d) | Arrived: %d | Wait: %d | Treatment: %d | %d treatments remaining",
-                            name, priority, arrivalTime, totalWaitTime, 
-                            totalTreatmentTime, treatments.size());
+                            getName(), priority, arrivalTime, getTotalWaitingTime(), 
+                            getTotalTreatmentTime(), getRemainingTreatmentCount());
     }
 
 
@@ -1,116 +1,310 @@
 import java.util.*;
+import java.io.*;
+import java.nio.ByteBuffer;
 
 /**
  * Generates patients for simulating a hospital ER
+ *
+ * Each generator has its own random number stream and parameters, so several
+ * simulations can run side by side in one JVM (see ReplicationRunner).
  */
 
 public class PatientGenerator {
     //========Fields and Methods for Creating Patients =================================
 
     // Fields and methods for creating patients with random priorities and treatments.
-    // These are static becasue they are used by the static  getNextPatient method.
 
     // fields for controlling the probabilities used in the Patient creation process.
-    private static Random random = new Random();  //used for generating the random values.
+    private SplitMix64 random;  //used for generating the random values.
+    private boolean haveSpareGaussian = false;
+    private double spareGaussian;
 
-    // fields used to make new Patients, whose values are set by the GUI in HospitalER,
-    //   (which is why they are public rather than private.)
-    public static int arrivalInterval = 5;   // new patient every 5 ticks, on average
-    public static double probPri1 = 0.1; // 10% priority 1 patients
-    public static double probPri2 = 0.2; // 20% priority 2 patients
+    // fields used to make new Patients, whose values are set by the GUI in HospitalER
+    private int arrivalInterval = 5;   // new patient every 5 ticks, on average
+    private double probPri1 = 0.1; // 10% priority 1 patients
+    private double probPri2 = 0.2; // 20% priority 2 patients
+
+    private int patientsGenerated = 0;  // numbers the patients, for their ids
+
+    // Discharged patients kept for reuse (null when not recycling)
+    private static final int MAX_RECYCLED = 1024;
+    private Patient[] recycled = null;
+    private int numRecycled = 0;
     
+    // Scratch space for the treatment plan of the patient being generated
+    private static final int MAX_TREATMENTS = PatientStore.DEFAULT_MAX_TREATMENTS;
+    private final int[] planDepts = new int[MAX_TREATMENTS];  // DepartmentRegistry ids
+    private final int[] planTimes = new int[MAX_TREATMENTS];
+    private final int[] planPairs = new int[2*MAX_TREATMENTS];
+
+    /**
+     * Creates a generator with an unpredictable random seed
+     */
+    public PatientGenerator(){
+        this(new SplitMix64());
+    }
+
+    /**
+     * Creates a generator drawing from the given random stream
+     * (e.g. one split from a master stream for each replication)
+     */
+    public PatientGenerator(SplitMix64 random){
+        this.random = random;
+    }
+
     /**
-     * Static method to get a new Patient
+     * Method to get a new Patient
      * If no new patients arriving at this time, return null
      * If a new patient is arriving at this time,
      * then create and return the Patient
      */
-    public static Patient getNextPatient(int time){
+    public Patient getNextPatient(int time){
         if (time>1 && random.nextDouble()>1.0/arrivalInterval) { // no patient on this time tick
             return null;
         }
         else {
-            double rnd = random.nextDouble();
-            int priority =  (rnd < probPri1)? 1 : (rnd < (probPri1 + probPri2) ) ? 2 : 3;
-            String firstName = GetRandomName(firstNames);
-            String lastName = GetRandomName(lastNames);
-            Queue<Treatment> treatments = GenerateRandomTreatments(priority);
-            return new Patient(time, priority, firstName, lastName, treatments);
+            int priority = GenerateRandomPriority();
+            int firstName = GetRandomNameIndex(firstNames);
+            int lastName = GetRandomNameIndex(lastNames);
+            int numTreatments = GenerateRandomTreatments(priority);
+            if (numRecycled > 0) {
+                Patient p = recycled[--numRecycled];
+                recycled[numRecycled] = null;
+                p.reuse(patientsGenerated++, time, priority, firstName, lastName, planDepts, planTimes, numTreatments);
+                return p;
+            }
+            return new Patient(patientsGenerated++, time, priority, firstName, lastName,
+                               planDepts, planTimes, numTreatments);
+        }
+    }
+
+    /**
+     * Turns recycling of discharged patients on or off. While it is on,
+     * getNextPatient reuses patients handed back by recycle (with their
+     * Treatment objects) instead of making new ones. Only turn it on when
+     * nothing keeps a Patient after it has been discharged
+     */
+    public void setRecycling(boolean recycling){
+        if (recycling && recycled == null) {
+            recycled = new Patient[MAX_RECYCLED];
+        } else if (!recycling) {
+            recycled = null;
+            numRecycled = 0;
+        }
+    }
+
+    public boolean isRecycling(){return recycled != null;}
+
+    /**
+     * Turns recycling on and fills the pool with spare patients (with room for
+     * the longest treatment plan), so that while there are no more than this
+     * many extra patients in the hospital, no patient is ever allocated
+     */
+    public void reserveRecycled(int patients){
+        setRecycling(true);
+        Arrays.fill(planDepts, DepartmentRegistry.ER);
+        Arrays.fill(planTimes, 1);
+        while (numRecycled < Math.min(patients, recycled.length)) {
+            recycled[numRecycled++] = new Patient(-1, 0, 3, 0, 0, planDepts, planTimes, MAX_TREATMENTS);
+        }
+    }
+
+    /**
+     * Hands back a discharged patient for reuse (ignored when not recycling,
+     * when the pool is full, or for patients not named from the name lists)
+     */
+    public void recycle(Patient p){
+        if (recycled != null && numRecycled < recycled.length && p.isNamedByIndex()) {
+            recycled[numRecycled++] = p;
+        }
+    }
+
+    /**
+     * Same as getNextPatient(time), drawing exactly the same random numbers,
+     * but adds the new patient to a PatientStore instead of creating a Patient.
+     * Returns the patient's handle, or -1 if no patient arrives at this time.
+     */
+    public int getNextPatient(int time, PatientStore store){
+        if (time>1 && random.nextDouble()>1.0/arrivalInterval) { // no patient on this time tick
+            return -1;
+        }
+        else {
+            int priority = GenerateRandomPriority();
+            int firstName = GetRandomNameIndex(firstNames);
+            int lastName = GetRandomNameIndex(lastNames);
+            int numTreatments = GenerateRandomTreatments(priority);
+            for (int i=0; i<numTreatments; i++){
+                planPairs[2*i] = planDepts[i];
+                planPairs[2*i+1] = planTimes[i];
+            }
+            patientsGenerated++;
+            return store.add(time, priority, firstName, lastName, planPairs, numTreatments);
         }
     }
 
+    private int GenerateRandomPriority(){
+        double rnd = random.nextDouble();
+        return (rnd < probPri1)? 1 : (rnd < (probPri1 + probPri2) ) ? 2 : 3;
+    }
+
     /**
      * Method to control the random number generator to make experiments repeatable
      */
-    public static void setRandomSeed(long seed){ random.setSeed(seed);}
+    public void setRandomSeed(long seed){
+        random = new SplitMix64(seed);
+        haveSpareGaussian = false;
+    }
+
+    /**
+     * Replaces the random stream (e.g. with one split from a master stream,
+     * to give a restored simulation its own future)
+     */
+    public void setRandom(SplitMix64 random){
+        this.random = random;
+        haveSpareGaussian = false;
+    }
+
+    /**
+     * Writes the random stream, its spare gaussian value, the parameters and
+     * the patient count to a checkpoint
+     */
+    void writeCheckpoint(DataOutput out) throws IOException {
+        out.writeLong(random.getSeed());
+        out.writeLong(random.getGamma());
+        out.writeBoolean(haveSpareGaussian);
+        out.writeDouble(spareGaussian);
+        out.writeInt(arrivalInterval);
+        out.writeDouble(probPri1);
+        out.writeDouble(probPri2);
+        out.writeInt(patientsGenerated);
+    }
+
+    /**
+     * Reads a generator written by writeCheckpoint, which carries on drawing
+     * exactly where the saved one left off
+     */
+    static PatientGenerator readCheckpoint(ByteBuffer in){
+        PatientGenerator generator = new PatientGenerator(SplitMix64.fromState(in.getLong(), in.getLong()));
+        generator.haveSpareGaussian = in.get() != 0;
+        generator.spareGaussian = in.getDouble();
+        generator.arrivalInterval = in.getInt();
+        generator.probPri1 = in.getDouble();
+        generator.probPri2 = in.getDouble();
+        generator.patientsGenerated = in.getInt();
+        return generator;
+    }
 
     // getters and setters.
-    public static int getArrivalInterval(){return arrivalInterval;}
-    public static void setArrivalInterval(double v){arrivalInterval = (int)v;}
+    public int getArrivalInterval(){return arrivalInterval;}
+    public void setArrivalInterval(double v){arrivalInterval = (int)v;}
 
-    public static int getProbPri1(){return (int)(probPri1*100);}
-    public static void setProbPri1(double v){probPri1 = v/100;}
+    public int getProbPri1(){return (int)(probPri1*100);}
+    public void setProbPri1(double v){probPri1 = v/100;}
 
-    public static int getProbPri2(){return (int)(probPri2*100);}
-    public static void setProbPri2(double v){probPri2 = v/100;}
+    public int getProbPri2(){return (int)(probPri2*100);}
+    public void setProbPri2(double v){probPri2 = v/100;}
 
 
     // Creating random names and treatments
     /**
-     * Create a queue of random treatments
+     * Create a random sequence of treatments, in planDepts and planTimes
      * The sequence is influenced by priority of the patient:
      *  - high priority patients are more likely to need the operating
      *    theatre first, and a more complicated treatment sequence.
      *  low priority patients are more likely to just need an ER bed treatment.
+     * Returns the number of treatments
      */
-    private static Queue<Treatment> GenerateRandomTreatments(int priority){
+    private int GenerateRandomTreatments(int priority){
         //choose number of treatments.
         //choose location and length of each treatment
         //
         // always start with ER
         // if (random.nextDouble()<0.8 ||
         //     (priority==1 && random.nextDouble()<0.4)){
-        Queue<Treatment> treatments = new ArrayDeque<Treatment>();
-        treatments.offer(new Treatment("ER", GenerateTime(20)));
-        String lastDept = "ER";
+        int n = 0;
+        planDepts[n] = DepartmentRegistry.ER; planTimes[n++] = GenerateTime(20);
+        int lastDept = DepartmentRegistry.ER;
 
         //many high priority patients need surgery.
         if ((priority==1  && random.nextDouble()<0.4) ||
         (priority==2 && random.nextDouble()<0.1)){
-            treatments.offer(new Treatment("Surgery", GenerateTime(60)));
-            lastDept = "Surgery";
+            planDepts[n] = DepartmentRegistry.SURGERY; planTimes[n++] = GenerateTime(60);
+            lastDept = DepartmentRegistry.SURGERY;
 
         }
-        Treatment newTreatment;
+        int dept;
+        int time;
         for (int i=random.nextInt(5); i>=0; i--){    // up to 5 more treatments
             do { // ensure that department is not the same as the previous department.
                 double num = random.nextDouble();
 
-                if (num<0.05)     {newTreatment = new Treatment("MRI", GenerateTime(200));}
-                else if (num<0.1) {newTreatment = new Treatment("Surgery", GenerateTime(200));}
-                else if (num<0.35){newTreatment = new Treatment("X-Ray", GenerateTime(20));}
-                else if (num<0.6) {newTreatment = new Treatment("UltraSound", GenerateTime(20));}
-                else {newTreatment = new Treatment("ER", GenerateTime(10));}
-            } while (newTreatment.getDepartment()==lastDept);
-            treatments.offer(newTreatment);
-            lastDept = newTreatment.getDepartment();
+                if (num<0.05)     {dept = DepartmentRegistry.MRI; time = GenerateTime(200);}
+                else if (num<0.1) {dept = DepartmentRegistry.SURGERY; time = GenerateTime(200);}
+                else if (num<0.35){dept = DepartmentRegistry.XRAY; time = GenerateTime(20);}
+                else if (num<0.6) {dept = DepartmentRegistry.ULTRASOUND; time = GenerateTime(20);}
+                else {dept = DepartmentRegistry.ER; time = GenerateTime(10);}
+            } while (dept==lastDept);
+            planDepts[n] = dept; planTimes[n++] = time;
+            lastDept = dept;
         }
-        return treatments;
+        return n;
     }
 
     /**
      * Generate a random time a patient will require for a treatment
      */
-    public static int GenerateTime(int medianTime){
-        double logNorm = Math.exp(0.6*random.nextGaussian());
+    public int GenerateTime(int medianTime){
+        double logNorm = Math.exp(0.6*nextGaussian());
         return (int)(1 + Math.max(0, medianTime-1)*logNorm);
     }
 
     /**
-     * Create a random name for the Patient using the lists below
+     * Standard normal value from the random stream (Marsaglia polar method,
+     * which makes them in pairs)
+     */
+    private double nextGaussian(){
+        if (haveSpareGaussian) {
+            haveSpareGaussian = false;
+            return spareGaussian;
+        }
+        double u, v, s;
+        do {
+            u = 2*random.nextDouble() - 1;
+            v = 2*random.nextDouble() - 1;
+            s = u*u + v*v;
+        } while (s >= 1 || s == 0);
+        double scale = Math.sqrt(-2*Math.log(s)/s);
+        spareGaussian = v*scale;
+        haveSpareGaussian = true;
+        return u*scale;
+    }
+
+    /**
+     * Choose a random name for the Patient from one of the lists below
+     * Returns the index of the name in the list
      */
-    private static String GetRandomName(String[] names){
-        return names[random.nextInt(names.length)];
+    private int GetRandomNameIndex(String[] names){
+        return random.nextInt(names.length);
+    }
+
+    public static String getFirstName(int index){return firstNames[index];}
+    public static String getLastName(int index){return lastNames[index];}
+    public static int getFirstNameCount(){return firstNames.length;}
+    public static int getLastNameCount(){return lastNames.length;}
+
+    /**
+     * The initials for a pair of names, made once and then shared by every
+     * patient with those names. (Filled in lazily; two threads may both make
+     * the same string, which does no harm.)
+     */
+    public static String getInitials(int firstName, int lastName){
+        int key = firstName*lastNames.length + lastName;
+        String initials = initialsCache[key];
+        if (initials == null) {
+            initials = firstNames[firstName].substring(0,1) + lastNames[lastName].substring(0,1);
+            initialsCache[key] = initials;
+        }
+        return initials;
     }
 
     private static String[] firstNames =
@@ -165,5 +359,7 @@ public class PatientGenerator {
             "Whittle","Wilson","Wilson","Wood","Yao","Yu","Zareei",
             "de Saxe","de Sylva","van der Meer", "Woods","Yates","Zhang","van Zijl"
         };
+
+    private static final String[] initialsCache = new String[firstNames.length*lastNames.length];
 }
 
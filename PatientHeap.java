@@ -0,0 +1,226 @@
+import java.util.*;
+import java.io.*;
+import java.nio.ByteBuffer;
+
+/**
+ * A binary min-heap of Patients, ordered by a long key chosen by the owner,
+ * then by a second long, the tie-break (e.g. the order they were added in).
+ * Each patient remembers its own position in the heap (its heap handle), so a
+ * particular patient can be removed in O(log n) instead of being searched for.
+ *
+ * A patient has two handle slots, so it can be in at most two heaps at once,
+ * and in at most one heap per slot.
+ */
+public class PatientHeap implements Iterable<Patient> {
+    private final int slot;
+    private Patient[] patients = new Patient[16];
+    private long[] keys = new long[16];
+    private long[] ties = new long[16];
+    private int size = 0;
+
+    /**
+     * Creates an empty heap
+     * @param slot Which patient handle this heap uses (Patient.PRIMARY_HANDLE or SECONDARY_HANDLE)
+     */
+    public PatientHeap(int slot) {
+        this.slot = slot;
+    }
+
+    // ================== Core Operations ==================
+
+    /**
+     * Adds a patient with the given key (and no tie-break)
+     */
+    public void add(Patient p, long key) {
+        add(p, key, 0);
+    }
+
+    /**
+     * Adds a patient with the given key, after any already added with the same
+     * key and a smaller tie-break
+     */
+    public void add(Patient p, long key, long tie) {
+        if (p.getHeapHandle(slot) >= 0) {
+            throw new IllegalStateException("Patient already in a heap: " + p);
+        }
+        if (size == patients.length) {
+            patients = Arrays.copyOf(patients, size * 2);
+            keys = Arrays.copyOf(keys, size * 2);
+            ties = Arrays.copyOf(ties, size * 2);
+        }
+        place(p, key, tie, size);
+        size++;
+        siftUp(size - 1);
+    }
+
+    /**
+     * Removes and returns the patient with the smallest key (null if empty)
+     */
+    public Patient poll() {
+        if (size == 0) { return null; }
+        Patient top = patients[0];
+        removeAt(0);
+        return top;
+    }
+
+    /**
+     * Removes a particular patient
+     * return true if the patient was in this heap
+     */
+    public boolean remove(Patient p) {
+        if (!contains(p)) { return false; }
+        removeAt(p.getHeapHandle(slot));
+        return true;
+    }
+
+    public boolean contains(Patient p) {
+        int i = p.getHeapHandle(slot);
+        return i >= 0 && i < size && patients[i] == p;
+    }
+
+    /**
+     * Makes room for the given number of patients, so adding up to that many never allocates
+     */
+    public void ensureCapacity(int capacity) {
+        if (capacity > patients.length) {
+            patients = Arrays.copyOf(patients, capacity);
+            keys = Arrays.copyOf(keys, capacity);
+            ties = Arrays.copyOf(ties, capacity);
+        }
+    }
+
+    /**
+     * Removes every patient, clearing their handles
+     */
+    public void clear() {
+        for (int i = 0; i < size; i++) {
+            patients[i].setHeapHandle(slot, -1);
+            patients[i] = null;
+        }
+        size = 0;
+    }
+
+    // ================== Getters ==================
+
+    public Patient peek() { return size == 0 ? null : patients[0]; }
+    public long peekKey() { return keys[0]; }
+    public long peekTie() { return ties[0]; }
+    public long keyOf(Patient p) { return keys[p.getHeapHandle(slot)]; }
+    public int size() { return size; }
+    public boolean isEmpty() { return size == 0; }
+
+    /**
+     * Returns the patient at a position in the heap array (heap order, not sorted),
+     * allowing iteration without an Iterator
+     */
+    public Patient get(int index) { return patients[index]; }
+
+    /**
+     * Iterates in heap order (not sorted)
+     */
+    @Override
+    public Iterator<Patient> iterator() {
+        return new Iterator<Patient>() {
+            private int next = 0;
+            public boolean hasNext() { return next < size; }
+            public Patient next() {
+                if (next >= size) { throw new NoSuchElementException(); }
+                return patients[next++];
+            }
+        };
+    }
+
+    // ================== Checkpoints ==================
+
+    /**
+     * Writes the heap in array order, as (patient table index, key, tie-break) triples
+     * @param patientIndex Position of every patient in the checkpoint's patient table
+     */
+    void writeCheckpoint(DataOutput out, Map<Patient, Integer> patientIndex) throws IOException {
+        out.writeInt(size);
+        for (int i = 0; i < size; i++) {
+            out.writeInt(patientIndex.get(patients[i]));
+            out.writeLong(keys[i]);
+            out.writeLong(ties[i]);
+        }
+    }
+
+    /**
+     * Replaces the contents with a heap written by writeCheckpoint. The array
+     * order is kept as it was, so patients with equal keys leave in the same order
+     */
+    void readCheckpoint(ByteBuffer in, Patient[] table) {
+        clear();
+        int n = in.getInt();
+        ensureCapacity(n);
+        for (int i = 0; i < n; i++) {
+            Patient p = table[in.getInt()];
+            if (p.getHeapHandle(slot) >= 0) {
+                throw new IllegalStateException("Patient already in a heap: " + p);
+            }
+            long key = in.getLong();
+            place(p, key, in.getLong(), i);
+        }
+        size = n;
+    }
+
+    // ================== Heap Maintenance ==================
+
+    private void removeAt(int i) {
+        patients[i].setHeapHandle(slot, -1);
+        size--;
+        if (i != size) {
+            place(patients[size], keys[size], ties[size], i);
+            patients[size] = null;
+            if (!siftUp(i)) {
+                siftDown(i);
+            }
+        } else {
+            patients[size] = null;
+        }
+    }
+
+    private boolean siftUp(int i) {
+        int start = i;
+        Patient p = patients[i];
+        long key = keys[i];
+        long tie = ties[i];
+        while (i > 0) {
+            int parent = (i - 1) >>> 1;
+            if (!before(key, tie, keys[parent], ties[parent])) { break; }
+            place(patients[parent], keys[parent], ties[parent], i);
+            i = parent;
+        }
+        place(p, key, tie, i);
+        return i != start;
+    }
+
+    private void siftDown(int i) {
+        Patient p = patients[i];
+        long key = keys[i];
+        long tie = ties[i];
+        int half = size >>> 1;
+        while (i < half) {
+            int child = 2 * i + 1;
+            if (child + 1 < size && before(keys[child + 1], ties[child + 1], keys[child], ties[child])) { child++; }
+            if (!before(keys[child], ties[child], key, tie)) { break; }
+            place(patients[child], keys[child], ties[child], i);
+            i = child;
+        }
+        place(p, key, tie, i);
+    }
+
+    /**
+     * Whether (key, tie) comes strictly before (otherKey, otherTie)
+     */
+    private static boolean before(long key, long tie, long otherKey, long otherTie) {
+        return key < otherKey || (key == otherKey && tie < otherTie);
+    }
+
+    private void place(Patient p, long key, long tie, int i) {
+        patients[i] = p;
+        keys[i] = key;
+        ties[i] = tie;
+        p.setHeapHandle(slot, i);
+    }
+}
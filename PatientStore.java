@@ -0,0 +1,257 @@
+import java.util.*;
+
+/**
+ * A structure-of-arrays store of patients for very large runs.
+ *
+ * Instead of one Patient object per patient (with its own name strings,
+ * treatment queue and wait map), the hot fields of every patient live in
+ * primitive arrays, and a patient is referred to by an int handle:
+ * - priority, arrival and discharge time
+ * - total waiting and treatment time
+ * - the treatment plan, packed as (DepartmentRegistry id, duration) pairs,
+ *   and the index of the current treatment
+ * - first/last name indices into PatientGenerator's name lists
+ *
+ * Handles of released patients are reused.
+ *
+ * This is a standalone store: the SimulationEngine and its Departments still
+ * work on Patient objects, and only the store-filling generators
+ * (PatientGenerator.getNextPatient(int, PatientStore), BatchArrivals.nextBatch)
+ * write to it, e.g. for generating very many patients in benchmarks. Patient
+ * is not a view of a stored patient; toPatient makes a separate copy.
+ */
+public class PatientStore {
+    public static final int DEFAULT_MAX_TREATMENTS = 8;
+
+    private final int maxTreatments;  // plan slots per patient
+
+    // Hot fields, indexed by handle
+    private int[] priority;
+    private int[] arrivalTime;
+    private int[] dischargeTime;
+    private int[] totalWaitTime;
+    private int[] totalTreatmentTime;
+    private int[] firstName;
+    private int[] lastName;
+    private int[] planLength;
+    private int[] currentTreatment;
+
+    // Treatment plans: patient h owns plans[h*maxTreatments*2 ...], as (deptId, duration) pairs
+    private int[] plans;
+
+    // Handle management
+    private int capacity;
+    private int nextUnused = 0;
+    private int[] freeHandles;
+    private int numFree = 0;
+    private int size = 0;
+
+    /**
+     * Creates an empty store
+     * @param initialCapacity Number of patients to make room for
+     */
+    public PatientStore(int initialCapacity) {
+        this(initialCapacity, DEFAULT_MAX_TREATMENTS);
+    }
+
+    /**
+     * Creates an empty store
+     * @param initialCapacity Number of patients to make room for
+     * @param maxTreatments Longest treatment plan a patient may have
+     */
+    public PatientStore(int initialCapacity, int maxTreatments) {
+        this.maxTreatments = maxTreatments;
+        allocate(Math.max(16, initialCapacity));
+    }
+
+    // ================== Adding and Releasing ==================
+
+    /**
+     * Adds a patient
+     * @param time Arrival time
+     * @param priority Medical priority (1-3)
+     * @param firstName Index into the generator's first names
+     * @param lastName Index into the generator's last names
+     * @param plan Treatment plan as (department id, duration) pairs
+     * @param length Number of treatments in the plan
+     * return the new patient's handle
+     */
+    public int add(int time, int priority, int firstName, int lastName, int[] plan, int length) {
+        if (length > maxTreatments) {
+            throw new IllegalArgumentException("Treatment plan too long: " + length + " > " + maxTreatments);
+        }
+        int h = newHandle();
+        this.priority[h] = priority;
+        this.arrivalTime[h] = time;
+        this.dischargeTime[h] = 0;
+        this.totalWaitTime[h] = 0;
+        this.totalTreatmentTime[h] = 0;
+        this.firstName[h] = firstName;
+        this.lastName[h] = lastName;
+        this.planLength[h] = length;
+        this.currentTreatment[h] = 0;
+        System.arraycopy(plan, 0, plans, planBase(h), 2 * length);
+        return h;
+    }
+
+    /**
+     * Adds a batch of patients arriving at the same time, field by field, from
+     * arrays holding one entry per patient (as made by BatchArrivals)
+     * @param count Number of patients
+     * @param plans Treatment plans as (department id, duration) pairs, patient i's
+     *              starting at i*planStride
+     * @param handles Receives the new patients' handles
+     */
+    public void addBatch(int time, int count, int[] priority, int[] firstName, int[] lastName,
+                         int[] planLength, int[] plans, int planStride, int[] handles) {
+        for (int i = 0; i < count; i++) {
+            if (planLength[i] > maxTreatments) {
+                throw new IllegalArgumentException("Treatment plan too long: " + planLength[i] + " > " + maxTreatments);
+            }
+        }
+        while (nextUnused + count - numFree > capacity) {
+            allocate(capacity * 2);
+        }
+        for (int i = 0; i < count; i++) {
+            handles[i] = newHandle();
+        }
+        for (int i = 0; i < count; i++) {
+            int h = handles[i];
+            this.priority[h] = priority[i];
+            this.arrivalTime[h] = time;
+            this.dischargeTime[h] = 0;
+            this.totalWaitTime[h] = 0;
+            this.totalTreatmentTime[h] = 0;
+            this.firstName[h] = firstName[i];
+            this.lastName[h] = lastName[i];
+            this.planLength[h] = planLength[i];
+            this.currentTreatment[h] = 0;
+        }
+        for (int i = 0; i < count; i++) {
+            System.arraycopy(plans, i * planStride, this.plans, planBase(handles[i]), 2 * planLength[i]);
+        }
+    }
+
+    /**
+     * Releases a patient's handle (e.g. after discharge) so it can be reused
+     */
+    public void release(int h) {
+        if (numFree == freeHandles.length) {
+            freeHandles = Arrays.copyOf(freeHandles, numFree * 2);
+        }
+        freeHandles[numFree++] = h;
+        size--;
+    }
+
+    // ================== Progress ==================
+
+    public void addWait(int h, int ticks) { totalWaitTime[h] += ticks; }
+
+    /**
+     * Completes the current treatment, adding its duration to the treatment time
+     */
+    public void completeCurrentTreatment(int h) {
+        if (allTreatmentsCompleted(h)) {
+            throw new IllegalStateException("No treatments remaining: " + h);
+        }
+        totalTreatmentTime[h] += getCurrentDuration(h);
+        currentTreatment[h]++;
+    }
+
+    public boolean allTreatmentsCompleted(int h) { return currentTreatment[h] >= planLength[h]; }
+
+    /**
+     * Department id of the current treatment
+     */
+    public int getCurrentDepartment(int h) {
+        if (allTreatmentsCompleted(h)) {
+            throw new IllegalStateException("No current department - treatments completed: " + h);
+        }
+        return plans[planBase(h) + 2 * currentTreatment[h]];
+    }
+
+    /**
+     * Duration of the current treatment
+     */
+    public int getCurrentDuration(int h) {
+        return plans[planBase(h) + 2 * currentTreatment[h] + 1];
+    }
+
+    public void setDischargeTime(int h, int time) { dischargeTime[h] = time; }
+
+    // ================== Getters ==================
+
+    public int getPriority(int h) { return priority[h]; }
+    public int getArrivalTime(int h) { return arrivalTime[h]; }
+    public int getDischargeTime(int h) { return dischargeTime[h]; }
+    public int getSystemTime(int h) { return dischargeTime[h] - arrivalTime[h]; }
+    public int getTotalWaitingTime(int h) { return totalWaitTime[h]; }
+    public int getTotalTreatmentTime(int h) { return totalTreatmentTime[h]; }
+    public int getFirstName(int h) { return firstName[h]; }
+    public int getLastName(int h) { return lastName[h]; }
+    public int getTreatmentsRemaining(int h) { return planLength[h] - currentTreatment[h]; }
+    public int size() { return size; }
+
+    // ================== Copies ==================
+
+    /**
+     * Makes a new Patient with a stored patient's current state: its remaining
+     * treatments and its waiting/treatment times so far. It is a copy, not a
+     * view: changes to either the Patient or the store do not reach the other
+     */
+    public Patient toPatient(int h) {
+        Queue<Treatment> treatments = new ArrayDeque<>();
+        int base = planBase(h);
+        for (int i = currentTreatment[h]; i < planLength[h]; i++) {
+            treatments.offer(new Treatment(plans[base + 2*i], plans[base + 2*i + 1]));
+        }
+        Patient p = new Patient(h, arrivalTime[h], priority[h], firstName[h], lastName[h], treatments);
+        p.restoreProgress(totalWaitTime[h], totalTreatmentTime[h], dischargeTime[h]);
+        return p;
+    }
+
+    // ================== Storage ==================
+
+    private int planBase(int h) {
+        return h * maxTreatments * 2;
+    }
+
+    private int newHandle() {
+        size++;
+        if (numFree > 0) {
+            return freeHandles[--numFree];
+        }
+        if (nextUnused == capacity) {
+            allocate(capacity * 2);
+        }
+        return nextUnused++;
+    }
+
+    private void allocate(int newCapacity) {
+        if (priority == null) {
+            priority = new int[newCapacity];
+            arrivalTime = new int[newCapacity];
+            dischargeTime = new int[newCapacity];
+            totalWaitTime = new int[newCapacity];
+            totalTreatmentTime = new int[newCapacity];
+            firstName = new int[newCapacity];
+            lastName = new int[newCapacity];
+            planLength = new int[newCapacity];
+            currentTreatment = new int[newCapacity];
+            plans = new int[newCapacity * maxTreatments * 2];
+            freeHandles = new int[16];
+        } else {
+            priority = Arrays.copyOf(priority, newCapacity);
+            arrivalTime = Arrays.copyOf(arrivalTime, newCapacity);
+            dischargeTime = Arrays.copyOf(dischargeTime, newCapacity);
+            totalWaitTime = Arrays.copyOf(totalWaitTime, newCapacity);
+            totalTreatmentTime = Arrays.copyOf(totalTreatmentTime, newCapacity);
+            firstName = Arrays.copyOf(firstName, newCapacity);
+            lastName = Arrays.copyOf(lastName, newCapacity);
+            planLength = Arrays.copyOf(planLength, newCapacity);
+            currentTreatment = Arrays.copyOf(currentTreatment, newCapacity);
+            plans = Arrays.copyOf(plans, newCapacity * maxTreatments * 2);
+        }
+        capacity = newCapacity;
+    }
+}
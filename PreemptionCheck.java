@@ -0,0 +1,197 @@
+import java.util.*;
+
+/**
+ * Checks that preemption does not change what the departments count. The
+ * same patients are run until every one has been discharged, with preemption
+ * off and then on, and each department must have served exactly one patient,
+ * and recorded one waiting stint, per treatment done in it: a preempted
+ * patient who is admitted again is not counted again. Exits with status 1 if
+ * any count is wrong, or if nobody was preempted (so nothing was checked).
+ *
+ * Two small departments are also run by hand, where a patient is preempted,
+ * resumes, and is due to be preempted again: the second victim must be the
+ * patient with the least treatment done (not the one resumed last), and a
+ * patient preempted twice must have their whole stay recorded as their time
+ * in the department.
+ *
+ * Arguments: [arrival ticks] [seed]
+ */
+public class PreemptionCheck {
+    private static final int MAX_TICKS = 50_000_000;
+
+    /**
+     * The patients arriving before a given tick, counting the treatments each
+     * department will have to give them
+     */
+    private static final class CountingArrivals implements ArrivalSource {
+        private final ArrivalSource source;
+        private final int endTime;
+        private long[] treatments = new long[DepartmentRegistry.size()];  // indexed by department id
+
+        CountingArrivals(ArrivalSource source, int endTime) {
+            this.source = source;
+            this.endTime = endTime;
+        }
+
+        @Override
+        public Patient next() {
+            Patient p = source.next();
+            if (p == null || p.getArrivalTime() >= endTime) { return null; }
+            for (int id : p.getRemainingDepartmentIds()) {
+                if (id >= treatments.length) { treatments = Arrays.copyOf(treatments, DepartmentRegistry.size()); }
+                treatments[id]++;
+            }
+            return p;
+        }
+
+        long getTreatments(int departmentId) {
+            return departmentId < treatments.length ? treatments[departmentId] : 0;
+        }
+    }
+
+    /**
+     * Runs the standard hospital until everyone who arrived has left
+     * return whether every department's counts matched its treatments
+     */
+    private static boolean check(boolean preemptive, int arrivalTicks, long seed) {
+        CountingArrivals arrivals = new CountingArrivals(
+            new GeneratorArrivals(new PatientGenerator(new SplitMix64(seed))), arrivalTicks);
+        SimulationEngine engine = new SimulationEngine(true, arrivals, SimulationEngine.STANDARD_CAPACITIES);
+        engine.setEventDriven(true);
+        engine.setPreemptive(preemptive);
+        engine.runUntil(arrivalTicks);
+        while (!isEmpty(engine) && engine.getTime() < MAX_TICKS) {
+            engine.step(10_000);
+        }
+
+        boolean ok = isEmpty(engine);
+        if (!ok) { System.out.println("  hospital not empty after " + MAX_TICKS + " ticks"); }
+        long preemptions = 0;
+        for (Department dept : engine.getDepartments()) {
+            long expected = arrivals.getTreatments(dept.getId());
+            long served = dept.getTotalPatientsServed();
+            long stints = dept.getWaitHistogram().getCount();
+            preemptions += dept.getTotalPreemptions();
+            boolean match = served == expected && stints == expected;
+            System.out.printf("  %-10s treatments %,8d | served %,8d | wait stints %,8d | preempted %,6d%s%n",
+                              dept.getName(), expected, served, stints, dept.getTotalPreemptions(),
+                              match ? "" : "  WRONG");
+            ok &= match;
+        }
+        if (preemptive && preemptions == 0) {
+            System.out.println("  nobody was preempted");
+            ok = false;
+        }
+        return ok;
+    }
+
+    /**
+     * A patient for one treatment in the given department, arriving at a tick
+     */
+    private static final class Visit {
+        final int arrival;
+        final Patient patient;
+
+        Visit(String name, int arrival, int priority, String department, int treatmentTime) {
+            this.arrival = arrival;
+            Queue<Treatment> plan = new ArrayDeque<>();
+            plan.add(new Treatment(department, treatmentTime));
+            this.patient = new Patient(arrival, priority, name, "Test", plan);
+        }
+    }
+
+    /**
+     * Runs one preemptive FIFO department by hand for the given number of ticks
+     * (each tick: arrivals join the queue, patients are admitted, the clocks
+     * move on, finished patients leave)
+     * return the patients preempted, in order
+     */
+    private static List<Patient> runDepartment(Department dept, int ticks, Visit... visits) {
+        dept.setPreemptive(true);
+        List<Patient> preempted = new ArrayList<>();
+        List<Patient> finished = new ArrayList<>();
+        for (int t = 0; t < ticks; t++) {
+            for (Visit v : visits) {
+                if (v.arrival == t) { dept.enqueue(v.patient); }
+            }
+            dept.admitWhileSpace(preempted);
+            dept.tickTreatment();
+            dept.tickWaiting();
+            dept.collectFinished(finished);
+            for (Patient p : finished) { p.removeCurrentTreatment(); }
+            finished.clear();
+        }
+        return preempted;
+    }
+
+    /**
+     * A is preempted after 190 of 300 ticks and resumes after B has started,
+     * so when the next priority 1 patient comes B has done less than A
+     */
+    private static boolean checkSecondVictim() {
+        Department dept = new Department("Preempt A", 3, SchedulingPolicies.fifo());
+        Visit a = new Visit("A", 0, 3, "Preempt A", 300);
+        Visit f = new Visit("F", 0, 2, "Preempt A", 1000);
+        Visit g = new Visit("G", 0, 2, "Preempt A", 195);
+        Visit b = new Visit("B", 185, 3, "Preempt A", 300);
+        Visit x1 = new Visit("X1", 190, 1, "Preempt A", 20);
+        Visit x2 = new Visit("X2", 215, 1, "Preempt A", 10);
+        List<Patient> preempted = runDepartment(dept, 220, a, f, g, b, x1, x2);
+        List<Patient> expected = Arrays.asList(a.patient, b.patient);
+        boolean ok = preempted.equals(expected);
+        System.out.println("  second victim: preempted " + names(preempted) + (ok ? "" : ", expected " + names(expected)));
+        return ok;
+    }
+
+    /**
+     * A is preempted twice, after 100 and 180 ticks of treatment, each time
+     * for 10 ticks, so their 300 ticks of treatment take 320 in the department
+     */
+    private static boolean checkTwicePreempted() {
+        Department dept = new Department("Preempt B", 2, SchedulingPolicies.fifo());
+        Visit a = new Visit("A", 0, 3, "Preempt B", 300);
+        Visit f = new Visit("F", 0, 2, "Preempt B", 1000);
+        Visit x1 = new Visit("X1", 100, 1, "Preempt B", 10);
+        Visit x2 = new Visit("X2", 200, 1, "Preempt B", 10);
+        List<Patient> preempted = runDepartment(dept, 400, a, f, x1, x2);
+        WaitHistogram stays = dept.getTimeInDepartmentHistogram();
+        boolean ok = preempted.equals(Arrays.asList(a.patient, a.patient))
+                     && dept.getTotalPatientsServed() == 4 && stays.getCount() == 3 && stays.getMax() == 320;
+        System.out.printf("  twice preempted: preempted %s | served %d | stays recorded %d | longest %d%s%n",
+                          names(preempted), dept.getTotalPatientsServed(), stays.getCount(), stays.getMax(),
+                          ok ? "" : "  WRONG (expected A, A | 4 | 3 | 320)");
+        return ok;
+    }
+
+    private static String names(List<Patient> patients) {
+        StringJoiner sj = new StringJoiner(", ");
+        for (Patient p : patients) { sj.add(p.getName().split(" ")[0]); }
+        return sj.toString();
+    }
+
+    private static boolean isEmpty(SimulationEngine engine) {
+        for (Department dept : engine.getDepartments()) {
+            if (dept.getWaitingCount() > 0 || dept.getTreatmentCount() > 0) { return false; }
+        }
+        return true;
+    }
+
+    public static void main(String[] args) {
+        int arrivalTicks = args.length > 0 ? Integer.parseInt(args[0]) : 20_000;
+        long seed = args.length > 1 ? Long.parseLong(args[1]) : 1;
+
+        boolean ok = true;
+        for (boolean preemptive : new boolean[]{false, true}) {
+            System.out.println("Preemption " + (preemptive ? "on" : "off") + ":");
+            ok &= check(preemptive, arrivalTicks, seed);
+        }
+        System.out.println("Repeated preemption:");
+        ok &= checkSecondVictim();
+        ok &= checkTwicePreempted();
+        if (!ok) {
+            System.out.println("FAILED: departments miscount or mistime preempted patients");
+            System.exit(1);
+        }
+        System.out.println("OK: each treatment counted once, with and without preemption, and timed across preemptions");
+    }
+}
@@ -0,0 +1,133 @@
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.function.*;
+
+/**
+ * Runs independent replications of a simulation in parallel and merges their
+ * statistics into means, standard deviations and confidence intervals.
+ *
+ * Every replication gets its own PatientGenerator with its own SplitMix64
+ * stream. The streams are split from a master seed, in replication order,
+ * before anything runs, and results are merged in replication order, so the
+ * summary is the same whatever the number of threads.
+ */
+public class ReplicationRunner {
+    private final Function<PatientGenerator, SimulationEngine> scenario;
+    private int threads = Runtime.getRuntime().availableProcessors();
+
+    /**
+     * Creates a runner
+     * @param scenario Builds the engine for one replication, given its generator
+     *                 (the scenario may also change the generator's parameters)
+     */
+    public ReplicationRunner(Function<PatientGenerator, SimulationEngine> scenario) {
+        this.scenario = scenario;
+    }
+
+    public void setThreads(int threads) {
+        this.threads = Math.max(1, threads);
+    }
+
+    /**
+     * Runs the replications and merges their results
+     * @param replications Number of independent replications
+     * @param ticks Length of each replication
+     * @param masterSeed Seed from which every replication's random stream is split
+     */
+    public ReplicationSummary run(int replications, int ticks, long masterSeed) {
+        SplitMix64 master = new SplitMix64(masterSeed);
+        List<Callable<SimulationEngine>> tasks = new ArrayList<>();
+        for (int i = 0; i < replications; i++) {
+            SplitMix64 stream = master.split();
+            tasks.add(() -> {
+                SimulationEngine engine = scenario.apply(new PatientGenerator(stream));
+                engine.runUntil(ticks);
+                return engine;
+            });
+        }
+
+        ForkJoinPool pool = new ForkJoinPool(threads);
+        try {
+            ReplicationSummary summary = new ReplicationSummary();
+            for (Future<SimulationEngine> result : pool.invokeAll(tasks)) {
+                SimulationEngine engine = result.get();
+                summary.add(metrics(engine));
+                summary.merge(histograms(engine));
+            }
+            return summary;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Replications interrupted", e);
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("Replication failed", e.getCause());
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    /**
+     * The metrics of one finished replication, as printed by reportStatistics()
+     */
+    public static Map<String, Double> metrics(SimulationEngine engine) {
+        SimulationStats stats = engine.getStatistics();
+        Map<String, Double> m = new LinkedHashMap<>();
+        m.put("Total patients treated", (double) stats.getNumDischarged());
+        m.put("Max waiting time", (double) stats.getMaxWait());
+        m.put("Average waiting time", stats.getAverageWait());
+        m.put("Priority 1 patients treated", (double) stats.getNumDischargedPri1());
+        m.put("Average waiting time (Priority 1)", stats.getAverageWaitPri1());
+        m.put("Max waiting time (Priority 1)", (double) stats.getMaxWaitPri1());
+        m.put("Priority 1 patients at risk", (double) stats.getPri1AtRiskCount());
+        m.put("Priority 1 patients treated within " + SimulationEngine.PRI1_TIMEOUT + " ticks",
+              (double) stats.getPri1TreatedQuickly());
+        for (int priority = 1; priority <= 3; priority++) {
+            WaitHistogram waits = stats.getWaitHistogram(priority);
+            m.put("p50 waiting time (Priority " + priority + ")", (double) waits.getValueAtPercentile(50));
+            m.put("p90 waiting time (Priority " + priority + ")", (double) waits.getValueAtPercentile(90));
+            m.put("p99 waiting time (Priority " + priority + ")", (double) waits.getValueAtPercentile(99));
+        }
+        for (Department dept : engine.getDepartments()) {
+            long served = dept.getTotalPatientsServed();
+            double avgWait = served == 0 ? 0.0 : (double) dept.getTotalWaitingTime() / served;
+            m.put(dept.getName() + " patients served", (double) served);
+            m.put(dept.getName() + " avg wait", avgWait);
+            m.put(dept.getName() + " max queue", (double) dept.getMaxQueueLength());
+        }
+        return m;
+    }
+
+    /**
+     * The histograms of one finished replication, to be pooled across replications
+     */
+    public static Map<String, WaitHistogram> histograms(SimulationEngine engine) {
+        SimulationStats stats = engine.getStatistics();
+        Map<String, WaitHistogram> h = new LinkedHashMap<>();
+        for (int priority = 1; priority <= 3; priority++) {
+            h.put("Waiting time (Priority " + priority + ")", stats.getWaitHistogram(priority));
+            h.put("System time (Priority " + priority + ")", stats.getSystemTimeHistogram(priority));
+        }
+        for (Department dept : engine.getDepartments()) {
+            h.put(dept.getName() + " wait", dept.getWaitHistogram());
+            h.put(dept.getName() + " time in department", dept.getTimeInDepartmentHistogram());
+        }
+        return h;
+    }
+
+    /**
+     * Runs replications of the standard hospital from the command line
+     * Arguments: [replications] [ticks] [masterSeed] [threads]
+     */
+    public static void main(String[] args) {
+        int replications = args.length > 0 ? Integer.parseInt(args[0]) : 20;
+        int ticks = args.length > 1 ? Integer.parseInt(args[1]) : 20_000;
+        long seed = args.length > 2 ? Long.parseLong(args[2]) : 1;
+
+        ReplicationRunner runner = new ReplicationRunner(generator -> {
+            SimulationEngine engine = new SimulationEngine(true, generator);
+            engine.setEventDriven(true);
+            return engine;
+        });
+        if (args.length > 3) { runner.setThreads(Integer.parseInt(args[3])); }
+        System.out.println(runner.run(replications, ticks, seed).report());
+    }
+}
@@ -0,0 +1,73 @@
+import java.util.*;
+
+/**
+ * Results of several replications of a simulation, merged metric by metric
+ * into MetricSummary objects (mean, standard deviation, confidence interval).
+ * Time histograms are pooled over all replications, for percentiles of the
+ * combined sample. Metrics and histograms keep the order in which they were first added.
+ */
+public class ReplicationSummary {
+    private final Map<String, MetricSummary> metrics = new LinkedHashMap<>();
+    private final Map<String, WaitHistogram> pooled = new LinkedHashMap<>();
+
+    /**
+     * Adds the metrics of one replication
+     */
+    public void add(Map<String, Double> replication) {
+        for (Map.Entry<String, Double> e : replication.entrySet()) {
+            metrics.computeIfAbsent(e.getKey(), MetricSummary::new).add(e.getValue());
+        }
+    }
+
+    /**
+     * Pools the histograms of one replication into the combined histograms
+     */
+    public void merge(Map<String, WaitHistogram> replication) {
+        for (Map.Entry<String, WaitHistogram> e : replication.entrySet()) {
+            pooled.computeIfAbsent(e.getKey(), k -> new WaitHistogram()).merge(e.getValue());
+        }
+    }
+
+    /**
+     * Returns the pooled histogram of one time (null if it was never merged)
+     */
+    public WaitHistogram getHistogram(String name) {
+        return pooled.get(name);
+    }
+
+    /**
+     * Returns the summary of one metric (null if it was never recorded)
+     */
+    public MetricSummary get(String name) {
+        return metrics.get(name);
+    }
+
+    public Collection<MetricSummary> getMetrics() {
+        return Collections.unmodifiableCollection(metrics.values());
+    }
+
+    /**
+     * Number of replications merged
+     */
+    public int getReplications() {
+        return metrics.isEmpty() ? 0 : metrics.values().iterator().next().getCount();
+    }
+
+    /**
+     * Builds a report with one line per metric: mean +/- 95% half-width
+     */
+    public String report() {
+        StringBuilder sb = new StringBuilder();
+        sb.append("----- ").append(getReplications()).append(" Replications (mean +/- 95% CI) -----");
+        for (MetricSummary m : metrics.values()) {
+            sb.append('\n').append(m);
+        }
+        if (!pooled.isEmpty()) {
+            sb.append("\n\n----- Pooled Percentiles -----");
+            for (Map.Entry<String, WaitHistogram> e : pooled.entrySet()) {
+                sb.append('\n').append(e.getKey()).append(": ").append(e.getValue());
+            }
+        }
+        return sb.toString();
+    }
+}
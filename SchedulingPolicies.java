@@ -0,0 +1,271 @@
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.util.*;
+
+/**
+ * The standard scheduling policies for a department's waiting queue:
+ * - FIFO: patients are admitted in the order they joined the queue
+ * - strict priority: priority 1 before 2 before 3, earliest arrival first
+ *   within a priority
+ * - aging: a patient's effective priority rises with the time they have
+ *   waited in the queue, one level per given number of ticks, so low priority
+ *   patients cannot wait for ever
+ * - shortest expected treatment first (SETF): the patient whose treatment
+ *   here is shortest, whatever their priority
+ * - weighted fair queuing (WFQ): treatment time is shared between the
+ *   priorities in proportion to their weights, while each has patients waiting
+ *
+ * Whatever the policy, a department admits waiting priority 1 patients first
+ * unless that is turned off (Department.setPriority1First), and escalates
+ * overdue priority 1 patients.
+ */
+public final class SchedulingPolicies {
+    public static final int DEFAULT_AGING_TICKS = SimulationEngine.PRI1_TIMEOUT;
+    private static final int[] DEFAULT_WEIGHTS = {6, 3, 1};
+
+    private static final String FIFO = "FIFO";
+    private static final String PRIORITY = "Priority";
+    private static final String AGING = "Aging";
+    private static final String SETF = "SETF";
+    private static final String WFQ = "WFQ";
+
+    private SchedulingPolicies() {}
+
+    public static SchedulingPolicy fifo() { return Fifo.INSTANCE; }
+    public static SchedulingPolicy strictPriority() { return StrictPriority.INSTANCE; }
+    public static SchedulingPolicy shortestTreatmentFirst() { return ShortestTreatmentFirst.INSTANCE; }
+
+    /**
+     * Priority with aging
+     * @param ticksPerLevel Ticks of waiting that count as much as one level of priority
+     */
+    public static SchedulingPolicy aging(int ticksPerLevel) {
+        return new Aging(ticksPerLevel);
+    }
+
+    /**
+     * Weighted fair queuing across the priorities
+     * @param weights Share of treatment time of priority 1, 2 and 3 (positive)
+     */
+    public static SchedulingPolicy weightedFair(int... weights) {
+        return new WeightedFair(weights);
+    }
+
+    /**
+     * Looks up a policy by name, as given on the command line:
+     * fifo, pri, aging[:ticks per level], setf or wfq[:w1,w2,w3]
+     */
+    public static SchedulingPolicy forName(String spec) {
+        String[] parts = spec.split(":", 2);
+        switch (parts[0].toLowerCase()) {
+            case "fifo":  return fifo();
+            case "pri":
+            case "priority": return strictPriority();
+            case "aging": return aging(parts.length > 1 ? Integer.parseInt(parts[1]) : DEFAULT_AGING_TICKS);
+            case "setf":  return shortestTreatmentFirst();
+            case "wfq":
+                if (parts.length == 1) { return weightedFair(DEFAULT_WEIGHTS); }
+                return weightedFair(Arrays.stream(parts[1].split(",")).mapToInt(Integer::parseInt).toArray());
+            default:
+                throw new IllegalArgumentException("Unknown scheduling policy: " + spec);
+        }
+    }
+
+    /**
+     * Reads a policy written by SchedulingPolicy.writeCheckpoint
+     */
+    static SchedulingPolicy readCheckpoint(ByteBuffer in) {
+        String kind = Checkpoint.readString(in);
+        switch (kind) {
+            case FIFO:     return fifo();
+            case PRIORITY: return strictPriority();
+            case SETF:     return shortestTreatmentFirst();
+            case AGING:    return aging(in.getInt());
+            case WFQ:
+                WeightedFair wfq = new WeightedFair(new int[]{in.getInt(), in.getInt(), in.getInt()});
+                wfq.virtualTime = in.getLong();
+                for (int i = 0; i < wfq.lastTag.length; i++) { wfq.lastTag[i] = in.getLong(); }
+                return wfq;
+            default:
+                throw new IllegalStateException("Unknown scheduling policy in checkpoint: " + kind);
+        }
+    }
+
+    /**
+     * Compares the standard policies on waiting times, each with the same
+     * replications of the standard hospital (common random numbers)
+     * Arguments: [replications] [ticks] [seed] [arrival interval] [priority 1 first: true|false]
+     *            [preemptive: true|false]
+     */
+    public static void main(String[] args) {
+        int replications = args.length > 0 ? Integer.parseInt(args[0]) : 20;
+        int ticks = args.length > 1 ? Integer.parseInt(args[1]) : 20_000;
+        long seed = args.length > 2 ? Long.parseLong(args[2]) : 1;
+        int interval = args.length > 3 ? Integer.parseInt(args[3]) : 5;
+        boolean priority1First = args.length <= 4 || Boolean.parseBoolean(args[4]);
+        boolean preemptive = args.length > 5 && Boolean.parseBoolean(args[5]);
+
+        SchedulingPolicy[] policies = {fifo(), strictPriority(), aging(DEFAULT_AGING_TICKS),
+                                       shortestTreatmentFirst(), weightedFair(DEFAULT_WEIGHTS)};
+        System.out.printf("%-12s %22s %22s %9s %9s %9s %9s %9s%n", "Policy", "Mean wait", "Mean wait P1",
+                          "p90 P1", "Mean P2", "p90 P2", "Mean P3", "p90 P3");
+        for (SchedulingPolicy policy : policies) {
+            ReplicationRunner runner = new ReplicationRunner(generator -> {
+                generator.setArrivalInterval(interval);
+                SimulationEngine engine = new SimulationEngine(true, generator);
+                engine.setEventDriven(true);
+                engine.setSchedulingPolicy(policy);
+                engine.setPreemptive(preemptive);
+                for (Department dept : engine.getDepartments()) { dept.setPriority1First(priority1First); }
+                return engine;
+            });
+            ReplicationSummary summary = runner.run(replications, ticks, seed);
+            MetricSummary wait = summary.get("Average waiting time");
+            MetricSummary wait1 = summary.get("Average waiting time (Priority 1)");
+            System.out.printf("%-12s %10.1f +/- %-7.1f %10.1f +/- %-7.1f", policy.getName(),
+                              wait.getMean(), wait.getHalfWidth(), wait1.getMean(), wait1.getHalfWidth());
+            for (int priority = 1; priority <= 3; priority++) {
+                WaitHistogram waits = summary.getHistogram("Waiting time (Priority " + priority + ")");
+                if (priority > 1) { System.out.printf(" %9.1f", waits.getMean()); }
+                System.out.printf(" %9d", waits.getValueAtPercentile(90));
+            }
+            System.out.println();
+        }
+    }
+
+    // ================== Policies ==================
+
+    private static final class Fifo implements SchedulingPolicy {
+        static final Fifo INSTANCE = new Fifo();
+
+        @Override public String getName() { return FIFO; }
+        @Override public long key(Patient p, long sequence) { return sequence; }
+        @Override public boolean isStrictPriority() { return false; }
+
+        @Override
+        public void writeCheckpoint(DataOutput out) throws IOException {
+            Checkpoint.writeString(out, FIFO);
+        }
+    }
+
+    private static final class StrictPriority implements SchedulingPolicy {
+        static final StrictPriority INSTANCE = new StrictPriority();
+
+        @Override public String getName() { return PRIORITY; }
+        @Override public long key(Patient p, long sequence) { return p.getArrivalTime(); }
+        @Override public boolean isStrictPriority() { return true; }
+
+        @Override
+        public void writeCheckpoint(DataOutput out) throws IOException {
+            Checkpoint.writeString(out, PRIORITY);
+        }
+    }
+
+    /**
+     * A patient's effective priority after waiting w ticks is
+     * priority - w / ticksPerLevel. Patients of a priority all age at the same
+     * rate, so it is the same order as (priority - 1) * ticksPerLevel plus the
+     * wait clock when they joined, which does not change while they wait
+     */
+    private static final class Aging implements SchedulingPolicy {
+        final int ticksPerLevel;
+
+        Aging(int ticksPerLevel) {
+            if (ticksPerLevel < 1) {
+                throw new IllegalArgumentException("Ticks per priority level must be at least 1: " + ticksPerLevel);
+            }
+            this.ticksPerLevel = ticksPerLevel;
+        }
+
+        @Override public String getName() { return AGING + "(" + ticksPerLevel + ")"; }
+        @Override public boolean isStrictPriority() { return false; }
+
+        @Override
+        public long key(Patient p, long sequence) {
+            return p.getWaitStartClock() + (long) (p.getPriority() - 1) * ticksPerLevel;
+        }
+
+        @Override
+        public void writeCheckpoint(DataOutput out) throws IOException {
+            Checkpoint.writeString(out, AGING);
+            out.writeInt(ticksPerLevel);
+        }
+    }
+
+    private static final class ShortestTreatmentFirst implements SchedulingPolicy {
+        static final ShortestTreatmentFirst INSTANCE = new ShortestTreatmentFirst();
+
+        @Override public String getName() { return SETF; }
+        @Override public boolean isStrictPriority() { return false; }
+
+        @Override
+        public long key(Patient p, long sequence) {
+            return p.getCurrentTreatmentRemaining();
+        }
+
+        @Override
+        public void writeCheckpoint(DataOutput out) throws IOException {
+            Checkpoint.writeString(out, SETF);
+        }
+    }
+
+    /**
+     * Self-clocked fair queuing: each patient is tagged with the virtual time
+     * at which their treatment would finish if each priority were treated at
+     * the rate of its weight, counting from the later of the tag of the patient
+     * last admitted and the previous tag of the same priority. The smallest tag
+     * is admitted next
+     */
+    private static final class WeightedFair implements SchedulingPolicy {
+        private static final long SCALE = 720_720;  // divisible by every weight up to 16
+
+        final int[] weights;
+        final long[] costPerTick = new long[WaitingQueue.NUM_PRIORITIES];
+        final long[] lastTag = new long[WaitingQueue.NUM_PRIORITIES];
+        long virtualTime = 0;
+
+        WeightedFair(int[] weights) {
+            if (weights.length != WaitingQueue.NUM_PRIORITIES) {
+                throw new IllegalArgumentException("Need a weight for each of " + WaitingQueue.NUM_PRIORITIES +
+                                                   " priorities, got " + weights.length);
+            }
+            for (int i = 0; i < weights.length; i++) {
+                if (weights[i] < 1) {
+                    throw new IllegalArgumentException("Weights must be positive: " + Arrays.toString(weights));
+                }
+                costPerTick[i] = SCALE / weights[i];
+            }
+            this.weights = weights.clone();
+        }
+
+        @Override public boolean isStrictPriority() { return false; }
+        @Override public SchedulingPolicy copy() { return new WeightedFair(weights); }
+
+        @Override
+        public String getName() {
+            return WFQ + "(" + weights[0] + "," + weights[1] + "," + weights[2] + ")";
+        }
+
+        @Override
+        public long key(Patient p, long sequence) {
+            int level = Math.min(Math.max(p.getPriority(), 1), WaitingQueue.NUM_PRIORITIES) - 1;
+            long tag = Math.max(virtualTime, lastTag[level]) +
+                       Math.max(1, p.getCurrentTreatmentRemaining()) * costPerTick[level];
+            lastTag[level] = tag;
+            return tag;
+        }
+
+        @Override
+        public void removed(long key) {
+            virtualTime = Math.max(virtualTime, key);
+        }
+
+        @Override
+        public void writeCheckpoint(DataOutput out) throws IOException {
+            Checkpoint.writeString(out, WFQ);
+            for (int w : weights) { out.writeInt(w); }
+            out.writeLong(virtualTime);
+            for (long tag : lastTag) { out.writeLong(tag); }
+        }
+    }
+}
@@ -0,0 +1,50 @@
+import java.io.*;
+
+/**
+ * Decides the order in which a department's waiting patients are admitted
+ * (see SchedulingPolicies for the standard policies, selected per department
+ * with Department.setSchedulingPolicy).
+ *
+ * The waiting queue keeps one PatientHeap per priority, ordered by the key the
+ * policy gives each patient when they join. The next patient admitted is
+ * either the head of the highest non-empty priority (strict priority) or the
+ * head with the smallest key of any priority, so every policy admits and
+ * removes patients in O(log n).
+ */
+public interface SchedulingPolicy {
+
+    /**
+     * Name of the policy, with its parameters (e.g. "Aging(100)")
+     */
+    String getName();
+
+    /**
+     * The key of a patient joining the queue: patients with smaller keys are
+     * admitted first, and patients with equal keys in the order they joined.
+     * Called after the patient has started waiting
+     * @param sequence Order in which patients joined this queue (never wraps)
+     */
+    long key(Patient p, long sequence);
+
+    /**
+     * Whether a higher priority is always admitted first, so keys only order
+     * patients of the same priority
+     */
+    boolean isStrictPriority();
+
+    /**
+     * Told the key of each patient leaving the queue (by default, nothing is done)
+     */
+    default void removed(long key) { }
+
+    /**
+     * A policy for another queue: itself if it keeps no state, otherwise a new
+     * copy with the same parameters and no patients seen yet
+     */
+    default SchedulingPolicy copy() { return this; }
+
+    /**
+     * Writes the policy's name, parameters and state (see SchedulingPolicies.readCheckpoint)
+     */
+    void writeCheckpoint(DataOutput out) throws IOException;
+}
@@ -0,0 +1,767 @@
+import java.util.*;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Paths;
+import java.util.function.BooleanSupplier;
+import jdk.jfr.EventType;
+
+/**
+ * GUI-free simulation of a Hospital ER
+ *
+ * Owns the departments, the simulation clock and the statistics, and advances
+ * the simulation tick by tick as fast as the CPU allows: it never sleeps, draws
+ * or prints. Events are reported to a SimulationListener instead, so the same
+ * engine can drive the GUI (HospitalERCompl) or run long batch jobs.
+ *
+ * In event-driven mode the engine only runs the ticks where something can
+ * happen (an arrival, a treatment completion or a priority 1 timeout) and
+ * jumps over the idle ticks in between, giving exactly the same results as
+ * the tick loop for the same random seed.
+ */
+public class SimulationEngine {
+    public static final int CRITICAL_WAIT_THRESHOLD = 500;
+    public static final int PRI1_TIMEOUT = 100;
+
+    // The standard hospital: department names and treatment room sizes
+    public static final String[] STANDARD_DEPARTMENTS = {"ER", "X-Ray", "MRI", "UltraSound", "Surgery"};
+    public static final int[] STANDARD_CAPACITIES = {8, 3, 1, 2, 3};
+
+    private final List<Department> departments = new ArrayList<>();  // in display order
+    private Department[] departmentArray = new Department[0];        // the same, for the tick loop (no iterators)
+    private Department[] departmentsById = new Department[DepartmentRegistry.size()];
+    private final SimulationStats stats = new SimulationStats();
+    private final ArrivalSource arrivals;
+    private SimulationListener listener = SimulationListener.NONE;
+    private int time = 0;
+    private final List<Patient> finished = new ArrayList<>();  // patients collected this tick, reused every tick
+    private final List<Patient> preempted = new ArrayList<>(); // patients preempted this tick, reused every tick
+
+    // Next-event time advance. Completions and timeouts are kept by the departments;
+    // the only other ticks that must be run are those just after an arrival, which can
+    // only be the next tick, so the calendar is a single tick (-1 when there is none)
+    private boolean eventDriven = false;
+    private int pendingTick = -1;
+    private Patient nextArrival = null;  // next patient from the arrival source, drawn ahead of time
+    private boolean arrivalsExhausted = false;
+
+    // Snapshots for a renderer on another thread: the renderer asks for one, and
+    // the simulation thread makes it at the end of the next tick and publishes it
+    private static final int SNAPSHOT_GLYPHS = 20;
+    private static final int HISTORY_POINTS = 200;  // most points of recorded history in a snapshot
+    private volatile boolean snapshotRequested = false;
+    private volatile SimulationSnapshot latestSnapshot = null;
+
+    // History of the queues and treatment rooms (null: not recorded)
+    private TimeSeriesRecorder recorder = null;
+
+    // Waits for steady-state estimates, while running until precise (null otherwise)
+    private SteadyStateEstimator steadyState = null;
+    private static final int PRECISION_CHECK_TICKS = 1_000;  // least run between checks
+    private static final int CANCEL_CHECK_TICKS = 10_000;    // most run between checks of keepRunning
+
+    // JFR instrumentation: checked once per tick, so it costs next to nothing while no recording wants it
+    private static final EventType TICK_EVENT = EventType.getEventType(TickEvent.class);
+    private static final EventType ESCALATION_EVENT = EventType.getEventType(EscalationEvent.class);
+
+    // Transfers to and from other hospitals (see HospitalNetwork)
+    private TransferHandler transfers = null;
+    private final PriorityQueue<IncomingTransfer> incoming = new PriorityQueue<>();
+    private long incomingCount = 0;
+
+    /**
+     * Creates an engine with the standard set of departments and its own patient generator
+     * @param usePriorityQueues Whether departments use priority queues for waiting patients
+     */
+    public SimulationEngine(boolean usePriorityQueues) {
+        this(usePriorityQueues, new PatientGenerator());
+    }
+
+    /**
+     * Creates an engine with the standard set of departments
+     * @param usePriorityQueues Whether departments use priority queues for waiting patients
+     * @param generator Source of new patients
+     */
+    public SimulationEngine(boolean usePriorityQueues, PatientGenerator generator) {
+        this(usePriorityQueues, generator, STANDARD_CAPACITIES);
+    }
+
+    /**
+     * Creates an engine with the standard departments and the given treatment room sizes
+     * @param usePriorityQueues Whether departments use priority queues for waiting patients
+     * @param generator Source of new patients
+     * @param capacities Treatment room size of each of the STANDARD_DEPARTMENTS, in order
+     */
+    public SimulationEngine(boolean usePriorityQueues, PatientGenerator generator, int[] capacities) {
+        this(usePriorityQueues, new GeneratorArrivals(generator), capacities);
+    }
+
+    /**
+     * Creates an engine with the standard departments, taking patients from any
+     * arrival source (e.g. a recorded trace)
+     * @param usePriorityQueues Whether departments use priority queues for waiting patients
+     * @param arrivals Source of new patients
+     * @param capacities Treatment room size of each of the STANDARD_DEPARTMENTS, in order
+     */
+    public SimulationEngine(boolean usePriorityQueues, ArrivalSource arrivals, int[] capacities) {
+        if (capacities.length != STANDARD_DEPARTMENTS.length) {
+            throw new IllegalArgumentException("Expected " + STANDARD_DEPARTMENTS.length +
+                                               " capacities, got " + capacities.length);
+        }
+        this.arrivals = arrivals;
+        for (int i = 0; i < STANDARD_DEPARTMENTS.length; i++) {
+            addDepartment(new Department(STANDARD_DEPARTMENTS[i], capacities[i], usePriorityQueues));
+        }
+    }
+
+    /**
+     * Creates an engine with no departments, for restoring a checkpoint
+     */
+    private SimulationEngine(ArrivalSource arrivals) {
+        this.arrivals = arrivals;
+    }
+
+    /**
+     * Sets the scheduling policy of every department (each gets its own copy
+     * of a policy that keeps state)
+     */
+    public void setSchedulingPolicy(SchedulingPolicy policy) {
+        for (Department dept : departments) {
+            dept.setSchedulingPolicy(policy);
+        }
+    }
+
+    /**
+     * Sets whether every department lets priority 1 patients preempt lower
+     * priority patients in treatment (see Department.setPreemptive)
+     */
+    public void setPreemptive(boolean preemptive) {
+        for (Department dept : departments) {
+            dept.setPreemptive(preemptive);
+        }
+    }
+
+    /**
+     * Adds (or replaces) a department, keyed by its DepartmentRegistry id
+     */
+    public void addDepartment(Department dept) {
+        int id = dept.getId();
+        if (id >= departmentsById.length) {
+            departmentsById = Arrays.copyOf(departmentsById, DepartmentRegistry.size());
+        }
+        Department old = departmentsById[id];
+        if (old != null) {
+            departments.set(departments.indexOf(old), dept);
+        } else {
+            departments.add(dept);
+        }
+        departmentsById[id] = dept;
+        departmentArray = departments.toArray(new Department[0]);
+    }
+
+    public void setListener(SimulationListener listener) {
+        this.listener = (listener == null) ? SimulationListener.NONE : listener;
+    }
+
+    /**
+     * Sets the recorder of the departments' history, from the next tick on
+     * (null to stop recording). It must have been made for this engine
+     */
+    public void setRecorder(TimeSeriesRecorder recorder) {
+        this.recorder = recorder;
+    }
+
+    public TimeSeriesRecorder getRecorder() { return recorder; }
+
+    /**
+     * Selects next-event time advance (true) or the plain tick loop (false)
+     */
+    public void setEventDriven(boolean eventDriven) {
+        this.eventDriven = eventDriven;
+        // anything already waiting may be admitted on the next tick
+        pendingTick = eventDriven ? time : -1;
+    }
+
+    public boolean isEventDriven() { return eventDriven; }
+
+    /**
+     * Sets where patients go whose next department is not in this engine
+     * (null: such patients are reported as warnings when they arrive)
+     */
+    public void setTransferHandler(TransferHandler transfers) {
+        this.transfers = transfers;
+    }
+
+    // ================== Running ==================
+
+    /**
+     * Advances the simulation by one tick
+     * @return the (live) statistics
+     */
+    public SimulationStats step() {
+        tick();
+        return stats;
+    }
+
+    /**
+     * Advances the simulation by the given number of ticks
+     * @return the (live) statistics
+     */
+    public SimulationStats step(int ticks) {
+        return runUntil(time + ticks);
+    }
+
+    /**
+     * Runs the simulation until the clock reaches the given tick
+     * @return the (live) statistics
+     */
+    public SimulationStats runUntil(int endTime) {
+        if (eventDriven) {
+            runEventsUntil(endTime);
+        } else {
+            while (time < endTime) {
+                tick();
+            }
+        }
+        return stats;
+    }
+
+    /**
+     * Runs until the steady-state mean waiting times of all patients and of
+     * priority 1 patients are both known to the given relative precision, or
+     * until the clock reaches maxTicks (see SteadyStateEstimator).
+     * The start-up transient is detected with MSER-5; when it is, the
+     * statistics are reset, so reportStatistics leaves it out too. The
+     * precision is checked at intervals that grow with the run, so checking
+     * costs little however long it runs
+     * @param targetRelHalfWidth Largest half-width of the 95% confidence
+     *                           intervals, as a fraction of the mean (e.g. 0.05)
+     * return the estimates
+     */
+    public SteadyStateEstimator runUntilPrecise(double targetRelHalfWidth, int maxTicks) {
+        return runUntilPrecise(targetRelHalfWidth, maxTicks, () -> true);
+    }
+
+    /**
+     * As runUntilPrecise, but also stops (not converged) as soon as keepRunning
+     * returns false, which is asked at least every CANCEL_CHECK_TICKS ticks
+     * (e.g. so a GUI can pause a long run)
+     */
+    public SteadyStateEstimator runUntilPrecise(double targetRelHalfWidth, int maxTicks, BooleanSupplier keepRunning) {
+        SteadyStateEstimator estimator = new SteadyStateEstimator();
+        boolean converged = false;
+        steadyState = estimator;
+        try {
+            while (time < maxTicks && !converged && keepRunning.getAsBoolean()) {
+                int next = (int) Math.min(maxTicks, Math.max((long) time + PRECISION_CHECK_TICKS, (long) (time * 1.1)));
+                while (time < next && keepRunning.getAsBoolean()) {
+                    runUntil((int) Math.min(next, (long) time + CANCEL_CHECK_TICKS));
+                }
+                converged = estimator.analyse(targetRelHalfWidth);
+                if (estimator.isWarmupFound()) {
+                    resetStatistics();
+                    estimator.endWarmup(time);
+                }
+            }
+        } finally {
+            steadyState = null;
+        }
+        estimator.finish(time, converged);
+        return estimator;
+    }
+
+    /**
+     * Jumps from event to event, only running a full tick where something can change.
+     * Between events no patient arrives, finishes or can be admitted (every department
+     * is either full or has an empty queue after each tick), so the only change is
+     * that waiting and treatment times grow, which is applied in bulk.
+     */
+    private void runEventsUntil(int endTime) {
+        while (time < endTime) {
+            int next = Math.min(nextEventTime(), endTime);
+            if (next > time) {
+                skipIdleTicks(next - time);
+            }
+            if (time < endTime) {
+                tick();
+            }
+        }
+    }
+
+    private int nextEventTime() {
+        int next = pendingTick >= time ? pendingTick : Integer.MAX_VALUE;
+        Patient arrival = peekArrival();
+        if (arrival != null) {
+            next = Math.min(next, arrival.getArrivalTime());
+        }
+        if (!incoming.isEmpty()) {
+            next = Math.min(next, incoming.peek().time);
+        }
+        for (Department dept : departmentArray) {
+            int ticks = Math.min(dept.ticksUntilNextCompletion(), dept.ticksUntilNextTimeout());
+            if (ticks != Integer.MAX_VALUE) {
+                next = Math.min(next, time + ticks);
+            }
+        }
+        return next;
+    }
+
+    private void skipIdleTicks(int ticks) {
+        for (Department dept : departmentArray) {
+            dept.tickTreatment(ticks);
+            dept.tickWaiting(ticks);
+        }
+        if (recorder != null) {
+            recorder.recordIdle(time, ticks);
+        }
+        time += ticks;
+    }
+
+    // ================== Arrivals ==================
+
+    /**
+     * Returns the next patient from the arrival source, drawing ahead if needed
+     * (null once the source has run out)
+     */
+    private Patient peekArrival() {
+        if (nextArrival == null && !arrivalsExhausted) {
+            nextArrival = arrivals.next();
+            arrivalsExhausted = (nextArrival == null);
+        }
+        return nextArrival;
+    }
+
+    /**
+     * Returns a patient due to arrive by the current tick, or null
+     */
+    private Patient pollArrival() {
+        Patient p = peekArrival();
+        if (p != null && p.getArrivalTime() <= time) {
+            nextArrival = null;
+            return p;
+        }
+        return null;
+    }
+
+    // ================== Transfers ==================
+
+    /**
+     * Accepts a patient transferred from another hospital, who arrives at the
+     * given tick (not before the current one). Transfers arriving at the same
+     * tick are admitted in the order they were accepted
+     */
+    public void acceptTransfer(Patient p, int arrivalTime) {
+        if (arrivalTime < time) {
+            throw new IllegalArgumentException("Transfer arrives at " + arrivalTime + ", before the current time " + time);
+        }
+        incoming.add(new IncomingTransfer(arrivalTime, incomingCount++, p));
+    }
+
+    private static final class IncomingTransfer implements Comparable<IncomingTransfer> {
+        final int time;
+        final long order;
+        final Patient patient;
+
+        IncomingTransfer(int time, long order, Patient patient) {
+            this.time = time;
+            this.order = order;
+            this.patient = patient;
+        }
+
+        @Override
+        public int compareTo(IncomingTransfer other) {
+            return time != other.time ? Integer.compare(time, other.time) : Long.compare(order, other.order);
+        }
+    }
+
+    /**
+     * Sends a patient to the department for their current treatment: one of ours,
+     * or, through the transfer handler, another hospital's
+     * @param allowOverflow Whether the transfer handler may redirect the patient;
+     *        false for patients transferred in, who were already placed
+     */
+    private void route(Patient p, boolean allowOverflow) {
+        int id = p.getCurrentDepartmentId();
+        if (transfers != null && allowOverflow) {
+            int chosen = transfers.chooseDepartment(time, p, id);
+            if (chosen != id) {
+                p.redirectCurrentTreatment(chosen);
+                id = chosen;
+            }
+        }
+        if (id < departmentsById.length && departmentsById[id] != null) {
+            departmentsById[id].enqueue(p);
+        } else if (transfers != null && transfers.sendAway(time, p)) {
+            listener.patientTransferred(time, p, DepartmentRegistry.nameOf(id));
+        } else {
+            listener.warning(time, "unknown department '" + DepartmentRegistry.nameOf(id) + "' for patient: " + p);
+        }
+    }
+
+    private void tick() {
+        if (TICK_EVENT.isEnabled()) {
+            timedTick();
+            return;
+        }
+        collectFinished();
+        tickTreatment();
+        tickWaiting();
+        escalate();
+        admit();
+        arrive();
+        endTick();
+    }
+
+    /**
+     * A tick recorded as a JFR TickEvent, with the time taken by each phase
+     */
+    private void timedTick() {
+        TickEvent event = new TickEvent();
+        event.begin();
+        event.tick = time;
+        long start = System.nanoTime();
+        collectFinished();
+        long collected = System.nanoTime();
+        tickTreatment();
+        long treated = System.nanoTime();
+        tickWaiting();
+        long waited = System.nanoTime();
+        escalate();
+        long escalated = System.nanoTime();
+        admit();
+        long admitted = System.nanoTime();
+        arrive();
+        long arrived = System.nanoTime();
+        endTick();
+        event.collect = collected - start;
+        event.treat = treated - collected;
+        event.waiting = waited - treated;
+        event.escalate = escalated - waited;
+        event.admit = admitted - escalated;
+        event.arrive = arrived - admitted;
+        event.commit();
+    }
+
+    private void collectFinished() {
+        //Collecting and routing finished patients
+        //(without transfers, every department in a plan was checked on arrival)
+        for (Department dept : departmentArray) {
+            dept.collectFinished(finished);
+            for (int i = 0; i < finished.size(); i++) {
+                Patient p = finished.get(i);
+                p.removeCurrentTreatment();
+                if (p.allTreatmentsCompleted()) {
+                    discharge(p);
+                } else {
+                    route(p, true);
+                }
+            }
+            finished.clear();
+        }
+    }
+
+    private void tickTreatment() {
+        //Process treatment ticks
+        for (Department dept : departmentArray) {
+            dept.tickTreatment();
+        }
+    }
+
+    private void tickWaiting() {
+        //Process waiting ticks
+        for (Department dept : departmentArray) {
+            dept.tickWaiting();
+        }
+    }
+
+    private void escalate() {
+        //Check for priority 1 patients waiting too long (only one forced per department per tick)
+        for (Department dept : departmentArray) {
+            Patient escalated = dept.escalateOverduePriority1();
+            if (escalated != null) {
+                listener.patientEscalated(time, escalated, dept.getName());
+                if (ESCALATION_EVENT.isEnabled()) {
+                    recordEscalation(escalated, dept);
+                }
+            }
+        }
+    }
+
+    private void recordEscalation(Patient p, Department dept) {
+        EscalationEvent event = new EscalationEvent();
+        event.tick = time;
+        event.department = dept.getName();
+        event.patient = p.getId();
+        event.waitTime = p.getTotalWaitingTime();
+        event.commit();
+    }
+
+    private void admit() {
+        //Normal admission process
+        for (Department dept : departmentArray) {
+            if (dept.admitWhileSpace(preempted) > 0) {
+                for (int i = 0; i < preempted.size(); i++) {
+                    listener.patientPreempted(time, preempted.get(i), dept.getName());
+                }
+                preempted.clear();
+            }
+        }
+    }
+
+    private void arrive() {
+        //transfers from other hospitals
+        while (!incoming.isEmpty() && incoming.peek().time <= time) {
+            route(incoming.poll().patient, false);  // not sent on again
+            if (eventDriven) {
+                pendingTick = time + 1;  // may be admitted on the next tick
+            }
+        }
+
+        //new arrivals
+        Patient newPatient;
+        while ((newPatient = pollArrival()) != null) {
+            listener.patientArrived(time, newPatient);
+            int unknownDept = (transfers == null) ? findUnknownDepartment(newPatient) : -1;
+            if (unknownDept < 0) {
+                route(newPatient, true);
+                if (eventDriven) {
+                    pendingTick = time + 1;  // may be admitted on the next tick
+                }
+            } else {
+                listener.warning(time, "unknown department '" +
+                                 DepartmentRegistry.nameOf(unknownDept) + "' for patient: " + newPatient);
+            }
+        }
+    }
+
+    private void endTick() {
+        if (recorder != null) {
+            recorder.recordTick(time);
+        }
+        time++;
+
+        if (snapshotRequested) {
+            publishSnapshot();
+        }
+    }
+
+    /**
+     * Checks a patient's plan against this hospital's departments
+     * return the id of the first department the hospital does not have, or -1 if none
+     */
+    private int findUnknownDepartment(Patient p) {
+        for (int i = 0; i < p.getRemainingTreatmentCount(); i++) {
+            int id = p.getRemainingDepartmentId(i);
+            if (id >= departmentsById.length || departmentsById[id] == null) {
+                return id;
+            }
+        }
+        return -1;
+    }
+
+    private void discharge(Patient p) {
+        p.setDischargeTime(time);
+        stats.recordDischarge(p);
+        if (steadyState != null) {
+            steadyState.recordDischarge(p);
+        }
+        listener.patientDischarged(time, p);
+        arrivals.release(p);
+    }
+
+    // ================== Snapshots ==================
+
+    /**
+     * Asks for a new snapshot at the end of the next tick (callable from any thread)
+     */
+    public void requestSnapshot() {
+        snapshotRequested = true;
+    }
+
+    /**
+     * Makes a snapshot of the current state and publishes it as the latest.
+     * Must be called on the simulation thread, or while the simulation is not running
+     */
+    public SimulationSnapshot publishSnapshot() {
+        snapshotRequested = false;
+        List<SimulationSnapshot.DepartmentView> views = new ArrayList<>(departments.size());
+        for (Department dept : departments) {
+            views.add(dept.snapshot(SNAPSHOT_GLYPHS));
+        }
+        latestSnapshot = new SimulationSnapshot(time, views,
+                                                recorder == null ? null : recorder.history(HISTORY_POINTS));
+        return latestSnapshot;
+    }
+
+    /**
+     * The most recently published snapshot (null if none yet; callable from any thread)
+     */
+    public SimulationSnapshot getLatestSnapshot() {
+        return latestSnapshot;
+    }
+
+    /**
+     * Clears the engine's and every department's statistics, keeping the
+     * patients and clocks (e.g. to leave a warm-up period out of the results)
+     */
+    public void resetStatistics() {
+        stats.reset();
+        for (Department dept : departments) {
+            dept.resetStatistics();
+        }
+    }
+
+    // ================== Checkpoints ==================
+
+    /**
+     * Writes the whole simulation state to a checkpoint (see Checkpoint): the
+     * clock, the event calendar, every patient in the hospital or on the way,
+     * the departments, the statistics and the arrival source with its random
+     * stream. The listener, transfer handler and snapshots are not included.
+     * Only engines whose patients come from a PatientGenerator can be saved
+     */
+    void writeCheckpoint(DataOutput out) throws IOException {
+        if (!(arrivals instanceof GeneratorArrivals)) {
+            throw new UnsupportedOperationException("Cannot checkpoint arrivals from " +
+                                                    arrivals.getClass().getSimpleName());
+        }
+        out.writeInt(time);
+        ((GeneratorArrivals) arrivals).writeCheckpoint(out);
+
+        // the patient table: every patient, each once, referred to by position from here on
+        List<Patient> patients = new ArrayList<>();
+        for (Department dept : departments) {
+            dept.addPatientsTo(patients);
+        }
+        if (nextArrival != null) { patients.add(nextArrival); }
+        IncomingTransfer[] transfersDue = incoming.toArray(new IncomingTransfer[0]);
+        Arrays.sort(transfersDue);
+        for (IncomingTransfer t : transfersDue) { patients.add(t.patient); }
+        Map<Patient, Integer> patientIndex = new IdentityHashMap<>();
+        out.writeInt(patients.size());
+        for (Patient p : patients) {
+            patientIndex.put(p, patientIndex.size());
+            p.writeCheckpoint(out);
+        }
+
+        out.writeInt(departments.size());
+        for (Department dept : departments) {
+            dept.writeCheckpoint(out, patientIndex);
+        }
+        out.writeInt(nextArrival == null ? -1 : patientIndex.get(nextArrival));
+        out.writeBoolean(arrivalsExhausted);
+        out.writeLong(incomingCount);
+        out.writeInt(transfersDue.length);
+        for (IncomingTransfer t : transfersDue) {
+            out.writeInt(t.time);
+            out.writeLong(t.order);
+            out.writeInt(patientIndex.get(t.patient));
+        }
+        out.writeBoolean(eventDriven);
+        if (pendingTick >= time) {   // written as a list of ticks
+            out.writeInt(1);
+            out.writeInt(pendingTick);
+        } else {
+            out.writeInt(0);
+        }
+        stats.writeCheckpoint(out);
+    }
+
+    /**
+     * Reads an engine written by writeCheckpoint
+     * @param deptIds Maps the checkpoint's department ids to DepartmentRegistry ids
+     * @param capacities Treatment room size of each department in display order,
+     *                   or null for the sizes when checkpointed
+     */
+    static SimulationEngine readCheckpoint(ByteBuffer in, int[] deptIds, int[] capacities) {
+        int time = in.getInt();
+        SimulationEngine engine = new SimulationEngine(GeneratorArrivals.readCheckpoint(in));
+        engine.time = time;
+
+        Patient[] patients = new Patient[in.getInt()];
+        for (int i = 0; i < patients.length; i++) {
+            patients[i] = Patient.readCheckpoint(in, deptIds);
+        }
+
+        int numDepartments = in.getInt();
+        if (capacities != null && capacities.length != numDepartments) {
+            throw new IllegalArgumentException("Expected " + numDepartments +
+                                               " capacities, got " + capacities.length);
+        }
+        for (int i = 0; i < numDepartments; i++) {
+            engine.addDepartment(Department.readCheckpoint(in, patients, capacities == null ? -1 : capacities[i]));
+        }
+        int next = in.getInt();
+        engine.nextArrival = next < 0 ? null : patients[next];
+        engine.arrivalsExhausted = in.get() != 0;
+        engine.incomingCount = in.getLong();
+        for (int i = in.getInt(); i > 0; i--) {
+            int arrivalTime = in.getInt();
+            long order = in.getLong();
+            engine.incoming.add(new IncomingTransfer(arrivalTime, order, patients[in.getInt()]));
+        }
+        engine.eventDriven = in.get() != 0;
+        for (int i = in.getInt(); i > 0; i--) {
+            engine.pendingTick = Math.max(engine.pendingTick, in.getInt());
+        }
+        engine.stats.readCheckpoint(in);
+        return engine;
+    }
+
+    // ================== Getters ==================
+
+    public int getTime() { return time; }
+    public SimulationStats getStatistics() { return stats; }
+    public ArrivalSource getArrivalSource() { return arrivals; }
+    public Collection<Department> getDepartments() { return Collections.unmodifiableList(departments); }
+
+    public Department getDepartment(String name) {
+        return getDepartment(DepartmentRegistry.idOf(name));
+    }
+
+    /**
+     * Returns the department with the given DepartmentRegistry id, or null if this hospital has none
+     */
+    public Department getDepartment(int id) {
+        return (id >= 0 && id < departmentsById.length) ? departmentsById[id] : null;
+    }
+
+    /**
+     * Returns the end-of-run statistics report as text
+     */
+    public String reportStatistics() {
+        return stats.report(time, departments);
+    }
+
+    /**
+     * Runs a headless batch simulation and prints the statistics
+     * Arguments: [ticks] [seed] [scheduling policy] [ticks|events] [event log file (.csv or .bin)]
+     * (policies as in SchedulingPolicies.forName: fifo, pri, aging:100, setf, wfq:6,3,1)
+     */
+    public static void main(String[] args) throws IOException {
+        int ticks = args.length > 0 ? Integer.parseInt(args[0]) : 100_000;
+        PatientGenerator generator = new PatientGenerator();
+        if (args.length > 1) { generator.setRandomSeed(Long.parseLong(args[1])); }
+        SchedulingPolicy policy = args.length > 2 ? SchedulingPolicies.forName(args[2])
+                                                  : SchedulingPolicies.strictPriority();
+
+        SimulationEngine engine = new SimulationEngine(true, generator);
+        engine.setSchedulingPolicy(policy);
+        engine.setEventDriven(args.length > 3 && args[3].equals("events"));
+        EventLog log = null;
+        if (args.length > 4) {
+            EventLog.Format format = args[4].endsWith(".bin") ? EventLog.Format.BINARY : EventLog.Format.CSV;
+            log = new EventLog(Paths.get(args[4]), format, 0);
+            engine.setListener(log);
+        }
+        SimulationMonitor monitor = new SimulationMonitor(engine, "batch");
+        long start = System.nanoTime();
+        engine.runUntil(ticks);
+        if (log != null) { log.close(); }
+        long elapsed = System.nanoTime() - start;
+        monitor.close();
+
+        System.out.println(engine.reportStatistics());
+        System.out.printf("%n%d ticks in %.3f s%n", ticks, elapsed / 1e9);
+    }
+}
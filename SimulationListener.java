@@ -0,0 +1,43 @@
+
+/**
+ * Receives notifications about what happens inside a SimulationEngine.
+ * All methods default to doing nothing, so a listener only overrides the
+ * events it cares about (the GUI prints them, batch jobs usually ignore them).
+ */
+public interface SimulationListener {
+
+    /** A listener that ignores every event */
+    SimulationListener NONE = new SimulationListener() {};
+
+    /**
+     * A new patient has arrived and is about to join its first department
+     */
+    default void patientArrived(int time, Patient patient) {}
+
+    /**
+     * A patient has completed all treatments and left the hospital
+     */
+    default void patientDischarged(int time, Patient patient) {}
+
+    /**
+     * A priority 1 patient waited past the timeout and was forced into treatment
+     */
+    default void patientEscalated(int time, Patient patient, String department) {}
+
+    /**
+     * A patient in treatment was sent back to the waiting queue to make room
+     * for a priority 1 patient (see Department.setPreemptive)
+     */
+    default void patientPreempted(int time, Patient patient, String department) {}
+
+    /**
+     * A patient left for a department at another hospital
+     * @param department Site-qualified name of the department the patient is going to
+     */
+    default void patientTransferred(int time, Patient patient, String department) {}
+
+    /**
+     * Something unexpected happened that did not stop the simulation
+     */
+    default void warning(int time, String message) {}
+}
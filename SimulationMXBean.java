@@ -0,0 +1,19 @@
+/**
+ * Live metrics of a SimulationEngine, for JMX clients such as JConsole or
+ * VisualVM (registered by SimulationMonitor)
+ */
+public interface SimulationMXBean {
+    int getTime();
+    boolean isEventDriven();
+
+    /**
+     * Simulated ticks per second of real time, over the last second or more
+     */
+    double getTicksPerSecond();
+
+    long getPatientsDischarged();
+    double getAverageWait();
+    double getAverageWaitPriority1();
+    int getMaxWait();
+    long getPriority1AtRisk();
+}
@@ -0,0 +1,145 @@
+import java.lang.management.ManagementFactory;
+import java.util.*;
+import javax.management.*;
+
+/**
+ * Publishes a SimulationEngine and each of its departments as JMX MXBeans:
+ *   hospital:type=Simulation,name=<name>
+ *   hospital:type=Department,simulation=<name>,name=<department>
+ *
+ * JMX clients pull the values when they ask for them, so the simulation does
+ * no extra work however long the monitor stays registered. The values are
+ * read from the simulation thread's fields without locking, so they may be a
+ * tick behind, and values from different attributes may come from different ticks.
+ */
+public class SimulationMonitor implements SimulationMXBean, AutoCloseable {
+    private static final String DOMAIN = "hospital";
+
+    private final SimulationEngine engine;
+    private final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+    private final List<ObjectName> registered = new ArrayList<>();
+    private final Rate tickRate = new Rate();
+
+    /**
+     * Registers the engine and its departments with the platform MBean server
+     * @param name Name of this simulation, unique in the JVM
+     * @throws IllegalStateException if the names are already registered
+     */
+    public SimulationMonitor(SimulationEngine engine, String name) {
+        this.engine = engine;
+        try {
+            register(this, new ObjectName(DOMAIN + ":type=Simulation,name=" + quoteIfNeeded(name)));
+            for (Department dept : engine.getDepartments()) {
+                register(new DepartmentMonitor(dept), new ObjectName(DOMAIN + ":type=Department,simulation=" +
+                                                                     quoteIfNeeded(name) + ",name=" +
+                                                                     quoteIfNeeded(dept.getName())));
+            }
+        } catch (JMException e) {
+            close();
+            throw new IllegalStateException("Cannot register MBeans for simulation " + name, e);
+        }
+    }
+
+    private void register(Object bean, ObjectName objectName) throws JMException {
+        server.registerMBean(bean, objectName);
+        registered.add(objectName);
+    }
+
+    private static String quoteIfNeeded(String value) {
+        for (char c : value.toCharArray()) {
+            if (",=:\"*?\n".indexOf(c) >= 0) { return ObjectName.quote(value); }
+        }
+        return value;
+    }
+
+    /**
+     * Unregisters every MBean this monitor registered
+     */
+    @Override
+    public void close() {
+        for (ObjectName objectName : registered) {
+            try {
+                server.unregisterMBean(objectName);
+            } catch (JMException e) {
+                // already gone
+            }
+        }
+        registered.clear();
+    }
+
+    // ================== SimulationMXBean ==================
+
+    @Override public int getTime() { return engine.getTime(); }
+    @Override public boolean isEventDriven() { return engine.isEventDriven(); }
+    @Override public double getTicksPerSecond() { return tickRate.update(engine.getTime()); }
+    @Override public long getPatientsDischarged() { return engine.getStatistics().getNumDischarged(); }
+    @Override public double getAverageWait() { return engine.getStatistics().getAverageWait(); }
+    @Override public double getAverageWaitPriority1() { return engine.getStatistics().getAverageWaitPri1(); }
+    @Override public int getMaxWait() { return engine.getStatistics().getMaxWait(); }
+    @Override public long getPriority1AtRisk() { return engine.getStatistics().getPri1AtRiskCount(); }
+
+    // ================== Departments ==================
+
+    /**
+     * The MXBean of one department
+     */
+    public static final class DepartmentMonitor implements DepartmentMXBean {
+        private final Department dept;
+        private final Rate admissionRate = new Rate();
+
+        DepartmentMonitor(Department dept) {
+            this.dept = dept;
+        }
+
+        @Override public String getName() { return dept.getName(); }
+        @Override public int getWaitingCount() { return dept.getWaitingCount(); }
+        @Override public int getWaitingPriority1() { return dept.getWaitingCount(1); }
+        @Override public int getWaitingPriority2() { return dept.getWaitingCount(2); }
+        @Override public int getWaitingPriority3() { return dept.getWaitingCount(3); }
+        @Override public int getMaxQueueLength() { return dept.getMaxQueueLength(); }
+        @Override public int getTreatmentCount() { return dept.getTreatmentCount(); }
+        @Override public int getMaxPatients() { return dept.getMaxPatients(); }
+
+        @Override
+        public double getOccupancy() {
+            return dept.getMaxPatients() == 0 ? 0.0 : (double) dept.getTreatmentCount() / dept.getMaxPatients();
+        }
+
+        @Override public double getAdmissionsPerSecond() { return admissionRate.update(dept.getTotalPatientsServed()); }
+        @Override public long getTotalPatientsServed() { return dept.getTotalPatientsServed(); }
+        @Override public long getTotalPreemptions() { return dept.getTotalPreemptions(); }
+        @Override public long getTotalWaitingTime() { return dept.getTotalWaitingTime(); }
+
+        @Override
+        public double getAverageWait() {
+            long served = dept.getTotalPatientsServed();
+            return served == 0 ? 0.0 : (double) dept.getTotalWaitingTime() / served;
+        }
+    }
+
+    /**
+     * Rate of change of a growing count per second of real time. The rate is
+     * measured from a sample at least a second old, so clients polling often
+     * still see a steady value
+     */
+    private static final class Rate {
+        private static final long MIN_INTERVAL = 1_000_000_000L;  // nanoseconds
+
+        private long sampleTime = System.nanoTime();
+        private long sampleCount = -1;  // none yet
+        private double rate = 0.0;
+
+        synchronized double update(long count) {
+            long now = System.nanoTime();
+            if (sampleCount < 0 || count < sampleCount) {   // first call, or the count was reset
+                sampleTime = now;
+                sampleCount = count;
+            } else if (now - sampleTime >= MIN_INTERVAL) {
+                rate = (count - sampleCount) * 1e9 / (now - sampleTime);
+                sampleTime = now;
+                sampleCount = count;
+            }
+            return rate;
+        }
+    }
+}
@@ -0,0 +1,114 @@
+import java.util.*;
+
+/**
+ * An immutable picture of a SimulationEngine at the end of one tick, for
+ * drawing on another thread while the simulation carries on.
+ *
+ * Only what is drawn is copied: each department's name and size, up to a
+ * fixed number of patients in each room (priority and initials), and the
+ * number of waiting patients of each priority, plus the recorded history of
+ * the queues if the engine has a TimeSeriesRecorder.
+ */
+public final class SimulationSnapshot {
+    private final int time;
+    private final List<DepartmentView> departments;
+    private final History history;  // null if not recorded
+
+    public SimulationSnapshot(int time, List<DepartmentView> departments) {
+        this(time, departments, null);
+    }
+
+    public SimulationSnapshot(int time, List<DepartmentView> departments, History history) {
+        this.time = time;
+        this.departments = Collections.unmodifiableList(new ArrayList<>(departments));
+        this.history = history;
+    }
+
+    public int getTime() { return time; }
+    public List<DepartmentView> getDepartments() { return departments; }
+    public History getHistory() { return history; }
+
+    /**
+     * A patient as drawn: priority and initials
+     */
+    public static final class PatientGlyph {
+        private final int priority;
+        private final String initials;
+
+        public PatientGlyph(int priority, String initials) {
+            this.priority = priority;
+            this.initials = initials;
+        }
+
+        public int getPriority() { return priority; }
+        public String getInitials() { return initials; }
+    }
+
+    /**
+     * The history of every department's queue and treatment room as drawn: a
+     * few hundred points at most, each covering a range of ticks
+     * (made by TimeSeriesRecorder.history, which hands over new arrays)
+     */
+    public static final class History {
+        private final int[] times;             // start tick of each point, then the end of the last
+        private final String[] names;
+        private final double[][] waiting;      // [department][point]: mean number waiting
+        private final double[][] maxWaiting;   // [department][point]: most waiting
+        private final double[][] occupancy;    // [department][point]: mean fraction of the room in use
+
+        History(int[] times, String[] names, double[][] waiting, double[][] maxWaiting, double[][] occupancy) {
+            this.times = times;
+            this.names = names;
+            this.waiting = waiting;
+            this.maxWaiting = maxWaiting;
+            this.occupancy = occupancy;
+        }
+
+        public int getPointCount() { return times.length - 1; }
+        public int getDepartmentCount() { return names.length; }
+        public String getName(int dept) { return names[dept]; }
+        public int getStartTime() { return times[0]; }
+        public int getEndTime() { return times[times.length - 1]; }
+        public int getTime(int point) { return times[point]; }
+        public double getWaiting(int dept, int point) { return waiting[dept][point]; }
+        public double getMaxWaiting(int dept, int point) { return maxWaiting[dept][point]; }
+        public double getOccupancy(int dept, int point) { return occupancy[dept][point]; }
+    }
+
+    /**
+     * One department as drawn
+     */
+    public static final class DepartmentView {
+        private final String name;
+        private final int maxPatients;
+        private final int treatingCount;
+        private final PatientGlyph[] treating;     // the first few patients in treatment
+        private final PatientGlyph[] waiting;      // the first few waiting patients
+        private final int[] waitingByPriority;     // all waiting patients, indexed by priority-1
+
+        public DepartmentView(String name, int maxPatients, int treatingCount, PatientGlyph[] treating,
+                              PatientGlyph[] waiting, int[] waitingByPriority) {
+            this.name = name;
+            this.maxPatients = maxPatients;
+            this.treatingCount = treatingCount;
+            this.treating = treating.clone();
+            this.waiting = waiting.clone();
+            this.waitingByPriority = waitingByPriority.clone();
+        }
+
+        public String getName() { return name; }
+        public int getMaxPatients() { return maxPatients; }
+        public int getTreatingCount() { return treatingCount; }
+        public int getListedTreatingCount() { return treating.length; }
+        public PatientGlyph getTreating(int i) { return treating[i]; }
+        public int getListedWaitingCount() { return waiting.length; }
+        public PatientGlyph getWaiting(int i) { return waiting[i]; }
+        public int getWaitingCount(int priority) { return waitingByPriority[priority - 1]; }
+
+        public int getWaitingCount() {
+            int total = 0;
+            for (int n : waitingByPriority) { total += n; }
+            return total;
+        }
+    }
+}
@@ -0,0 +1,210 @@
+import java.util.*;
+import java.io.*;
+import java.nio.ByteBuffer;
+
+/**
+ * Statistics gathered by a SimulationEngine as patients are discharged:
+ * - Overall waiting times (total, maximum, count)
+ * - Priority 1 waiting times, at-risk and quickly-treated counts
+ * - Waiting and system time histograms for each priority, for percentiles
+ * Totals are longs so they do not overflow on long runs.
+ */
+public class SimulationStats {
+    private static final int CRITICAL_WAIT_THRESHOLD = SimulationEngine.CRITICAL_WAIT_THRESHOLD;
+    private static final int PRI1_TIMEOUT = SimulationEngine.PRI1_TIMEOUT;
+
+    // Overall stats
+    private long numDischarged = 0;
+    private long totalWait = 0;
+    private int maxWait = 0;
+    private int maxWaitPri1 = 0;
+
+    // Priority-1 stats
+    private long numDischargedPri1 = 0;
+    private long totalWaitPri1 = 0;
+    private long pri1AtRiskCount = 0;
+    private long pri1TreatedQuickly = 0;
+
+    // Percentiles, indexed by priority-1
+    private final WaitHistogram[] waitByPriority = new WaitHistogram[3];
+    private final WaitHistogram[] systemTimeByPriority = new WaitHistogram[3];
+
+    public SimulationStats() {
+        for (int i = 0; i < waitByPriority.length; i++) {
+            waitByPriority[i] = new WaitHistogram();
+            systemTimeByPriority[i] = new WaitHistogram();
+        }
+    }
+
+    // ================== Recording ==================
+
+    /**
+     * Records the waiting time of a discharged patient
+     * @param p Patient who has completed all treatments
+     */
+    public void recordDischarge(Patient p) {
+        int w = p.getTotalWaitingTime();
+        numDischarged++;
+        totalWait += w;
+        if (w > maxWait) maxWait = w;
+        waitByPriority[p.getPriority() - 1].record(w);
+        systemTimeByPriority[p.getPriority() - 1].record(p.getSystemTime());
+
+        if (p.getPriority() == 1) {
+            numDischargedPri1++;
+            totalWaitPri1 += w;
+            if (w > maxWaitPri1) maxWaitPri1 = w;
+            if (w > CRITICAL_WAIT_THRESHOLD) {
+                pri1AtRiskCount++;
+            }
+            if (w <= PRI1_TIMEOUT) {
+                pri1TreatedQuickly++;
+            }
+        }
+    }
+
+    /**
+     * Clears every statistic (e.g. at the end of a warm-up period)
+     */
+    public void reset() {
+        numDischarged = 0;
+        totalWait = 0;
+        maxWait = 0;
+        maxWaitPri1 = 0;
+        numDischargedPri1 = 0;
+        totalWaitPri1 = 0;
+        pri1AtRiskCount = 0;
+        pri1TreatedQuickly = 0;
+        for (int i = 0; i < waitByPriority.length; i++) {
+            waitByPriority[i].reset();
+            systemTimeByPriority[i].reset();
+        }
+    }
+
+    // ================== Checkpoints ==================
+
+    void writeCheckpoint(DataOutput out) throws IOException {
+        out.writeLong(numDischarged);
+        out.writeLong(totalWait);
+        out.writeInt(maxWait);
+        out.writeInt(maxWaitPri1);
+        out.writeLong(numDischargedPri1);
+        out.writeLong(totalWaitPri1);
+        out.writeLong(pri1AtRiskCount);
+        out.writeLong(pri1TreatedQuickly);
+        for (int i = 0; i < waitByPriority.length; i++) {
+            waitByPriority[i].writeCheckpoint(out);
+            systemTimeByPriority[i].writeCheckpoint(out);
+        }
+    }
+
+    /**
+     * Replaces the statistics with those written by writeCheckpoint
+     */
+    void readCheckpoint(ByteBuffer in) {
+        numDischarged = in.getLong();
+        totalWait = in.getLong();
+        maxWait = in.getInt();
+        maxWaitPri1 = in.getInt();
+        numDischargedPri1 = in.getLong();
+        totalWaitPri1 = in.getLong();
+        pri1AtRiskCount = in.getLong();
+        pri1TreatedQuickly = in.getLong();
+        for (int i = 0; i < waitByPriority.length; i++) {
+            waitByPriority[i].readCheckpoint(in);
+            systemTimeByPriority[i].readCheckpoint(in);
+        }
+    }
+
+    // ================== Reporting ==================
+
+    /**
+     * Builds the end-of-run report, one line per statistic
+     * @param time Simulated time reached
+     * @param departments Departments whose own stats are listed at the end
+     */
+    public String report(int time, Collection<Department> departments) {
+        StringBuilder sb = new StringBuilder();
+        sb.append("----- Statistics -----\n");
+        sb.append("Simulated Time: ").append(time).append('\n');
+        sb.append("Total patients treated: ").append(numDischarged).append('\n');
+        sb.append("Max waiting time: ").append(maxWait).append('\n');
+
+        if (numDischarged > 0) {
+            double avgWait = (double) totalWait / numDischarged;
+            sb.append("Average waiting time: ").append(avgWait).append('\n');
+        }
+        sb.append("\n----- Priority 1 Patients -----\n");
+        sb.append("Priority 1 patients treated: ").append(numDischargedPri1).append('\n');
+        if (numDischargedPri1 > 0) {
+            double avgWait = (double) totalWait / numDischarged;
+            double AvgWaitCompared = Math.floor(avgWait * 100) / 100;
+            double avgWaitPri1 = (double) totalWaitPri1 / numDischargedPri1;
+            sb.append("Average waiting time (Priority 1): ").append(avgWaitPri1)
+              .append(" (").append(AvgWaitCompared).append("% fater than average wait time)\n");
+        }
+
+        sb.append("Max waiting time (Priority 1): ").append(maxWaitPri1).append('\n');
+
+        sb.append("Priority 1 patients at risk (> ").append(CRITICAL_WAIT_THRESHOLD)
+          .append(" wait): ").append(pri1AtRiskCount).append('\n');
+        sb.append("Priority 1 patients treated within ").append(PRI1_TIMEOUT)
+          .append(" ticks: ").append(pri1TreatedQuickly).append("/").append(numDischargedPri1).append('\n');
+
+        sb.append("\n----- Percentiles -----");
+        for (int priority = 1; priority <= waitByPriority.length; priority++) {
+            sb.append("\nWaiting time (Priority ").append(priority).append("): ")
+              .append(getWaitHistogram(priority));
+            sb.append("\nSystem time (Priority ").append(priority).append("): ")
+              .append(getSystemTimeHistogram(priority));
+        }
+        sb.append('\n');
+
+        sb.append("\n--- Department Stats ---");
+        for (Department dept : departments) {
+            long served = dept.getTotalPatientsServed();
+            double avgWait = served == 0 ? 0.0 : (double)dept.getTotalWaitingTime()/served;
+            sb.append('\n').append(dept.getName())
+              .append(" | Patients served: ").append(served)
+              .append(" | Avg wait: ").append(String.format("%.1f", avgWait))
+              .append(" | Max queue: ").append(dept.getMaxQueueLength());
+            if (dept.isPreemptive()) {
+                sb.append(" | Preempted: ").append(dept.getTotalPreemptions());
+            }
+        }
+        for (Department dept : departments) {
+            sb.append('\n').append(dept.getName()).append(" wait: ").append(dept.getWaitHistogram());
+            sb.append('\n').append(dept.getName()).append(" time in department: ").append(dept.getTimeInDepartmentHistogram());
+        }
+        return sb.toString();
+    }
+
+    // ================== Getters ==================
+
+    public long getNumDischarged() { return numDischarged; }
+    public long getTotalWait() { return totalWait; }
+    public int getMaxWait() { return maxWait; }
+    public long getNumDischargedPri1() { return numDischargedPri1; }
+    public long getTotalWaitPri1() { return totalWaitPri1; }
+    public int getMaxWaitPri1() { return maxWaitPri1; }
+    public long getPri1AtRiskCount() { return pri1AtRiskCount; }
+    public long getPri1TreatedQuickly() { return pri1TreatedQuickly; }
+
+    /**
+     * Waiting times of discharged patients of a priority (1-3)
+     */
+    public WaitHistogram getWaitHistogram(int priority) { return waitByPriority[priority - 1]; }
+
+    /**
+     * Times from arrival to discharge of discharged patients of a priority (1-3)
+     */
+    public WaitHistogram getSystemTimeHistogram(int priority) { return systemTimeByPriority[priority - 1]; }
+
+    public double getAverageWait() {
+        return numDischarged == 0 ? 0.0 : (double) totalWait / numDischarged;
+    }
+
+    public double getAverageWaitPri1() {
+        return numDischargedPri1 == 0 ? 0.0 : (double) totalWaitPri1 / numDischargedPri1;
+    }
+}
@@ -0,0 +1,186 @@
+import ecs100.*;
+import java.awt.Color;
+
+/**
+ * Draws SimulationSnapshots on the ecs100 graphics pane.
+ *
+ * A room with few patients is drawn as one figure per patient. A waiting queue
+ * too long for the panel is drawn as a bar split by priority, with the count
+ * for each priority, so the cost of a frame does not grow with the queue.
+ *
+ * If the snapshot has a recorded history and history is shown, charts of each
+ * department's queue length and occupancy over the run are drawn below.
+ */
+public class SnapshotRenderer {
+    private static final double PATIENT_WIDTH = 10;
+    private static final double TREATMENT_X = 10;
+    private static final double WAITING_X = 200;
+    private static final double PANEL_WIDTH = 400;
+    private static final double ROW_HEIGHT = 50;
+    private static final int MAX_WAITING_FIGURES = (int) ((PANEL_WIDTH - WAITING_X) / PATIENT_WIDTH);
+    private static final int MAX_TREATING_FIGURES = (int) ((WAITING_X - TREATMENT_X - 10) / PATIENT_WIDTH);
+    private static final double CHART_HEIGHT = 90;
+    private static final Color[] DEPARTMENT_COLORS = {Color.BLUE, Color.MAGENTA, Color.DARK_GRAY, Color.CYAN.darker(),
+                                                      Color.PINK.darker(), Color.GREEN.darker()};
+
+    private volatile boolean showHistory = true;
+
+    /**
+     * Sets whether the recorded history is drawn (callable from any thread)
+     */
+    public void setShowHistory(boolean showHistory) { this.showHistory = showHistory; }
+    public boolean isShowHistory() { return showHistory; }
+
+    /**
+     * Clears the graphics pane and draws the snapshot, repainting once at the end
+     */
+    public void draw(SimulationSnapshot snapshot) {
+        UI.setImmediateRepaint(false);
+        UI.clearGraphics();
+        UI.setColor(Color.BLACK);
+        UI.setFontSize(14);
+        UI.drawString("Treating Patients", 5, 15);
+        UI.drawString("Waiting Queues", WAITING_X, 15);
+        UI.drawString("Time " + snapshot.getTime(), PANEL_WIDTH - 80, 15);
+        UI.drawLine(0, 32, PANEL_WIDTH, 32);
+        double y = 80;
+        for (SimulationSnapshot.DepartmentView dept : snapshot.getDepartments()) {
+            drawDepartment(dept, y);
+            UI.setColor(Color.BLACK);
+            UI.drawLine(0, y+2, PANEL_WIDTH, y+2);
+            y += ROW_HEIGHT;
+        }
+        SimulationSnapshot.History history = snapshot.getHistory();
+        if (showHistory && history != null && history.getPointCount() > 0) {
+            drawHistory(history, y);
+        }
+        UI.repaintGraphics();
+    }
+
+    /**
+     * Draw the department: the patients being treated and the patients waiting
+     */
+    private void drawDepartment(SimulationSnapshot.DepartmentView dept, double y) {
+        UI.setColor(Color.BLACK);
+        UI.setFontSize(14);
+        UI.drawString(dept.getName(), 0, y-35);
+
+        // treatment room: box showing the max number of patients
+        double boxWidth = Math.min(dept.getMaxPatients(), MAX_TREATING_FIGURES) * PATIENT_WIDTH;
+        UI.drawRect(TREATMENT_X-5, y-30, boxWidth, 30);
+        if (dept.getTreatingCount() <= MAX_TREATING_FIGURES) {
+            double x = TREATMENT_X;
+            for (int i = 0; i < dept.getListedTreatingCount(); i++) {
+                drawPatient(dept.getTreating(i), x, y);
+                x += PATIENT_WIDTH;
+            }
+        } else {
+            UI.setFontSize(12);
+            UI.drawString(dept.getTreatingCount() + "/" + dept.getMaxPatients() + " in treatment", TREATMENT_X, y-10);
+        }
+
+        // waiting queue
+        if (dept.getWaitingCount() <= MAX_WAITING_FIGURES) {
+            double x = WAITING_X;
+            for (int i = 0; i < dept.getListedWaitingCount(); i++) {
+                drawPatient(dept.getWaiting(i), x, y);
+                x += PATIENT_WIDTH;
+            }
+        } else {
+            drawQueueBar(dept, y);
+        }
+    }
+
+    /**
+     * Draws a long queue as a bar across the waiting area, divided in proportion
+     * to the number of patients of each priority, with the counts below
+     */
+    private void drawQueueBar(SimulationSnapshot.DepartmentView dept, double y) {
+        double width = PANEL_WIDTH - WAITING_X - 5;
+        double total = dept.getWaitingCount();
+        double x = WAITING_X - 3;
+        for (int priority = 1; priority <= 3; priority++) {
+            double w = width * dept.getWaitingCount(priority) / total;
+            UI.setColor(colorOf(priority));
+            UI.fillRect(x, y-28, w, 14);
+            x += w;
+        }
+        UI.setColor(Color.BLACK);
+        UI.drawRect(WAITING_X - 3, y-28, width, 14);
+        UI.setFontSize(10);
+        UI.drawString(dept.getWaitingCount() + " waiting  (P1 " + dept.getWaitingCount(1) +
+                      " | P2 " + dept.getWaitingCount(2) + " | P3 " + dept.getWaitingCount(3) + ")",
+                      WAITING_X - 3, y-3);
+    }
+
+    /**
+     * Draws the history as two charts, one line per department: the mean
+     * number waiting (scaled to the longest queue) and the mean occupancy
+     * @param y Top of the charts
+     */
+    private void drawHistory(SimulationSnapshot.History history, double y) {
+        double peak = 1;
+        for (int d = 0; d < history.getDepartmentCount(); d++) {
+            for (int p = 0; p < history.getPointCount(); p++) {
+                peak = Math.max(peak, history.getMaxWaiting(d, p));
+            }
+        }
+        double queueTop = y + 20;
+        double occupancyTop = queueTop + CHART_HEIGHT + 25;
+        UI.setColor(Color.BLACK);
+        UI.setFontSize(10);
+        UI.drawString("Waiting (mean, longest " + (long) peak + ")  ticks " + history.getStartTime() +
+                      "-" + history.getEndTime(), 5, queueTop - 4);
+        UI.drawRect(0, queueTop, PANEL_WIDTH, CHART_HEIGHT);
+        UI.drawString("Occupancy (mean, 0-100%)", 5, occupancyTop - 4);
+        UI.drawRect(0, occupancyTop, PANEL_WIDTH, CHART_HEIGHT);
+
+        double span = Math.max(1, history.getEndTime() - history.getStartTime());
+        for (int d = 0; d < history.getDepartmentCount(); d++) {
+            UI.setColor(DEPARTMENT_COLORS[d % DEPARTMENT_COLORS.length]);
+            UI.drawString(history.getName(d), PANEL_WIDTH - 60, queueTop + 12 + 11 * d);
+            double lastX = -1, lastQueue = 0, lastOccupancy = 0;
+            for (int p = 0; p < history.getPointCount(); p++) {
+                // each point is drawn at the middle of its range of ticks
+                double mid = (history.getTime(p) + history.getTime(p + 1)) / 2.0;
+                double x = PANEL_WIDTH * (mid - history.getStartTime()) / span;
+                double queue = queueTop + CHART_HEIGHT * (1 - history.getWaiting(d, p) / peak);
+                double occupancy = occupancyTop + CHART_HEIGHT * (1 - history.getOccupancy(d, p));
+                if (lastX >= 0) {
+                    UI.drawLine(lastX, lastQueue, x, queue);
+                    UI.drawLine(lastX, lastOccupancy, x, occupancy);
+                }
+                lastX = x;
+                lastQueue = queue;
+                lastOccupancy = occupancy;
+            }
+        }
+    }
+
+    /**
+     * Draws one patient: 6 units wide, 28 units high, coloured by priority
+     * @param x Center x-coordinate
+     * @param y Bottom y-coordinate
+     */
+    private void drawPatient(SimulationSnapshot.PatientGlyph p, double x, double y) {
+        UI.setColor(colorOf(p.getPriority()));
+        UI.fillOval(x-3, y-28, 6, 8);
+        UI.fillRect(x-3, y-20, 6, 20);
+
+        UI.setColor(Color.BLACK);
+        UI.drawOval(x-3, y-28, 6, 8);
+        UI.drawRect(x-3, y-20, 6, 20);
+
+        UI.setFontSize(10);
+        UI.drawString(String.valueOf(p.getInitials().charAt(0)), x-3, y-10);
+        UI.drawString(String.valueOf(p.getInitials().charAt(1)), x-3, y-1);
+    }
+
+    private static Color colorOf(int priority) {
+        switch (priority) {
+            case 1: return Color.RED;
+            case 2: return Color.ORANGE;
+            default: return Color.GREEN;
+        }
+    }
+}
@@ -0,0 +1,127 @@
+/**
+ * A splittable SplitMix64 random stream that draws exactly the same numbers
+ * as java.util.SplittableRandom for the same seed (and the same splits), but
+ * whose state (two longs) can be read and set, so a simulation's random
+ * stream can be saved in a Checkpoint and resumed where it left off.
+ */
+public final class SplitMix64 {
+    private static final long GOLDEN_GAMMA = 0x9e3779b97f4a7c15L;
+    private static final double DOUBLE_UNIT = 0x1.0p-53;
+
+    private long seed;
+    private final long gamma;  // always odd
+
+    /**
+     * Creates a stream with an unpredictable seed
+     */
+    public SplitMix64() {
+        this(mix64(System.nanoTime()) ^ mix64(Thread.currentThread().getId() * GOLDEN_GAMMA));
+    }
+
+    /**
+     * Creates a stream with the given seed (the same numbers as new SplittableRandom(seed))
+     */
+    public SplitMix64(long seed) {
+        this(seed, GOLDEN_GAMMA);
+    }
+
+    private SplitMix64(long seed, long gamma) {
+        this.seed = seed;
+        this.gamma = gamma;
+    }
+
+    /**
+     * Resumes a stream from its saved state (see getSeed and getGamma)
+     */
+    public static SplitMix64 fromState(long seed, long gamma) {
+        if ((gamma & 1) == 0) {
+            throw new IllegalArgumentException("Gamma must be odd: " + gamma);
+        }
+        return new SplitMix64(seed, gamma);
+    }
+
+    /**
+     * Splits off a new, independent stream (as SplittableRandom.split does)
+     */
+    public SplitMix64 split() {
+        return new SplitMix64(nextLong(), mixGamma(nextSeed()));
+    }
+
+    // ================== Draws ==================
+
+    public long nextLong() {
+        return mix64(nextSeed());
+    }
+
+    public int nextInt() {
+        return mix32(nextSeed());
+    }
+
+    /**
+     * Fills part of an array with the next longs of the stream, the same as
+     * calling nextLong for each in turn. Each value depends only on its
+     * position, so the loop has no chain from one value to the next and the
+     * JIT can unroll or vectorise it
+     */
+    public void nextLongs(long[] dst, int from, int count) {
+        long base = seed;
+        for (int i = 0; i < count; i++) {
+            dst[from + i] = mix64(base + (i + 1) * gamma);
+        }
+        seed = base + count * gamma;
+    }
+
+    /**
+     * Uniform int in [0, bound)
+     */
+    public int nextInt(int bound) {
+        if (bound <= 0) {
+            throw new IllegalArgumentException("Bound must be positive: " + bound);
+        }
+        int r = nextInt();
+        int m = bound - 1;
+        if ((bound & m) == 0) {
+            r &= m;
+        } else {
+            for (int u = r >>> 1; u + m - (r = u % bound) < 0; u = nextInt() >>> 1) { }
+        }
+        return r;
+    }
+
+    /**
+     * Uniform double in [0, 1)
+     */
+    public double nextDouble() {
+        return (nextLong() >>> 11) * DOUBLE_UNIT;
+    }
+
+    // ================== State ==================
+
+    public long getSeed() { return seed; }
+    public long getGamma() { return gamma; }
+
+    // ================== Mixing ==================
+
+    private long nextSeed() {
+        return seed += gamma;
+    }
+
+    private static long mix64(long z) {
+        z = (z ^ (z >>> 30)) * 0xbf58476d1ce4e5b9L;
+        z = (z ^ (z >>> 27)) * 0x94d049bb133111ebL;
+        return z ^ (z >>> 31);
+    }
+
+    private static int mix32(long z) {
+        z = (z ^ (z >>> 33)) * 0x62a9d9ed799705f5L;
+        return (int) (((z ^ (z >>> 28)) * 0xcb24d0a5c88c35b3L) >>> 32);
+    }
+
+    private static long mixGamma(long z) {
+        z = (z ^ (z >>> 33)) * 0xff51afd7ed558ccdL;
+        z = (z ^ (z >>> 33)) * 0xc4ceb9fe1a85ec53L;
+        z = (z ^ (z >>> 33)) | 1L;
+        int n = Long.bitCount(z ^ (z >>> 1));
+        return (n < 24) ? z ^ 0xaaaaaaaaaaaaaaaaL : z;
+    }
+}
@@ -0,0 +1,268 @@
+import java.util.*;
+
+/**
+ * Steady-state estimates of the mean waiting time of all patients and of
+ * priority 1 patients, from the waits of discharged patients in the order
+ * they leave (see SimulationEngine.runUntilPrecise).
+ *
+ * The start-up transient is found with MSER-5: the waits are grouped in
+ * batches of 5, and the number of batches d dropped from the start is the
+ * one that minimises the variance of the mean of the rest, divided by the
+ * number left, (sum over j > d of (Y_j - mean)^2) / (m - d)^2. Only a d in
+ * the first half of the run is trusted; otherwise the run is too short to
+ * tell (or the queues never settle) and the warm-up is not detected yet.
+ * Once it is detected in both series, everything recorded so far is
+ * discarded and recording starts again (the engine restarts its statistics
+ * at the same tick), so the estimates and the engine's statistics cover the
+ * same patients. MSER-5 is still applied after that, to drop any transient
+ * left.
+ *
+ * The waits after the warm-up are split into a fixed number of equal,
+ * consecutive batches, and the batch means give a Student-t confidence
+ * interval for the mean (non-overlapping batch means). As the run grows so
+ * do the batches, until neighbouring batches are close to independent.
+ *
+ * Waits are kept as sums of 5, so memory grows by 8 bytes per 5 discharges.
+ */
+public class SteadyStateEstimator {
+    public static final int MSER_BATCH = 5;
+    public static final int BATCHES = 20;           // batches for the confidence interval
+    public static final int MIN_BATCH_SIZE = 25;    // fewest waits in each of those batches
+
+    private final Series all = new Series("Mean wait");
+    private final Series priority1 = new Series("Mean wait (Priority 1)");
+    private int warmupEndTime = -1;
+    private long discarded = 0;   // waits dropped as warm-up
+    private int stopTime = -1;
+    private boolean converged = false;
+
+    /**
+     * The waits of one group of patients, as sums of MSER_BATCH
+     */
+    private static final class Series {
+        final String name;
+        double[] sums = new double[256];
+        int batches = 0;
+        double pending = 0;    // waits not yet making a whole batch
+        int pendingCount = 0;
+        int truncated = -1;    // batches in the warm-up, -1 until it is detected
+        MetricSummary estimate = null;
+
+        Series(String name) {
+            this.name = name;
+        }
+
+        void clear() {
+            batches = 0;
+            pending = 0;
+            pendingCount = 0;
+            truncated = -1;
+            estimate = null;
+        }
+
+        int count() {
+            return batches * MSER_BATCH + pendingCount;
+        }
+
+        void add(int wait) {
+            pending += wait;
+            if (++pendingCount < MSER_BATCH) { return; }
+            if (batches == sums.length) {
+                sums = Arrays.copyOf(sums, batches * 2);
+            }
+            sums[batches] = pending;
+            batches++;
+            pending = 0;
+            pendingCount = 0;
+        }
+
+        /**
+         * Finds the warm-up (MSER-5) and, if it is found and enough waits
+         * follow it, the batch means estimate
+         */
+        void analyse() {
+            truncated = mser();
+            estimate = null;
+            if (truncated < 0) { return; }
+            int perBatch = (batches - truncated) / BATCHES;  // MSER batches in each batch
+            if (perBatch * MSER_BATCH < MIN_BATCH_SIZE) { return; }
+            // any left over are dropped from the start, nearest the warm-up
+            MetricSummary summary = new MetricSummary(name);
+            for (int from = batches - BATCHES * perBatch; from < batches; from += perBatch) {
+                double total = 0;
+                for (int j = from; j < from + perBatch; j++) { total += sums[j]; }
+                summary.add(total / (perBatch * MSER_BATCH));
+            }
+            estimate = summary;
+        }
+
+        /**
+         * return the number of batches to drop, or -1 if the minimum is not
+         * in the first half of the run
+         */
+        int mser() {
+            int m = batches;
+            if (m < 2 * BATCHES) { return -1; }
+            int half = m / 2;
+            double sum = 0, sumSquares = 0;
+            double best = Double.POSITIVE_INFINITY;
+            int bestD = -1;
+            for (int d = m - 1; d >= 0; d--) {
+                double y = sums[d] / MSER_BATCH;
+                sum += y;
+                sumSquares += y * y;
+                if (d > half) { continue; }
+                int n = m - d;
+                double statistic = Math.max(0, sumSquares - sum * sum / n) / ((double) n * n);
+                if (statistic <= best) {  // ties go to the smaller d
+                    best = statistic;
+                    bestD = d;
+                }
+            }
+            return bestD < half ? bestD : -1;
+        }
+
+        double relativeHalfWidth() {
+            if (estimate == null) { return Double.POSITIVE_INFINITY; }
+            double mean = Math.abs(estimate.getMean());
+            // with no waiting at all there is nothing left to estimate
+            return mean == 0 ? (estimate.getHalfWidth() == 0 ? 0 : Double.POSITIVE_INFINITY)
+                             : estimate.getHalfWidth() / mean;
+        }
+    }
+
+    // ================== Recording ==================
+
+    /**
+     * Records the total wait of a discharged patient
+     */
+    void recordDischarge(Patient p) {
+        int wait = p.getTotalWaitingTime();
+        all.add(wait);
+        if (p.getPriority() == 1) {
+            priority1.add(wait);
+        }
+    }
+
+    /**
+     * Re-estimates from everything recorded since the warm-up
+     * return whether both means are now known to the given relative precision
+     * @param targetRelHalfWidth Largest half-width of the 95% confidence interval, as a fraction of the mean
+     */
+    boolean analyse(double targetRelHalfWidth) {
+        all.analyse();
+        priority1.analyse();
+        return isWarmupDetected() && all.relativeHalfWidth() <= targetRelHalfWidth
+               && priority1.relativeHalfWidth() <= targetRelHalfWidth;
+    }
+
+    /**
+     * Whether MSER-5 has found the end of the warm-up in both series, so the
+     * caller should restart its statistics and call endWarmup
+     */
+    boolean isWarmupFound() {
+        return warmupEndTime < 0 && all.truncated >= 0 && priority1.truncated >= 0;
+    }
+
+    /**
+     * Discards everything recorded so far as warm-up
+     */
+    void endWarmup(int time) {
+        warmupEndTime = time;
+        discarded += all.count();
+        all.clear();
+        priority1.clear();
+    }
+
+    void finish(int time, boolean converged) {
+        this.stopTime = time;
+        this.converged = converged;
+    }
+
+    // ================== Results ==================
+
+    /**
+     * Whether the run stopped because the target precision was reached
+     * (rather than at the tick limit)
+     */
+    public boolean isConverged() { return converged; }
+
+    /**
+     * Tick at which the run stopped
+     */
+    public int getStopTime() { return stopTime; }
+
+    public boolean isWarmupDetected() { return warmupEndTime >= 0; }
+
+    /**
+     * Tick at which the warm-up was detected and the statistics restarted (-1 if not detected)
+     */
+    public int getWarmupEndTime() { return warmupEndTime; }
+
+    /**
+     * Number of waits (all patients) left out as warm-up, including any MSER-5
+     * dropped after the restart
+     */
+    public long getDiscardedCount() { return discarded + (long) Math.max(0, all.truncated) * MSER_BATCH; }
+
+    /**
+     * Batch means estimate of the mean wait of all patients (null until there is one);
+     * each value added is the mean of one batch
+     */
+    public MetricSummary getMeanWait() { return all.estimate; }
+
+    /**
+     * Batch means estimate of the mean wait of priority 1 patients (null until there is one)
+     */
+    public MetricSummary getMeanWaitPriority1() { return priority1.estimate; }
+
+    public double getRelativeHalfWidth() { return all.relativeHalfWidth(); }
+    public double getRelativeHalfWidthPriority1() { return priority1.relativeHalfWidth(); }
+
+    public String report() {
+        StringBuilder sb = new StringBuilder();
+        sb.append(converged ? "Converged" : "Not converged").append(" at tick ").append(stopTime);
+        sb.append(isWarmupDetected() ? " | warm-up detected at tick " + warmupEndTime +
+                                       " (" + getDiscardedCount() + " waits discarded)"
+                                     : " | warm-up not detected");
+        for (Series s : new Series[]{all, priority1}) {
+            sb.append('\n');
+            if (s.estimate == null) {
+                sb.append(s.name).append(": no estimate (").append(s.batches * MSER_BATCH).append(" waits)");
+            } else {
+                sb.append(String.format("%s: %.1f +/- %.1f (%.1f%%, %d batches of %d)", s.name,
+                                        s.estimate.getMean(), s.estimate.getHalfWidth(),
+                                        100 * s.relativeHalfWidth(), BATCHES,
+                                        (s.batches - s.truncated) / BATCHES * MSER_BATCH));
+            }
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Runs the standard hospital until both mean waits are known to the given
+     * precision and prints the estimates next to the fixed-length statistics
+     * Arguments: [relative half-width] [max ticks] [seed] [arrival interval] [capacities, e.g. 16,8,12,8,14]
+     */
+    public static void main(String[] args) {
+        double target = args.length > 0 ? Double.parseDouble(args[0]) : 0.1;
+        int maxTicks = args.length > 1 ? Integer.parseInt(args[1]) : 5_000_000;
+        long seed = args.length > 2 ? Long.parseLong(args[2]) : 1;
+        int interval = args.length > 3 ? Integer.parseInt(args[3]) : 5;
+        int[] capacities = args.length > 4 ? Arrays.stream(args[4].split(",")).mapToInt(Integer::parseInt).toArray()
+                                           : new int[]{16, 8, 12, 8, 14};  // queues that settle
+
+        PatientGenerator generator = new PatientGenerator(new SplitMix64(seed));
+        generator.setArrivalInterval(interval);
+        SimulationEngine engine = new SimulationEngine(true, generator, capacities);
+        engine.setEventDriven(true);
+        long start = System.nanoTime();
+        SteadyStateEstimator estimate = engine.runUntilPrecise(target, maxTicks);
+        long elapsed = System.nanoTime() - start;
+
+        System.out.println(estimate.report());
+        System.out.printf("%n%d ticks in %.3f s (statistics below are from the end of the warm-up)%n",
+                          engine.getTime(), elapsed / 1e9);
+        System.out.println(engine.reportStatistics());
+    }
+}
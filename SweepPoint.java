@@ -0,0 +1,94 @@
+import java.util.*;
+
+/**
+ * One configuration evaluated by a CapacitySweep:
+ * the treatment room sizes, the generator parameters, and the results.
+ */
+public class SweepPoint {
+    private final int[] capacities;   // per SimulationEngine.STANDARD_DEPARTMENTS
+    private final int arrivalInterval;
+    private final double probPri1;
+    private final double probPri2;
+
+    private double pri1P95Wait = Double.NaN;
+    private double averageWait = Double.NaN;
+    private int numPri1 = 0;
+    private int ticksRun = 0;
+    private boolean pruned = false;
+
+    public SweepPoint(int[] capacities, int arrivalInterval, double probPri1, double probPri2) {
+        this.capacities = capacities.clone();
+        this.arrivalInterval = arrivalInterval;
+        this.probPri1 = probPri1;
+        this.probPri2 = probPri2;
+    }
+
+    /**
+     * Records the results of a run of this configuration
+     * @param ticksRun Length of the run (which may have stopped early once precise enough)
+     */
+    public void setResults(double pri1P95Wait, double averageWait, int numPri1, int ticksRun) {
+        this.pri1P95Wait = pri1P95Wait;
+        this.averageWait = averageWait;
+        this.numPri1 = numPri1;
+        this.ticksRun = ticksRun;
+    }
+
+    /**
+     * Marks the configuration as dominated in the pilot runs (not run in full)
+     */
+    public void setPruned(boolean pruned) { this.pruned = pruned; }
+
+    /**
+     * Whether this point is at least as good as the other on both beds and
+     * priority 1 p95 wait, and strictly better on one. A point with no priority
+     * 1 p95 wait (no priority 1 patients were discharged) counts as waiting for
+     * ever, so it only survives if nothing has fewer beds
+     */
+    public boolean dominates(SweepPoint other) {
+        double wait = getPri1P95WaitOrInfinity();
+        double otherWait = other.getPri1P95WaitOrInfinity();
+        return getTotalBeds() <= other.getTotalBeds() && wait <= otherWait
+            && (getTotalBeds() < other.getTotalBeds() || wait < otherWait);
+    }
+
+    /**
+     * Whether the scenario (generator parameters) is the same as the other point's
+     */
+    public boolean sameScenario(SweepPoint other) {
+        return arrivalInterval == other.arrivalInterval
+            && probPri1 == other.probPri1 && probPri2 == other.probPri2;
+    }
+
+    // ================== Getters ==================
+
+    public int[] getCapacities() { return capacities.clone(); }
+    public int getArrivalInterval() { return arrivalInterval; }
+    public double getProbPri1() { return probPri1; }
+    public double getProbPri2() { return probPri2; }
+    public double getPri1P95Wait() { return pri1P95Wait; }
+
+    /**
+     * The priority 1 p95 wait, or +infinity if there is none (NaN), for ordering
+     */
+    public double getPri1P95WaitOrInfinity() {
+        return Double.isNaN(pri1P95Wait) ? Double.POSITIVE_INFINITY : pri1P95Wait;
+    }
+    public double getAverageWait() { return averageWait; }
+    public int getNumPri1() { return numPri1; }
+    public int getTicksRun() { return ticksRun; }
+    public boolean isPruned() { return pruned; }
+
+    public int getTotalBeds() {
+        int beds = 0;
+        for (int c : capacities) { beds += c; }
+        return beds;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("beds=%d %s | interval=%d pri1=%.2f pri2=%.2f | pri1 p95 wait=%.1f | avg wait=%.1f | pri1 n=%d | ticks=%d",
+                             getTotalBeds(), Arrays.toString(capacities), arrivalInterval,
+                             probPri1, probPri2, pri1P95Wait, averageWait, numPri1, ticksRun);
+    }
+}
@@ -0,0 +1,43 @@
+import jdk.jfr.*;
+
+/**
+ * JFR event for one full simulation tick: its duration, and how long each
+ * phase of the tick took. Committed by SimulationEngine only while a
+ * recording has the event enabled (e.g. java -XX:StartFlightRecording ...)
+ */
+@Name("hospital.Tick")
+@Label("Simulation Tick")
+@Category("Hospital Simulation")
+@Description("One tick of the simulation, with the time spent in each phase")
+@StackTrace(false)
+public class TickEvent extends Event {
+    @Label("Tick")
+    int tick;
+
+    @Label("Collect")
+    @Description("Collecting finished patients and routing them on")
+    @Timespan(Timespan.NANOSECONDS)
+    long collect;
+
+    @Label("Treat")
+    @Timespan(Timespan.NANOSECONDS)
+    long treat;
+
+    @Label("Wait")
+    @Timespan(Timespan.NANOSECONDS)
+    long waiting;
+
+    @Label("Escalate")
+    @Description("Admitting overdue priority 1 patients")
+    @Timespan(Timespan.NANOSECONDS)
+    long escalate;
+
+    @Label("Admit")
+    @Timespan(Timespan.NANOSECONDS)
+    long admit;
+
+    @Label("Arrive")
+    @Description("Incoming transfers and new arrivals")
+    @Timespan(Timespan.NANOSECONDS)
+    long arrive;
+}
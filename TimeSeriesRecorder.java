@@ -0,0 +1,364 @@
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+
+/**
+ * Records the history of every department of a SimulationEngine: the number
+ * of waiting patients of each priority, the number in treatment and the
+ * number admitted, tick by tick (see SimulationEngine.setRecorder).
+ *
+ * Memory is bounded however long the run. Ticks are grouped into a fixed
+ * number of buckets, each keeping the minimum, maximum and sum of every
+ * series over its ticks. When the buckets are all used, neighbouring pairs
+ * are merged and each bucket covers twice as many ticks, so the whole run is
+ * kept at a resolution that halves as it grows. Recording does not allocate.
+ *
+ * Idle ticks skipped by the event-driven engine are recorded in one go, with
+ * the weight of the number of ticks skipped, so the history is the same as
+ * the tick loop's.
+ *
+ * The history can be written as CSV (one row per bucket) or as a binary
+ * columnar file: int MAGIC, int VERSION, int buckets, int columns, the column
+ * names (writeUTF), then each column in turn: the start tick and tick count
+ * of every bucket (ints), then for each series its minima, means and maxima
+ * (doubles).
+ */
+public class TimeSeriesRecorder {
+    public static final int DEFAULT_BUCKETS = 1024;
+    static final int MAGIC = 0x48535453;  // "HSTS"
+    static final int VERSION = 1;
+
+    // The series recorded for each department
+    public static final int WAITING_P1 = 0;
+    public static final int WAITING_P2 = 1;
+    public static final int WAITING_P3 = 2;
+    public static final int IN_TREATMENT = 3;
+    public static final int ADMISSIONS = 4;
+    private static final String[] SERIES_NAMES = {"waiting P1", "waiting P2", "waiting P3", "in treatment", "admissions"};
+    private static final int SERIES = SERIES_NAMES.length;
+
+    private final Department[] departments;
+    private final int columns;                // SERIES per department
+    private final int capacity;               // number of buckets (even)
+    private final double[] min, max, sum;     // [bucket * columns + column]
+    private final double[] values;            // the values of the tick being recorded
+    private final long[] lastServed;          // each department's patients served at the last tick
+
+    private int startTime = -1;  // first tick recorded
+    private int span = 1;        // ticks per bucket
+    private int size = 0;        // buckets in use, the last one possibly only partly filled
+    private int lastFill = 0;    // ticks recorded in the last bucket
+
+    /**
+     * Creates a recorder for an engine's departments (attach it with SimulationEngine.setRecorder)
+     */
+    public TimeSeriesRecorder(SimulationEngine engine) {
+        this(engine, DEFAULT_BUCKETS);
+    }
+
+    /**
+     * Creates a recorder for an engine's departments
+     * @param buckets Most buckets kept (even, at least 2)
+     */
+    public TimeSeriesRecorder(SimulationEngine engine, int buckets) {
+        if (buckets < 2 || buckets % 2 != 0) {
+            throw new IllegalArgumentException("Bucket count must be even and at least 2: " + buckets);
+        }
+        this.departments = engine.getDepartments().toArray(new Department[0]);
+        this.columns = departments.length * SERIES;
+        this.capacity = buckets;
+        this.min = new double[buckets * columns];
+        this.max = new double[buckets * columns];
+        this.sum = new double[buckets * columns];
+        this.values = new double[columns];
+        this.lastServed = new long[departments.length];
+        for (int d = 0; d < departments.length; d++) {
+            lastServed[d] = departments[d].getTotalPatientsServed();
+        }
+    }
+
+    // ================== Recording ==================
+
+    /**
+     * Records the state at the end of a tick
+     */
+    void recordTick(int time) {
+        if (startTime < 0) { startTime = time; }
+        for (int d = 0; d < departments.length; d++) {
+            Department dept = departments[d];
+            int base = d * SERIES;
+            values[base + WAITING_P1] = dept.getWaitingCount(1);
+            values[base + WAITING_P2] = dept.getWaitingCount(2);
+            values[base + WAITING_P3] = dept.getWaitingCount(3);
+            values[base + IN_TREATMENT] = dept.getTreatmentCount();
+            long served = dept.getTotalPatientsServed();
+            // a statistics reset sets the count back to zero
+            values[base + ADMISSIONS] = served >= lastServed[d] ? served - lastServed[d] : served;
+            lastServed[d] = served;
+        }
+        add(1);
+    }
+
+    /**
+     * Records idle ticks skipped by the event-driven engine: the queues and
+     * treatment rooms stay as they were at the end of the last tick, and no
+     * one is admitted
+     */
+    void recordIdle(int time, int ticks) {
+        if (startTime < 0) {
+            startTime = time;
+            recordTick(time);
+            ticks--;
+        }
+        for (int d = 0; d < departments.length; d++) {
+            values[d * SERIES + ADMISSIONS] = 0;
+        }
+        add(ticks);
+    }
+
+    /**
+     * Adds the current values for the given number of ticks, starting new
+     * buckets (and merging old ones) as needed
+     */
+    private void add(int ticks) {
+        while (ticks > 0) {
+            if (size == 0 || lastFill == span) {
+                if (size == capacity) { compact(); }
+                startBucket();
+            }
+            int n = Math.min(ticks, span - lastFill);
+            int base = (size - 1) * columns;
+            for (int c = 0; c < columns; c++) {
+                double v = values[c];
+                if (v < min[base + c]) { min[base + c] = v; }
+                if (v > max[base + c]) { max[base + c] = v; }
+                sum[base + c] += v * n;
+            }
+            lastFill += n;
+            ticks -= n;
+        }
+    }
+
+    private void startBucket() {
+        int base = size * columns;
+        Arrays.fill(min, base, base + columns, Double.POSITIVE_INFINITY);
+        Arrays.fill(max, base, base + columns, Double.NEGATIVE_INFINITY);
+        Arrays.fill(sum, base, base + columns, 0);
+        size++;
+        lastFill = 0;
+    }
+
+    /**
+     * Merges neighbouring pairs of (full) buckets, halving the number in use
+     */
+    private void compact() {
+        for (int i = 0; i < capacity / 2; i++) {
+            int to = i * columns;
+            int a = 2 * i * columns;
+            int b = a + columns;
+            for (int c = 0; c < columns; c++) {
+                min[to + c] = Math.min(min[a + c], min[b + c]);
+                max[to + c] = Math.max(max[a + c], max[b + c]);
+                sum[to + c] = sum[a + c] + sum[b + c];
+            }
+        }
+        size = capacity / 2;
+        span *= 2;
+        lastFill = span;
+    }
+
+    // ================== Getters ==================
+
+    public int getBucketCount() { return size; }
+    public int getSeriesCount() { return columns; }
+    public int getTicksPerBucket() { return span; }
+
+    /**
+     * First tick of a bucket
+     */
+    public int getBucketStart(int bucket) { return startTime + bucket * span; }
+
+    /**
+     * Number of ticks recorded in a bucket (only the last one can be short of getTicksPerBucket)
+     */
+    public int getBucketTicks(int bucket) { return bucket == size - 1 ? lastFill : span; }
+
+    /**
+     * Name of a series, e.g. "ER waiting P1"
+     * @param series Department index * 5 + WAITING_P1, ..., ADMISSIONS
+     */
+    public String getSeriesName(int series) {
+        return departments[series / SERIES].getName() + " " + SERIES_NAMES[series % SERIES];
+    }
+
+    /**
+     * Index of a department's series, for the getters
+     * return -1 if the department is not recorded
+     */
+    public int seriesOf(String department, int kind) {
+        for (int d = 0; d < departments.length; d++) {
+            if (departments[d].getName().equals(department)) { return d * SERIES + kind; }
+        }
+        return -1;
+    }
+
+    public double getMin(int series, int bucket) { return min[bucket * columns + series]; }
+    public double getMax(int series, int bucket) { return max[bucket * columns + series]; }
+
+    /**
+     * Mean of a series over the ticks of a bucket (for admissions, per tick)
+     */
+    public double getMean(int series, int bucket) {
+        return sum[bucket * columns + series] / getBucketTicks(bucket);
+    }
+
+    // ================== Plotting ==================
+
+    /**
+     * Makes an immutable copy of the queue lengths and occupancy of every
+     * department for drawing, merging buckets so there are at most the given
+     * number of points
+     */
+    public SimulationSnapshot.History history(int maxPoints) {
+        int group = Math.max(1, (size + maxPoints - 1) / maxPoints);
+        int points = (size + group - 1) / group;
+        int[] times = new int[points + 1];
+        String[] names = new String[departments.length];
+        double[][] waiting = new double[departments.length][points];
+        double[][] maxWaiting = new double[departments.length][points];
+        double[][] occupancy = new double[departments.length][points];
+        for (int d = 0; d < departments.length; d++) {
+            names[d] = departments[d].getName();
+        }
+        for (int p = 0; p < points; p++) {
+            int from = p * group;
+            int to = Math.min(size, from + group);
+            times[p] = getBucketStart(from);
+            long ticks = 0;
+            for (int b = from; b < to; b++) { ticks += getBucketTicks(b); }
+            for (int d = 0; d < departments.length; d++) {
+                int base = d * SERIES;
+                double waitingSum = 0, peak = 0, treatingSum = 0;
+                for (int b = from; b < to; b++) {
+                    int row = b * columns + base;
+                    waitingSum += sum[row + WAITING_P1] + sum[row + WAITING_P2] + sum[row + WAITING_P3];
+                    // the queue's peak is at most the sum of the priorities' peaks
+                    peak = Math.max(peak, max[row + WAITING_P1] + max[row + WAITING_P2] + max[row + WAITING_P3]);
+                    treatingSum += sum[row + IN_TREATMENT];
+                }
+                waiting[d][p] = waitingSum / ticks;
+                maxWaiting[d][p] = peak;
+                occupancy[d][p] = treatingSum / ticks / departments[d].getMaxPatients();
+            }
+        }
+        times[points] = size == 0 ? Math.max(startTime, 0) : getBucketStart(size - 1) + lastFill;
+        return new SimulationSnapshot.History(times, names, waiting, maxWaiting, occupancy);
+    }
+
+    // ================== Export ==================
+
+    /**
+     * Writes the history as CSV or as a binary columnar file (see the class comment)
+     */
+    public void write(Path file, EventLog.Format format) throws IOException {
+        try (OutputStream out = new BufferedOutputStream(Files.newOutputStream(file))) {
+            if (format == EventLog.Format.CSV) {
+                writeCsv(new PrintStream(out, false, StandardCharsets.US_ASCII.name()));
+            } else {
+                writeColumns(new DataOutputStream(out));
+            }
+        }
+    }
+
+    private void writeCsv(PrintStream out) {
+        out.print("start,ticks");
+        for (int c = 0; c < columns; c++) {
+            String name = getSeriesName(c);
+            out.print("," + name + " min," + name + " mean," + name + " max");
+        }
+        out.println();
+        for (int b = 0; b < size; b++) {
+            out.print(getBucketStart(b));
+            out.print(',');
+            out.print(getBucketTicks(b));
+            for (int c = 0; c < columns; c++) {
+                out.print(',');
+                out.print(format(getMin(c, b)));
+                out.print(',');
+                out.print(format(getMean(c, b)));
+                out.print(',');
+                out.print(format(getMax(c, b)));
+            }
+            out.println();
+        }
+        out.flush();
+    }
+
+    private static String format(double v) {
+        return v == Math.rint(v) ? String.valueOf((long) v) : String.format("%.3f", v);
+    }
+
+    private void writeColumns(DataOutputStream out) throws IOException {
+        out.writeInt(MAGIC);
+        out.writeInt(VERSION);
+        out.writeInt(size);
+        out.writeInt(2 + 3 * columns);
+        out.writeUTF("start");
+        out.writeUTF("ticks");
+        for (int c = 0; c < columns; c++) {
+            String name = getSeriesName(c);
+            out.writeUTF(name + " min");
+            out.writeUTF(name + " mean");
+            out.writeUTF(name + " max");
+        }
+        for (int b = 0; b < size; b++) { out.writeInt(getBucketStart(b)); }
+        for (int b = 0; b < size; b++) { out.writeInt(getBucketTicks(b)); }
+        for (int c = 0; c < columns; c++) {
+            for (int b = 0; b < size; b++) { out.writeDouble(getMin(c, b)); }
+            for (int b = 0; b < size; b++) { out.writeDouble(getMean(c, b)); }
+            for (int b = 0; b < size; b++) { out.writeDouble(getMax(c, b)); }
+        }
+        out.flush();
+    }
+
+    /**
+     * Runs a batch simulation with a recorder, writes the history and prints
+     * when each department's queue was longest
+     * Arguments: [ticks] [seed] [history file (.csv or .bin)] [buckets] [ticks|events]
+     */
+    public static void main(String[] args) throws IOException {
+        int ticks = args.length > 0 ? Integer.parseInt(args[0]) : 1_000_000;
+        long seed = args.length > 1 ? Long.parseLong(args[1]) : 1;
+        Path file = Paths.get(args.length > 2 ? args[2] : "history.csv");
+        int buckets = args.length > 3 ? Integer.parseInt(args[3]) : DEFAULT_BUCKETS;
+
+        SimulationEngine engine = new SimulationEngine(true, new PatientGenerator(new SplitMix64(seed)));
+        engine.setEventDriven(args.length <= 4 || args[4].equals("events"));
+        TimeSeriesRecorder recorder = new TimeSeriesRecorder(engine, buckets);
+        engine.setRecorder(recorder);
+        long start = System.nanoTime();
+        engine.runUntil(ticks);
+        long elapsed = System.nanoTime() - start;
+        recorder.write(file, file.toString().endsWith(".bin") ? EventLog.Format.BINARY : EventLog.Format.CSV);
+
+        System.out.printf("%d ticks in %.3f s: %d buckets of %d ticks written to %s%n",
+                          ticks, elapsed / 1e9, recorder.getBucketCount(), recorder.getTicksPerBucket(), file);
+        for (Department dept : engine.getDepartments()) {
+            int peakBucket = 0;
+            double peak = -1;
+            for (int b = 0; b < recorder.getBucketCount(); b++) {
+                double waiting = 0;
+                for (int kind = WAITING_P1; kind <= WAITING_P3; kind++) {
+                    waiting += recorder.getMean(recorder.seriesOf(dept.getName(), kind), b);
+                }
+                if (waiting > peak) { peak = waiting; peakBucket = b; }
+            }
+            System.out.printf("%-10s longest queue %.1f on average over ticks %d-%d (mean occupancy %.0f%%)%n",
+                              dept.getName(), peak, recorder.getBucketStart(peakBucket),
+                              recorder.getBucketStart(peakBucket) + recorder.getBucketTicks(peakBucket) - 1,
+                              100 * recorder.getMean(recorder.seriesOf(dept.getName(), IN_TREATMENT), peakBucket)
+                                  / dept.getMaxPatients());
+        }
+    }
+}
@@ -0,0 +1,144 @@
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+
+/**
+ * Replays a trace file written by TraceWriter as an ArrivalSource.
+ *
+ * The file is memory-mapped a window at a time, so traces of many millions
+ * of patients (larger than one 2GB mapping) are read without copying them
+ * through the heap. Department ids in the file are mapped to this process's
+ * DepartmentRegistry ids through the trace's footer.
+ */
+public class TraceReader implements ArrivalSource, AutoCloseable {
+    private static final long WINDOW_SIZE = 64L << 20;  // bytes mapped at a time
+
+    private final FileChannel channel;
+    private final long count;        // patients in the trace
+    private final long recordsEnd;   // file offset of the footer
+    private final int[] departmentIds;  // trace department id -> DepartmentRegistry id
+
+    private MappedByteBuffer window;
+    private long windowStart;        // file offset of the window
+    private long read = 0;           // patients returned so far
+
+    /**
+     * Opens a trace for replay
+     * @throws IOException if the file cannot be read or is not a trace
+     */
+    public TraceReader(Path file) throws IOException {
+        channel = FileChannel.open(file, StandardOpenOption.READ);
+        try {
+            ByteBuffer header = ByteBuffer.allocate(TraceWriter.HEADER_SIZE);
+            readFully(header, 0);
+            if (header.getInt() != TraceWriter.MAGIC) {
+                throw new IOException("Not a patient trace: " + file);
+            }
+            int version = header.getInt();
+            if (version != TraceWriter.VERSION) {
+                throw new IOException("Unsupported trace version " + version + ": " + file);
+            }
+            count = header.getLong();
+            recordsEnd = header.getLong();
+            departmentIds = readDepartments();
+            map(TraceWriter.HEADER_SIZE);
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Returns the next patient in the trace, or null at the end
+     */
+    @Override
+    public Patient next() {
+        if (read == count) {
+            return null;
+        }
+        if (window.remaining() < TraceWriter.MAX_RECORD_SIZE && windowStart + window.limit() < recordsEnd) {
+            remap();
+        }
+        int time = window.getInt();
+        int priority = window.get();
+        int firstName = window.getShort();
+        int lastName = window.getShort();
+        int numTreatments = window.get();
+        Queue<Treatment> treatments = new ArrayDeque<>(numTreatments);
+        for (int i = 0; i < numTreatments; i++) {
+            int dept = departmentIds[window.getShort()];
+            treatments.offer(new Treatment(dept, window.getInt()));
+        }
+        return new Patient((int) read++, time, priority, firstName, lastName, treatments);
+    }
+
+    public long getCount() { return count; }
+    public long getRead() { return read; }
+
+    @Override
+    public void close() throws IOException {
+        window = null;   // the mapping is released when collected
+        channel.close();
+    }
+
+    // ================== File Access ==================
+
+    private int[] readDepartments() throws IOException {
+        ByteBuffer footer = ByteBuffer.allocate((int) (channel.size() - recordsEnd));
+        readFully(footer, recordsEnd);
+        int[] ids = new int[footer.getInt()];
+        for (int i = 0; i < ids.length; i++) {
+            byte[] name = new byte[footer.getShort()];
+            footer.get(name);
+            ids[i] = DepartmentRegistry.register(new String(name, StandardCharsets.UTF_8));
+        }
+        return ids;
+    }
+
+    private void readFully(ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0) {
+                throw new EOFException("Trace file is truncated");
+            }
+        }
+        buffer.flip();
+    }
+
+    private void remap() {
+        map(windowStart + window.position());
+    }
+
+    private void map(long start) {
+        try {
+            windowStart = start;
+            window = channel.map(FileChannel.MapMode.READ_ONLY, start, Math.min(WINDOW_SIZE, recordsEnd - start));
+        } catch (IOException e) {
+            throw new UncheckedIOException("Cannot map trace", e);
+        }
+    }
+
+    /**
+     * Replays a trace through the standard hospital and prints the statistics
+     * Arguments: file [ticks] [scheduling policy] [ticks|events]
+     */
+    public static void main(String[] args) throws IOException {
+        int ticks = args.length > 1 ? Integer.parseInt(args[1]) : 100_000;
+        SchedulingPolicy policy = args.length > 2 ? SchedulingPolicies.forName(args[2])
+                                                  : SchedulingPolicies.strictPriority();
+        try (TraceReader trace = new TraceReader(Paths.get(args[0]))) {
+            SimulationEngine engine = new SimulationEngine(true, trace, SimulationEngine.STANDARD_CAPACITIES);
+            engine.setSchedulingPolicy(policy);
+            engine.setEventDriven(args.length > 3 && args[3].equals("events"));
+            long start = System.nanoTime();
+            engine.runUntil(ticks);
+            long elapsed = System.nanoTime() - start;
+
+            System.out.println(engine.reportStatistics());
+            System.out.printf("%n%d ticks (%d of %d patients replayed) in %.3f s%n",
+                              ticks, trace.getRead(), trace.getCount(), elapsed / 1e9);
+        }
+    }
+}
@@ -0,0 +1,147 @@
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+
+/**
+ * Records a stream of arriving patients to a compact binary trace file, which
+ * a TraceReader can replay as an ArrivalSource. Replaying a trace gives every
+ * run exactly the same workload without generating it again.
+ *
+ * File layout (big-endian):
+ * - header: int MAGIC, int VERSION, long number of patients, long footer offset
+ * - one record per patient: int arrival time, byte priority,
+ *   short first name index, short last name index, byte number of treatments,
+ *   then (short department id, int duration) for each treatment
+ * - footer: int number of departments, then each department name
+ *   (short length, UTF-8 bytes) in id order
+ * The footer maps the ids in the file to names, so a trace can be read by a
+ * process whose DepartmentRegistry numbers departments differently.
+ */
+public class TraceWriter implements AutoCloseable {
+    static final int MAGIC = 0x48455254;  // "HERT"
+    static final int VERSION = 1;
+    static final int HEADER_SIZE = 24;
+    static final int MAX_RECORD_SIZE = 4 + 1 + 2 + 2 + 1 + Byte.MAX_VALUE * (2 + 4);
+
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    private final FileChannel channel;
+    private final ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+    private long count = 0;
+    private int lastArrival = Integer.MIN_VALUE;
+    private boolean closed = false;
+
+    /**
+     * Creates a trace file, replacing any existing one
+     */
+    public TraceWriter(Path file) throws IOException {
+        channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                                   StandardOpenOption.TRUNCATE_EXISTING);
+        buffer.position(HEADER_SIZE);  // written on close, when the counts are known
+    }
+
+    /**
+     * Records the run of an arrival source up to (not including) the given tick
+     * return the number of patients recorded
+     */
+    public static long record(ArrivalSource source, int endTime, Path file) throws IOException {
+        try (TraceWriter writer = new TraceWriter(file)) {
+            Patient p;
+            while ((p = source.next()) != null && p.getArrivalTime() < endTime) {
+                writer.write(p);
+            }
+            return writer.getCount();
+        }
+    }
+
+    /**
+     * Appends a newly arrived patient (before any of its treatments started).
+     * Patients must be written in order of arrival time, and must have name
+     * indices (i.e. come from a PatientGenerator)
+     */
+    public void write(Patient p) throws IOException {
+        if (p.getArrivalTime() < lastArrival) {
+            throw new IllegalArgumentException("Patient arrives at " + p.getArrivalTime() +
+                                               ", before the previous one at " + lastArrival);
+        }
+        if (p.getFirstNameIndex() < 0 || p.getLastNameIndex() < 0) {
+            throw new IllegalArgumentException("Patient has no name indices: " + p);
+        }
+        int[] depts = p.getRemainingDepartmentIds();
+        int[] times = p.getRemainingTreatmentTimes();
+        if (depts.length > Byte.MAX_VALUE) {
+            throw new IllegalArgumentException("Too many treatments to record: " + depts.length);
+        }
+        if (buffer.remaining() < MAX_RECORD_SIZE) {
+            flush();
+        }
+        buffer.putInt(p.getArrivalTime())
+              .put((byte) p.getPriority())
+              .putShort((short) p.getFirstNameIndex())
+              .putShort((short) p.getLastNameIndex())
+              .put((byte) depts.length);
+        for (int i = 0; i < depts.length; i++) {
+            buffer.putShort((short) depts[i]).putInt(times[i]);
+        }
+        lastArrival = p.getArrivalTime();
+        count++;
+    }
+
+    public long getCount() { return count; }
+
+    /**
+     * Writes the footer and header and closes the file
+     */
+    @Override
+    public void close() throws IOException {
+        if (closed) { return; }
+        closed = true;
+        try {
+            flush();
+            long footerOffset = channel.position();
+            int numDepts = DepartmentRegistry.size();
+            buffer.putInt(numDepts);
+            for (int id = 0; id < numDepts; id++) {
+                byte[] name = DepartmentRegistry.nameOf(id).getBytes(StandardCharsets.UTF_8);
+                if (buffer.remaining() < 2 + name.length) { flush(); }
+                buffer.putShort((short) name.length).put(name);
+            }
+            flush();
+
+            buffer.putInt(MAGIC).putInt(VERSION).putLong(count).putLong(footerOffset);
+            buffer.flip();
+            long position = 0;
+            while (buffer.hasRemaining()) {
+                position += channel.write(buffer, position);
+            }
+        } finally {
+            channel.close();
+        }
+    }
+
+    private void flush() throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        buffer.clear();
+    }
+
+    /**
+     * Records arrivals from a seeded generator to a trace file
+     * Arguments: file [ticks] [seed]
+     */
+    public static void main(String[] args) throws IOException {
+        Path file = Paths.get(args[0]);
+        int ticks = args.length > 1 ? Integer.parseInt(args[1]) : 100_000;
+        PatientGenerator generator = new PatientGenerator();
+        if (args.length > 2) { generator.setRandomSeed(Long.parseLong(args[2])); }
+
+        long start = System.nanoTime();
+        long count = record(new GeneratorArrivals(generator), ticks, file);
+        System.out.printf("%d patients over %d ticks recorded to %s in %.3f s%n",
+                          count, ticks, file, (System.nanoTime() - start) / 1e9);
+    }
+}
@@ -0,0 +1,79 @@
+import java.util.*;
+
+/**
+ * Checks that overflow transfers send a patient on at most one hop per
+ * treatment: a patient who arrives by transfer joins the queue there, however
+ * long it is, and is not sent on again. Runs a network of standard hospitals
+ * whose plans name only local departments, so every transfer is an overflow
+ * one, and counts the transfers of each patient for their current treatment.
+ * Exits with status 1 if any treatment took more than one hop, or if nobody
+ * was transferred (so nothing was checked).
+ *
+ * Arguments: [ticks] [seed] [threads] [overflow threshold]
+ */
+public class TransferCheck {
+
+    /**
+     * Counts overflow hops, shared by the listeners of every site (sites run
+     * on their own threads)
+     */
+    private static final class HopCounter {
+        // patient -> their remaining treatments when last transferred
+        private final Map<Patient, Integer> lastHop = new IdentityHashMap<>();
+        private long transfers = 0;
+        private long repeated = 0;
+        private String firstRepeat = null;
+
+        synchronized void transferred(int time, Patient p, String department) {
+            transfers++;
+            Integer before = lastHop.put(p, p.getRemainingTreatmentCount());
+            if (before != null && before == p.getRemainingTreatmentCount()) {
+                repeated++;
+                if (firstRepeat == null) {
+                    firstRepeat = "tick " + time + ": patient " + p.getId() + " sent on again to " + department;
+                }
+            }
+        }
+
+        synchronized void discharged(Patient p) {
+            lastHop.remove(p);
+        }
+    }
+
+    public static void main(String[] args) {
+        int ticks = args.length > 0 ? Integer.parseInt(args[0]) : 100_000;
+        long seed = args.length > 1 ? Long.parseLong(args[1]) : 1;
+        int threads = args.length > 2 ? Integer.parseInt(args[2]) : 4;
+        int threshold = args.length > 3 ? Integer.parseInt(args[3]) : 5;
+
+        HospitalNetwork network = new HospitalNetwork(new String[]{"Wellington", "Hutt", "Kenepuru"}, true, seed);
+        network.setThreads(threads);
+        network.setOverflow(threshold, "MRI", "Surgery");
+        HopCounter hops = new HopCounter();
+        for (int site = 0; site < network.getSiteCount(); site++) {
+            network.getEngine(site).setListener(new SimulationListener() {
+                @Override
+                public void patientTransferred(int time, Patient patient, String department) {
+                    hops.transferred(time, patient, department);
+                }
+
+                @Override
+                public void patientDischarged(int time, Patient patient) {
+                    hops.discharged(patient);
+                }
+            });
+        }
+        network.runUntil(ticks);
+
+        System.out.printf("%,d overflow transfers, %,d sent on again%n", hops.transfers, hops.repeated);
+        if (hops.transfers == 0) {
+            System.out.println("FAILED: nobody was transferred");
+            System.exit(1);
+        }
+        if (hops.repeated > 0) {
+            System.out.println("FAILED: " + hops.firstRepeat);
+            System.exit(1);
+        }
+        System.out.println("OK: at most one overflow hop per treatment");
+    }
+}
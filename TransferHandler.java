@@ -0,0 +1,25 @@
+
+/**
+ * Lets a SimulationEngine send patients to departments it does not have,
+ * e.g. the departments of other hospitals in a HospitalNetwork.
+ */
+public interface TransferHandler {
+
+    /**
+     * Chooses the department a patient goes to next (not asked for patients
+     * transferred in, who go where they were sent)
+     * @param plannedId DepartmentRegistry id of the department in the patient's plan
+     * return the id of the department to use: plannedId to follow the plan,
+     *        or another department (e.g. another site's) to redirect the patient
+     */
+    default int chooseDepartment(int time, Patient patient, int plannedId) {
+        return plannedId;
+    }
+
+    /**
+     * Takes a patient whose next department is not in the engine
+     * return false if the department is unknown here too (the engine then warns
+     *        and drops the patient)
+     */
+    boolean sendAway(int time, Patient patient);
+}
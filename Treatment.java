@@ -1,26 +1,65 @@
 /**
  * A Treatment is an object with two fields:
- *   - the department the patient must be treated in, and
+ *   - the department the patient must be treated in (as a DepartmentRegistry id), and
  *   - the time they will need to be treated.
  * While they are receiving the treatment, the time remaining will be reduced on each time tick
  * The initial treatment time is always at least 1 tick.
  */
 public class Treatment {
-    private String department;
+    private int departmentId;
     private int timeRemaining;
 
     /**
      * Constructor
+     * Throws IllegalArgumentException if the department has not been registered,
+     * so unknown departments are found when the plan is built, not during the simulation
      */
     public Treatment(String dept, int time){
-        department = dept;
+        departmentId = DepartmentRegistry.idOf(dept);
+        if (departmentId < 0) {
+            throw new IllegalArgumentException("Unknown department: " + dept);
+        }
+        timeRemaining = time;
+    }
+
+    /**
+     * Constructor for a department id from the DepartmentRegistry
+     */
+    public Treatment(int deptId, int time){
+        if (deptId < 0 || deptId >= DepartmentRegistry.size()) {
+            throw new IllegalArgumentException("Unknown department id: " + deptId);
+        }
+        departmentId = deptId;
         timeRemaining = time;
     }
 
     /**
      * Return the department 
      */
-    public String getDepartment(){return department;}
+    public String getDepartment(){return DepartmentRegistry.nameOf(departmentId);}
+
+    /**
+     * Return the department id
+     */
+    public int getDepartmentId(){return departmentId;}
+
+    /**
+     * Moves the treatment to another department (e.g. another hospital's), keeping its time
+     */
+    void setDepartmentId(int deptId){
+        if (deptId < 0 || deptId >= DepartmentRegistry.size()) {
+            throw new IllegalArgumentException("Unknown department id: " + deptId);
+        }
+        departmentId = deptId;
+    }
+
+    /**
+     * Reuses the treatment for another patient (see Patient.reuse)
+     */
+    void reset(int deptId, int time){
+        setDepartmentId(deptId);
+        timeRemaining = time;
+    }
 
     /**
      * Return the treatment time remaining 
@@ -32,9 +71,14 @@ public class Treatment {
      */
     public void advanceTime(){timeRemaining--;}
 
+    /**
+     * Advance the treatment by several time ticks at once
+     */
+    public void advanceTime(int ticks){timeRemaining -= ticks;}
+
     /**
      * Return a string to print
      */
-    public String toString(){return department+"("+timeRemaining+")";}
+    public String toString(){return getDepartment()+"("+timeRemaining+")";}
 }
 
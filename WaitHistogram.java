@@ -0,0 +1,160 @@
+import java.util.*;
+import java.io.*;
+import java.nio.ByteBuffer;
+
+/**
+ * A histogram of times (in ticks) with log-sized buckets, in the style of
+ * HdrHistogram, for percentiles of waiting and system times over runs of any
+ * length.
+ *
+ * Values below 2^SUB_BUCKET_BITS each have their own bucket. Above that, each
+ * power of two is split into 2^(SUB_BUCKET_BITS-1) equal buckets, so any
+ * value is reported to within 1/2^(SUB_BUCKET_BITS-1) (under 1%) of its true
+ * value. The bucket array has a fixed size covering every int, so memory
+ * does not grow with the run and recording never allocates.
+ *
+ * Histograms can be merged, e.g. to pool the results of parallel replications.
+ */
+public class WaitHistogram {
+    private static final int SUB_BUCKET_BITS = 8;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;          // exact buckets for small values
+    private static final int HALF_SUB_BUCKETS = SUB_BUCKETS >> 1;         // buckets per power of two above that
+    private static final int NUM_BUCKETS = SUB_BUCKETS + (Integer.SIZE - 1 - SUB_BUCKET_BITS) * HALF_SUB_BUCKETS;
+
+    private final long[] counts = new long[NUM_BUCKETS];
+    private long totalCount = 0;
+    private long total = 0;
+    private int min = Integer.MAX_VALUE;
+    private int max = 0;
+
+    // ================== Recording ==================
+
+    /**
+     * Records one time
+     * @param value Time in ticks (negative values are recorded as 0)
+     */
+    public void record(int value) {
+        if (value < 0) { value = 0; }
+        counts[bucketOf(value)]++;
+        totalCount++;
+        total += value;
+        if (value < min) { min = value; }
+        if (value > max) { max = value; }
+    }
+
+    /**
+     * Adds all the values recorded in another histogram to this one
+     */
+    public void merge(WaitHistogram other) {
+        for (int i = 0; i < NUM_BUCKETS; i++) {
+            counts[i] += other.counts[i];
+        }
+        totalCount += other.totalCount;
+        total += other.total;
+        min = Math.min(min, other.min);
+        max = Math.max(max, other.max);
+    }
+
+    public void reset() {
+        Arrays.fill(counts, 0);
+        totalCount = 0;
+        total = 0;
+        min = Integer.MAX_VALUE;
+        max = 0;
+    }
+
+    // ================== Queries ==================
+
+    /**
+     * The value at a percentile: the highest value that at least that percentage
+     * of the recorded values are no greater than (to within the bucket resolution)
+     * @param percentile 0-100
+     * return the value, or 0 if nothing has been recorded
+     */
+    public int getValueAtPercentile(double percentile) {
+        if (totalCount == 0) { return 0; }
+        long rank = Math.max(1, (long) Math.ceil(Math.min(100, percentile) / 100 * totalCount));
+        long seen = 0;
+        for (int i = 0; i < NUM_BUCKETS; i++) {
+            seen += counts[i];
+            if (seen >= rank) {
+                return Math.max(min, Math.min(max, highestInBucket(i)));
+            }
+        }
+        return max;
+    }
+
+    public long getCount() { return totalCount; }
+    public long getTotal() { return total; }
+    public int getMax() { return max; }
+    public int getMin() { return totalCount == 0 ? 0 : min; }
+
+    public double getMean() {
+        return totalCount == 0 ? 0.0 : (double) total / totalCount;
+    }
+
+    /**
+     * One-line summary: count, mean, p50, p90, p99, p99.9 and max
+     */
+    @Override
+    public String toString() {
+        return String.format("n=%d | mean %.1f | p50 %d | p90 %d | p99 %d | p99.9 %d | max %d",
+                             totalCount, getMean(), getValueAtPercentile(50), getValueAtPercentile(90),
+                             getValueAtPercentile(99), getValueAtPercentile(99.9), max);
+    }
+
+    // ================== Checkpoints ==================
+
+    /**
+     * Writes the histogram to a checkpoint, listing only the buckets in use
+     */
+    void writeCheckpoint(DataOutput out) throws IOException {
+        out.writeLong(totalCount);
+        out.writeLong(total);
+        out.writeInt(min);
+        out.writeInt(max);
+        int used = 0;
+        for (long count : counts) {
+            if (count != 0) { used++; }
+        }
+        out.writeShort(used);
+        for (int i = 0; i < NUM_BUCKETS; i++) {
+            if (counts[i] != 0) {
+                out.writeShort(i);
+                out.writeLong(counts[i]);
+            }
+        }
+    }
+
+    /**
+     * Replaces the contents with a histogram written by writeCheckpoint
+     */
+    void readCheckpoint(ByteBuffer in) {
+        reset();
+        totalCount = in.getLong();
+        total = in.getLong();
+        min = in.getInt();
+        max = in.getInt();
+        for (int i = in.getShort(); i > 0; i--) {
+            int bucket = in.getShort();
+            counts[bucket] = in.getLong();
+        }
+    }
+
+    // ================== Buckets ==================
+
+    private static int bucketOf(int value) {
+        if (value < SUB_BUCKETS) { return value; }
+        int shift = (Integer.SIZE - Integer.numberOfLeadingZeros(value)) - SUB_BUCKET_BITS;  // >= 1
+        int top = value >>> shift;                                                          // in [HALF_SUB_BUCKETS, SUB_BUCKETS)
+        return SUB_BUCKETS + (shift - 1) * HALF_SUB_BUCKETS + (top - HALF_SUB_BUCKETS);
+    }
+
+    private static int highestInBucket(int bucket) {
+        if (bucket < SUB_BUCKETS) { return bucket; }
+        int j = bucket - SUB_BUCKETS;
+        int shift = j / HALF_SUB_BUCKETS + 1;
+        long top = HALF_SUB_BUCKETS + j % HALF_SUB_BUCKETS;
+        return (int) Math.min(Integer.MAX_VALUE, ((top + 1) << shift) - 1);
+    }
+}
@@ -0,0 +1,179 @@
+import java.util.*;
+import java.io.*;
+import java.nio.ByteBuffer;
+
+/**
+ * The waiting queue of a department, kept as one bucket per priority (1-3).
+ * Each bucket is a PatientHeap, so admitting the next patient, admitting the
+ * next priority 1 patient and removing a particular patient are all O(log n).
+ *
+ * The order patients leave in is set by a SchedulingPolicy, e.g.
+ * - FIFO order: patients leave in the order they joined the queue
+ * - Priority order: patients leave in Patient.compareTo order
+ *   (priority, then arrival time)
+ */
+public class WaitingQueue implements Iterable<Patient> {
+    public static final int NUM_PRIORITIES = 3;
+
+    private SchedulingPolicy policy;
+    private final PatientHeap[] buckets = new PatientHeap[NUM_PRIORITIES];
+    private int size = 0;
+    private long sequence = 0;  // order in which patients joined the queue, the tie-break of equal keys
+
+    /**
+     * Creates an empty queue
+     * @param priorityOrder Whether patients leave in priority order (true) or FIFO order (false)
+     */
+    public WaitingQueue(boolean priorityOrder) {
+        this(priorityOrder ? SchedulingPolicies.strictPriority() : SchedulingPolicies.fifo());
+    }
+
+    /**
+     * Creates an empty queue
+     * @param policy Decides the order patients leave in (copied if it keeps state)
+     */
+    public WaitingQueue(SchedulingPolicy policy) {
+        this.policy = policy.copy();
+        for (int i = 0; i < NUM_PRIORITIES; i++) {
+            buckets[i] = new PatientHeap(Patient.PRIMARY_HANDLE);
+        }
+    }
+
+    // ================== Core Operations ==================
+
+    public void offer(Patient p) {
+        long order = sequence++;
+        bucketFor(p.getPriority()).add(p, policy.key(p, order), order);
+        size++;
+    }
+
+    /**
+     * Removes and returns the next patient to admit (null if empty)
+     */
+    public Patient poll() {
+        PatientHeap next = null;
+        boolean strict = policy.isStrictPriority();
+        for (PatientHeap bucket : buckets) {
+            if (bucket.isEmpty()) { continue; }
+            if (strict) { next = bucket; break; }
+            if (next == null || bucket.peekKey() < next.peekKey()
+                || (bucket.peekKey() == next.peekKey() && bucket.peekTie() < next.peekTie())) { next = bucket; }
+        }
+        if (next == null) { return null; }
+        size--;
+        policy.removed(next.peekKey());
+        return next.poll();
+    }
+
+    /**
+     * Removes and returns the next patient of the given priority (null if none)
+     */
+    public Patient pollPriority(int priority) {
+        PatientHeap bucket = bucketFor(priority);
+        if (bucket.isEmpty()) { return null; }
+        size--;
+        policy.removed(bucket.peekKey());
+        return bucket.poll();
+    }
+
+    /**
+     * Removes a particular patient
+     * return true if the patient was in this queue
+     */
+    public boolean remove(Patient p) {
+        PatientHeap bucket = bucketFor(p.getPriority());
+        if (!bucket.contains(p)) {
+            return false;
+        }
+        policy.removed(bucket.keyOf(p));
+        bucket.remove(p);
+        size--;
+        return true;
+    }
+
+    /**
+     * Changes the policy, re-keying the waiting patients as if they had joined
+     * under the new one (in the order they joined)
+     */
+    public void setPolicy(SchedulingPolicy newPolicy) {
+        List<Patient> waiting = new ArrayList<>(size);
+        for (PatientHeap bucket : buckets) {
+            while (!bucket.isEmpty()) {
+                waiting.add(bucket.poll());
+            }
+        }
+        waiting.sort(Comparator.comparingInt(Patient::getWaitStartClock).thenComparingInt(Patient::getId));
+        policy = newPolicy.copy();
+        size = 0;
+        for (Patient p : waiting) {
+            offer(p);
+        }
+    }
+
+    /**
+     * Makes room for the given number of patients of each priority without allocating
+     */
+    public void ensureCapacity(int perPriority) {
+        for (PatientHeap bucket : buckets) {
+            bucket.ensureCapacity(perPriority);
+        }
+    }
+
+    // ================== Checkpoints ==================
+
+    void writeCheckpoint(DataOutput out, Map<Patient, Integer> patientIndex) throws IOException {
+        policy.writeCheckpoint(out);
+        out.writeLong(sequence);
+        for (PatientHeap bucket : buckets) {
+            bucket.writeCheckpoint(out, patientIndex);
+        }
+    }
+
+    void readCheckpoint(ByteBuffer in, Patient[] table) {
+        policy = SchedulingPolicies.readCheckpoint(in);
+        sequence = in.getLong();
+        size = 0;
+        for (PatientHeap bucket : buckets) {
+            bucket.readCheckpoint(in, table);
+            size += bucket.size();
+        }
+    }
+
+    // ================== Getters ==================
+
+    public int size() { return size; }
+    public SchedulingPolicy getPolicy() { return policy; }
+    public boolean isEmpty() { return size == 0; }
+
+    /**
+     * Number of waiting patients with the given priority
+     */
+    public int size(int priority) { return bucketFor(priority).size(); }
+
+    /**
+     * Iterates over priority 1 patients first, then 2, then 3
+     * (within a priority, in no particular order)
+     */
+    @Override
+    public Iterator<Patient> iterator() {
+        return new Iterator<Patient>() {
+            private int bucket = 0;
+            private int next = 0;
+            public boolean hasNext() {
+                while (bucket < NUM_PRIORITIES && next >= buckets[bucket].size()) {
+                    bucket++;
+                    next = 0;
+                }
+                return bucket < NUM_PRIORITIES;
+            }
+            public Patient next() {
+                if (!hasNext()) { throw new NoSuchElementException(); }
+                return buckets[bucket].get(next++);
+            }
+        };
+    }
+
+    private PatientHeap bucketFor(int priority) {
+        return buckets[Math.min(Math.max(priority, 1), NUM_PRIORITIES) - 1];
+    }
+}